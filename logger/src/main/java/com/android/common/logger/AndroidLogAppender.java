@@ -9,8 +9,18 @@ import java.io.InputStreamReader;
 /**
  * Default debugger to be used instea of System.out.println(msg);
  */ 
-public class AndroidLogAppender implements Appender {
+public class AndroidLogAppender implements EventAppender {
     
+    /**
+     * A builder grown beyond this size by a huge message is trimmed
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final StringBuilder line = new StringBuilder(256);
+    private String lastAppTag = null;
+    private String lastTag = null;
+    private String lastParamTag = null;
+
     // ---------------------------------------------------------------------------
 
     /** Default constructor */
@@ -39,6 +49,49 @@ public class AndroidLogAppender implements Appender {
             Log.v(tempTag, msg);
         } 
     }
+
+    /**
+     * AndroidLogAppender writes one event to logcat, mapped by its level name
+     * like writeLogMessage, so the error context lines stay verbose. The
+     * builder is reused and the tag String is kept while the tag does not
+     * change, only the message String logcat needs is built per event.
+     */
+    public void writeLogEvent(LogEvent event) {
+        String tag;
+        String msg;
+        synchronized (line) {
+            String eventTag = event.getTag();
+            if ((lastParamTag == null) || (event.getAppTag() != lastAppTag)
+                    || ((eventTag == null) ? (lastTag != null) : !eventTag.equals(lastTag))) {
+                line.setLength(0);
+                event.appendParamTag(line);
+                lastAppTag = event.getAppTag();
+                lastTag = eventTag;
+                lastParamTag = line.toString();
+            }
+            tag = lastParamTag;
+            line.setLength(0);
+            event.appendMessage(line);
+            msg = line.toString();
+            if (line.capacity() > MAX_RETAINED_CAPACITY) {
+                line.setLength(0);
+                line.trimToSize();
+            }
+        }
+
+        String level = event.getLevelName();
+        if ("ERROR".equals(level)) {
+            Log.e(tag, msg);
+        } else if ("INFO".equals(level)) {
+            Log.i(tag, msg);
+        } else if ("DEBUG".equals(level)) {
+            Log.d(tag, msg);
+        } else if ("WARN".equals(level)) {
+            Log.w(tag, msg);
+        } else {
+            Log.v(tag, msg);
+        }
+    }
     
     /**
      * ConsoleAppender doesn't implement this method
@@ -0,0 +1,296 @@
+package com.android.common.logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer / single-consumer ring buffer used by LogImpl in
+ * asynchronous mode.
+ * Producers claim a sequence number, fill the preallocated slot and publish
+ * it; a single consumer thread drains the published slots in sequence order
+ * and hands them back to LogImpl, which writes them to the appender. When the
+ * ring is full producers wait for the consumer instead of dropping messages.
+ */
+class AsyncDispatcher implements Runnable {
+
+    /**
+     * Max time the consumer parks before re-checking the ring (blocking mode)
+     */
+    private static final long BLOCKING_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Park time for the sleeping strategy and for producers facing a full ring
+     */
+    private static final long SLEEP_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Number of empty polls the sleeping strategy spends yielding before it parks
+     */
+    private static final int SLEEP_YIELD_TRIES = 100;
+
+    /**
+     * Max time drain() waits for the consumer before giving up
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Preallocated slot of the ring. It owns the LogEvent handed to the
+     * appender; a parameterized message is stored with its arguments and only
+     * formatted into the event by the consumer thread.
+     */
+    static final class Entry {
+        final LogEvent event = new LogEvent();
+        String msg;
+        Object[] args;
+        long arg1;
+        long arg2;
+        int primitiveArgs;
+        MessageSupplier supplier;
+
+        void clear() {
+            event.clear();
+            msg = null;
+            args = null;
+            primitiveArgs = 0;
+            supplier = null;
+        }
+    }
+
+    private final LogImpl log;
+    private final Entry[] entries;
+    private final int mask;
+    private final int waitStrategy;
+
+    /**
+     * Sequence published in each slot, -1 when the slot was never used
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * Next sequence to be claimed by a producer
+     */
+    private final AtomicLong claimed = new AtomicLong(0);
+
+    /**
+     * Last sequence handed to the appender
+     */
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    private volatile boolean running = false;
+    private volatile boolean consumerParked = false;
+    private Thread consumer = null;
+
+    AsyncDispatcher(LogImpl log, int capacity, int waitStrategy) {
+        int size = 16;
+        while (size < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        this.log = log;
+        this.waitStrategy = waitStrategy;
+        this.mask = size - 1;
+        this.entries = new Entry[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Start the consumer thread
+     */
+    synchronized void start() {
+        if (consumer != null) {
+            return;
+        }
+        running = true;
+        consumer = new Thread(this, "SmartLogger-async");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Publish a message into the ring, its text is built by the consumer thread.
+     * @param msg the message, or the pattern when args or primitiveArgs are set
+     * @param location the caller location, may be null
+     * @param throwable the exception logged with the message, may be null
+     * @param args the pattern arguments, may be null
+     * @param primitiveArgs number of primitive pattern arguments (0, 1 or 2)
+     * @param supplier builds the message when not null, msg is then ignored
+     * @return false if the dispatcher has been shut down, or if the caller is
+     * the consumer thread itself (a supplier, an argument or an appender
+     * logging), and the caller has to write the message by itself
+     */
+    boolean publish(String appTag, String tag, int msgLevel, String levelMsg, String msg,
+            String location, Throwable throwable, Object[] args, long arg1, long arg2, int primitiveArgs,
+            MessageSupplier supplier) {
+        if (Thread.currentThread() == consumer) {
+            // The consumer cannot wait for a slot it has to free itself
+            return false;
+        }
+        if (!running) {
+            // The caller writes this message itself, the ones it published
+            // before have to reach the appender first
+            drain();
+            return false;
+        }
+
+        long seq = claimed.getAndIncrement();
+        long wrapPoint = seq - entries.length;
+        int tries = 0;
+        while (wrapPoint > consumed.get()) {
+            // Ring is full: wait for the consumer to free the slot
+            if (consumerParked) {
+                LockSupport.unpark(consumer);
+            }
+            tries = backOff(tries);
+        }
+
+        int index = (int) seq & mask;
+        Entry entry = entries[index];
+        entry.event.set(appTag, tag, msgLevel, levelMsg, System.currentTimeMillis(),
+                Thread.currentThread().getId(), location, throwable);
+        entry.msg = msg;
+        entry.args = args;
+        entry.arg1 = arg1;
+        entry.arg2 = arg2;
+        entry.primitiveArgs = primitiveArgs;
+        entry.supplier = supplier;
+        published.lazySet(index, seq);
+
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+
+        if (!running) {
+            // Shut down while we were publishing: nobody else is going to
+            // consume this entry
+            drainBatch();
+        }
+        return true;
+    }
+
+    /**
+     * Wait until every message published so far has reached the appender
+     */
+    void drain() {
+        long target = claimed.get() - 1;
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        int tries = 0;
+        while (consumed.get() < target) {
+            if (!running || Thread.currentThread() == consumer) {
+                drainBatch();
+            } else if (consumerParked) {
+                LockSupport.unpark(consumer);
+            }
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("[target:" + target + "][consumed:" + consumed.get()
+                        + "] async drain timeout");
+                return;
+            }
+            tries = backOff(tries);
+        }
+    }
+
+    /**
+     * Stop the consumer thread after all pending messages have been written
+     */
+    void shutdown() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = consumer;
+        }
+        if (t == null) {
+            return;
+        }
+        LockSupport.unpark(t);
+        if (t != Thread.currentThread()) {
+            try {
+                t.join(DRAIN_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+    }
+
+    public void run() {
+        int idle = 0;
+        while (running || consumed.get() < claimed.get() - 1) {
+            if (drainBatch() > 0) {
+                idle = 0;
+            } else if (!running) {
+                // A producer claimed a slot but did not publish it yet
+                Thread.yield();
+            } else {
+                idle = waitForData(idle);
+            }
+        }
+    }
+
+    /**
+     * Hand every contiguous published slot to the appender.
+     * @return the number of messages written
+     */
+    private synchronized int drainBatch() {
+        int count = 0;
+        long next = consumed.get() + 1;
+        while (true) {
+            int index = (int) next & mask;
+            if (published.get(index) != next) {
+                break;
+            }
+            Entry entry = entries[index];
+            try {
+                entry.event.setMessage(entry.msg, entry.args, entry.arg1, entry.arg2,
+                        entry.primitiveArgs, entry.supplier);
+                log.dispatchAsync(entry.event);
+            } finally {
+                entry.clear();
+                consumed.lazySet(next);
+            }
+            next++;
+            count++;
+        }
+        return count;
+    }
+
+    private int waitForData(int idle) {
+        switch (waitStrategy) {
+            case Log.ASYNC_WAIT_YIELDING:
+                Thread.yield();
+                break;
+            case Log.ASYNC_WAIT_SLEEPING:
+                if (idle < SLEEP_YIELD_TRIES) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, SLEEP_PARK_NANOS);
+                }
+                break;
+            case Log.ASYNC_WAIT_BLOCKING:
+            default:
+                consumerParked = true;
+                // Re-check after raising the flag, a producer may have
+                // published in between and missed it
+                if (published.get((int) (consumed.get() + 1) & mask) != consumed.get() + 1
+                        && running) {
+                    LockSupport.parkNanos(this, BLOCKING_PARK_NANOS);
+                }
+                consumerParked = false;
+                break;
+        }
+        return idle + 1;
+    }
+
+    private int backOff(int tries) {
+        if (waitStrategy == Log.ASYNC_WAIT_YIELDING || tries < SLEEP_YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(this, SLEEP_PARK_NANOS);
+        }
+        return tries + 1;
+    }
+}
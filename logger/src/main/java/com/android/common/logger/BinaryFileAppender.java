@@ -0,0 +1,620 @@
+package com.android.common.logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * This appender logs messages to a compact binary file, see BinaryLogFormat.
+ * The app tag, tags, level names, locations and message formats are written
+ * once per file in a string table and then referenced by id, time stamps are
+ * written as varint deltas and the arguments of parameterized messages are
+ * stored raw, so a message is not even formatted unless another appender
+ * needs the text. BinaryLogDecoder turns the files back into the text layout
+ * of FileAppender, and so does getLogContent.
+ * As in FileAppender the file is renamed to fileName.1.blog once it reaches
+ * maxFileSize, and at most backup renamed files are kept. The shards are
+ * shifted by the rotation worker of FileAppender, so the writers do not wait
+ * for it. A record torn by a crash at the end of the file is cut when the
+ * file is opened again.
+ */
+public class BinaryFileAppender implements EventAppender {
+
+    /**
+     * Max number of strings in the table of a file, other strings are
+     * written inline
+     */
+    static final int MAX_STRINGS = 4096;
+
+    /**
+     * Strings longer than this are written inline, they are unlikely to repeat
+     */
+    private static final int MAX_INTERNED_LENGTH = 256;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private String contentPath = null;
+    private boolean memory = false;
+
+    private String fileName = null;
+    private String path = null;
+    private String suffix = ".blog";
+    private String fileUrl = null;
+
+    // default 1M
+    private long maxFileSize = 1024 * 1024 * 1;
+    private int backup = 4;
+
+    private FileAdapter file = null;
+    private OutputStream os = null;
+    private long fileSize = 0;
+
+    /**
+     * Max time in milliseconds a buffered record waits before being flushed,
+     * 0 disables the timer. The timer runs on the worker thread of
+     * FileAppender.
+     */
+    private long flushInterval = 1000;
+    private ScheduledFuture<?> flushTask = null;
+
+    /**
+     * True when records were buffered since the last flush
+     */
+    private boolean dirty = false;
+
+    /**
+     * String table of the current file
+     */
+    private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+
+    /**
+     * Time stamp of the previous record of the current file
+     */
+    private long lastTimeStamp = 0;
+
+    /**
+     * lock
+     */
+    private Object lock = new Object();
+
+    /**
+     * Rotations submitted and not done yet, guarded by lock
+     */
+    private final FileAppender.Rotations rotations = new FileAppender.Rotations(lock);
+
+    /**
+     * Sequence number of the rolled files waiting for their rotation
+     */
+    private int rollCount = 0;
+
+    /**
+     * True once the rolled files left by a previous run were rotated
+     */
+    private boolean leftoversRotated = false;
+
+    /**
+     * Records of a message, string definitions first, reused under lock
+     */
+    private final BinaryLogFormat.Buffer records = new BinaryLogFormat.Buffer(256);
+    private final BinaryLogFormat.Buffer body = new BinaryLogFormat.Buffer(256);
+    private final BinaryLogFormat.Buffer definition = new BinaryLogFormat.Buffer(64);
+
+    /**
+     * Text of the arguments which are not numbers, reused under lock
+     */
+    private final StringBuilder text = new StringBuilder(64);
+
+    /**
+     * Default constructor
+     */
+    public BinaryFileAppender(String path, String fileName) {
+        this(path, fileName, 4);
+    }
+
+    /**
+     * Default constructor
+     */
+    public BinaryFileAppender(String path, String fileName, int backup) {
+        if ((null == fileName) || (fileName.length() <= 0)) {
+            throw new IllegalArgumentException("[fileName:" + fileName + "] empty file name");
+        }
+
+        System.out.println("[path:" + path + "][fileName:" + fileName
+                + "][backup:" + backup + "] binary file appender initialize");
+        this.fileName = fileName;
+        this.path = path;
+        this.contentPath = path;
+        this.fileUrl = FileAppender.toFileUrl(path, fileName, suffix);
+
+        if (backup >= 0) {
+            this.backup = backup;
+        }
+    }
+
+    //----------------------------------------------------------- Public Methods
+    /**
+     * Sets the maximum file size, see FileAppender.setMaxFileSize
+     *
+     * @param maxFileSize the max size in bytes
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        if (maxFileSize > 1024) {
+            this.maxFileSize = maxFileSize;
+        }
+    }
+
+    /**
+     * Sets the content path, where getLogContent writes the decoded log
+     */
+    public void setContentPath(String path) {
+        contentPath = path;
+    }
+
+    /**
+     * Sets the content type of the log, see FileAppender.setLogContentType
+     */
+    public void setLogContentType(boolean memory) {
+        this.memory = memory;
+    }
+
+    /**
+     * Sets the max time a buffered record waits before being written to the
+     * file, see FileAppender.setFlushInterval. The records are buffered in
+     * memory, ERROR records are written at once. The default is one second.
+     *
+     * @param flushInterval the interval in milliseconds, 0 disables the timer
+     */
+    public void setFlushInterval(long flushInterval) {
+        synchronized (lock) {
+            this.flushInterval = Math.max(flushInterval, 0);
+            if (null != flushTask) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Start the flush timer if needed. Must be called holding lock.
+     */
+    private void scheduleFlush() {
+        if ((flushInterval > 0) && (null == flushTask)) {
+            flushTask = FileAppender.getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * BinaryFileAppender writes one message as a text record
+     */
+    public void writeLogMessage(String paramTag, String level, String msg) throws IOException {
+        synchronized (lock) {
+            if (null == os) {
+                return;
+            }
+            records.reset();
+            body.reset();
+            long timeStamp = System.currentTimeMillis();
+            body.writeZigZag(timeStamp - lastTimeStamp);
+            lastTimeStamp = timeStamp;
+            writeRef(level);
+            writeRef(paramTag);
+            body.writeString((null != msg) ? msg : "null");
+            records.writeRecord(BinaryLogFormat.TYPE_TEXT, body);
+            writeRecords("ERROR".equals(level));
+        }
+    }
+
+    /**
+     * BinaryFileAppender writes one event, with the raw arguments of a
+     * parameterized message
+     */
+    public void writeLogEvent(LogEvent event) throws IOException {
+        synchronized (lock) {
+            if (null == os) {
+                return;
+            }
+            records.reset();
+            body.reset();
+            body.writeZigZag(event.getTimeStamp() - lastTimeStamp);
+            lastTimeStamp = event.getTimeStamp();
+            body.writeZigZag(event.getLevel());
+            writeRef(event.getLevelName());
+            writeRef(event.getAppTag());
+            writeRef(event.getTag());
+            writeRef(event.getLocation());
+            body.writeVarint(event.getThreadId());
+
+            boolean arguments = event.hasArguments();
+            Throwable throwable = event.getThrowable();
+            body.writeByte((arguments ? BinaryLogFormat.FLAG_ARGUMENTS : 0)
+                    | ((null != throwable) ? BinaryLogFormat.FLAG_THROWABLE : 0));
+            if (arguments) {
+                writeRef(event.getFormat());
+                writeArguments(event);
+            } else {
+                body.writeString(event.getMessage());
+            }
+            if (null != throwable) {
+                body.writeString(StackTracePrinter.getStackTrace(throwable));
+            }
+            records.writeRecord(BinaryLogFormat.TYPE_EVENT, body);
+            writeRecords(event.getLevel() == Log.ERROR);
+        }
+    }
+
+    /**
+     * Write the raw arguments of a parameterized message
+     */
+    private void writeArguments(LogEvent event) {
+        int primitives = event.getPrimitiveArgCount();
+        if (primitives > 0) {
+            body.writeVarint(primitives);
+            for (int i = 0; i < primitives; i++) {
+                body.writeByte(BinaryLogFormat.ARG_LONG);
+                body.writeZigZag(event.getPrimitiveArg(i));
+            }
+            return;
+        }
+
+        Object[] args = event.getArguments();
+        body.writeVarint(args.length);
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (null == arg) {
+                body.writeByte(BinaryLogFormat.ARG_NULL);
+            } else if ((arg instanceof Long) || (arg instanceof Integer)
+                    || (arg instanceof Short) || (arg instanceof Byte)) {
+                body.writeByte(BinaryLogFormat.ARG_LONG);
+                body.writeZigZag(((Number) arg).longValue());
+            } else if (arg instanceof Double) {
+                body.writeByte(BinaryLogFormat.ARG_DOUBLE);
+                body.writeLong(Double.doubleToRawLongBits(((Double) arg).doubleValue()));
+            } else if (arg instanceof Float) {
+                body.writeByte(BinaryLogFormat.ARG_FLOAT);
+                body.writeInt(Float.floatToRawIntBits(((Float) arg).floatValue()));
+            } else if (arg instanceof Boolean) {
+                body.writeByte(((Boolean) arg).booleanValue()
+                        ? BinaryLogFormat.ARG_TRUE : BinaryLogFormat.ARG_FALSE);
+            } else {
+                // Objects are rendered now, they may change afterwards
+                text.setLength(0);
+                MessageFormatter.appendArg(text, arg);
+                body.writeByte(BinaryLogFormat.ARG_STRING);
+                body.writeString(text);
+            }
+        }
+    }
+
+    /**
+     * Write a string ref in the body, adding the string to the table unless
+     * it is full
+     */
+    private void writeRef(String s) {
+        if (null == s) {
+            body.writeVarint(BinaryLogFormat.REF_NULL);
+            return;
+        }
+
+        Integer id = strings.get(s);
+        if ((null == id) && (strings.size() < MAX_STRINGS)
+                && (s.length() <= MAX_INTERNED_LENGTH)) {
+            id = Integer.valueOf(strings.size() + BinaryLogFormat.FIRST_STRING_ID);
+            strings.put(s, id);
+            definition.reset();
+            definition.writeVarint(id.intValue());
+            definition.writeString(s);
+            records.writeRecord(BinaryLogFormat.TYPE_STRING, definition);
+        }
+
+        if (null != id) {
+            body.writeVarint(id.intValue());
+        } else {
+            body.writeVarint(BinaryLogFormat.REF_INLINE);
+            body.writeString(s);
+        }
+    }
+
+    /**
+     * Write the records of a message and roll the file if it grew beyond the
+     * limit. Must be called holding lock.
+     */
+    private void writeRecords(boolean flush) throws IOException {
+        records.writeTo(os);
+        fileSize += records.size();
+        if (flush) {
+            os.flush();
+            dirty = false;
+        } else {
+            dirty = true;
+        }
+
+        if ((fileSize >= maxFileSize) && !rotations.hasWaiters()) {
+            // Not rolled while getLogContent waits for the rotations, it
+            // would wait for this one too
+            System.out.println("[fileSize:" + fileSize + "] >= [maxFileSize:"
+                    + maxFileSize + "] roll logger file");
+            closeLogFile();
+            rollFile();
+            initLogFile();
+        }
+    }
+
+    /**
+     * Write the buffered records to the file
+     */
+    public void flush() {
+        synchronized (lock) {
+            try {
+                if (dirty && (null != os)) {
+                    os.flush();
+                }
+            } catch (IOException e) {
+                System.out.println("[fileUrl:" + fileUrl + "] flush exception(IOException)");
+                e.printStackTrace();
+            }
+            dirty = false;
+        }
+    }
+
+    /**
+     * Init the logger. A new file starts with the magic header, then every
+     * open starts a new string table.
+     */
+    public void initLogFile() {
+        System.out.println("[fileUrl:" + fileUrl + "] init binary logger file ...");
+
+        synchronized (lock) {
+            if (!leftoversRotated) {
+                leftoversRotated = true;
+                rotateLeftovers();
+            }
+
+            try {
+                // Cut a record torn by a crash before appending
+                if (BinaryLogDecoder.recover(fileUrl) < 0) {
+                    // Kept as fileName.oldN.blog, it is not decoded
+                    String oldFileUrl;
+                    int index = 0;
+                    do {
+                        oldFileUrl = FileAppender.toFileUrl(path,
+                                (fileName + ".old" + (++index)), suffix);
+                    } while (FileAppender.exists(oldFileUrl));
+                    System.out.println("[fileUrl:" + fileUrl + "][oldFileUrl:" + oldFileUrl
+                            + "] not a binary log, rename it");
+                    FileAppender.renameFile(fileUrl, oldFileUrl);
+                }
+
+                file = new FileAdapter(fileUrl);
+                fileSize = file.exists() ? file.getSize() : 0;
+                os = new BufferedOutputStream(file.openOutputStream(true), BUFFER_SIZE);
+
+                records.reset();
+                if (fileSize == 0) {
+                    for (int i = 0; i < BinaryLogFormat.MAGIC.length; i++) {
+                        records.writeByte(BinaryLogFormat.MAGIC[i]);
+                    }
+                    records.writeByte(BinaryLogFormat.VERSION);
+                }
+                strings.clear();
+                lastTimeStamp = 0;
+                body.reset();
+                body.writeVarint(android.os.Process.myPid());
+                records.writeRecord(BinaryLogFormat.TYPE_START, body);
+                records.writeTo(os);
+                fileSize += records.size();
+                dirty = true;
+                scheduleFlush();
+            } catch (IOException e) {
+                System.out.println("[fileUrl:" + fileUrl
+                        + "] open file exception(IOException)");
+                e.printStackTrace();
+                closeLogFile();
+            }
+        }
+    }
+
+    /**
+     * BinaryFileAppender doesn't implement this method
+     */
+    public void openLogFile() {
+    }
+
+    /**
+     * Close connection and streams
+     */
+    public void closeLogFile() {
+        System.out.println("[fileUrl:" + fileUrl + "] close binary logger file ...");
+
+        synchronized (lock) {
+            try {
+                if (null != os) {
+                    os.close();
+                }
+                if (null != file) {
+                    file.close();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                os = null;
+                file = null;
+                dirty = false;
+            }
+        }
+    }
+
+    /**
+     * roll the file. The current file is only renamed aside here, the shards
+     * are shifted by the rotation worker. Must be called holding lock.
+     */
+    private void rollFile() throws IOException {
+        System.out.println("[backup:" + backup + "] roll binary file ...");
+
+        // Left by a previous run, rolledN may still wait for its rotation
+        String url;
+        do {
+            url = FileAppender.toFileUrl(path, (fileName + ".rolled" + (++rollCount)), suffix);
+        } while (FileAppender.exists(url));
+
+        FileAppender.renameFile(fileUrl, url);
+        submitRotate(url);
+    }
+
+    /**
+     * Shift the shards to make the rolled file the first one, on the rotation
+     * worker. Must be called holding lock.
+     */
+    private void submitRotate(final String rolledUrl) {
+        rotations.submit(new Runnable() {
+            public void run() {
+                try {
+                    rotate(rolledUrl);
+                } catch (IOException e) {
+                    System.out.println("[rolledUrl:" + rolledUrl
+                            + "] rotate file exception(IOException)");
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Rotate the rolled files of a previous run which ended before their
+     * rotation, oldest first. Must be called holding lock.
+     */
+    private void rotateLeftovers() {
+        final Pattern names = Pattern.compile(Pattern.quote(fileName) + "\\.rolled(\\d{1,9})"
+                + Pattern.quote(suffix));
+        List<String> rolled = FileAppender.listNames(path, names);
+        Collections.sort(rolled, new Comparator<String>() {
+            public int compare(String name1, String name2) {
+                return FileAppender.toIndex(names, name1, 1)
+                        .compareTo(FileAppender.toIndex(names, name2, 1));
+            }
+        });
+
+        for (String name : rolled) {
+            submitRotate(FileAppender.toFileUrl(path, name, ""));
+        }
+    }
+
+    /**
+     * Make the rolled file the first shard, runs on the rotation worker
+     */
+    private void rotate(String rolledUrl) throws IOException {
+        if (0 == backup) {
+            FileAppender.deleteFile(rolledUrl);
+            return;
+        }
+
+        FileAppender.deleteFile(toShardUrl(backup));
+        for (int i = backup - 1; i > 0; i--) {
+            FileAppender.renameFile(toShardUrl(i), toShardUrl(i + 1));
+        }
+        FileAppender.renameFile(rolledUrl, toShardUrl(1));
+    }
+
+    /**
+     * Perform additional actions needed when setting a new level.
+     * BinaryFileAppender doesn't implement this method
+     */
+    public void setLogLevel(int level) {
+    }
+
+    /**
+     * Delete the log file
+     */
+    public void deleteLogFile() {
+        System.out.println("[fileUrl:" + fileUrl + "] delete binary logger file ...");
+
+        synchronized (lock) {
+            try {
+                FileAppender.deleteFile(fileUrl);
+            } catch (Exception e) {
+                System.out.println("[fileUrl:" + fileUrl
+                        + "] delete file exception(IOException)");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Return the log decoded to the FileAppender text layout, in a
+     * fileName.merged.txt file or inlined
+     */
+    public LogContent getLogContent() throws IOException {
+        synchronized (lock) {
+            if (null != os) {
+                os.flush();
+            }
+            rotations.await(fileUrl);
+
+            String mergedFileUrl = FileAppender.toFileUrl(contentPath,
+                    (fileName + ".merged"), ".txt");
+            FileAdapter mergedFa = null;
+            OutputStream mergedOs = null;
+            try {
+                if (memory) {
+                    mergedOs = new ByteArrayOutputStream();
+                } else {
+                    mergedFa = new FileAdapter(mergedFileUrl);
+                    mergedOs = new BufferedOutputStream(mergedFa.openOutputStream(), BUFFER_SIZE);
+                }
+
+                for (int i = backup; i > 0; i--) {
+                    decode(toShardUrl(i), mergedOs);
+                }
+                decode(fileUrl, mergedOs);
+                mergedOs.flush();
+
+                if (memory) {
+                    return new LogContent(LogContent.STRING_CONTENT,
+                            ((ByteArrayOutputStream) mergedOs).toString("UTF-8"));
+                } else {
+                    return new LogContent(LogContent.FILE_CONTENT, mergedFileUrl);
+                }
+            } finally {
+                if (null != mergedOs) {
+                    mergedOs.close();
+                }
+                if (null != mergedFa) {
+                    mergedFa.close();
+                }
+            }
+        }
+    }
+
+    private void decode(String fileUrl, OutputStream os) throws IOException {
+        FileAdapter file = new FileAdapter(fileUrl);
+        InputStream is = null;
+        try {
+            if (file.exists()) {
+                is = file.openInputStream();
+                BinaryLogDecoder.decode(is, os);
+            }
+        } finally {
+            if (null != is) {
+                is.close();
+            }
+            file.close();
+        }
+    }
+
+    private String toShardUrl(int index) {
+        return FileAppender.toFileUrl(path, (fileName + "." + index), suffix);
+    }
+}
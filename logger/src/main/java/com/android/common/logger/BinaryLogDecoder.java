@@ -0,0 +1,318 @@
+package com.android.common.logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Turns the files written by BinaryFileAppender back into the text layout of
+ * FileAppender. A record cut by a crash at the end of a file is ignored, and
+ * cut by recover before BinaryFileAppender appends to the file.
+ * It can be run on a host to read pulled log files:
+ * java com.android.common.logger.BinaryLogDecoder smartLogger.blog > log.txt
+ */
+public final class BinaryLogDecoder {
+
+    /**
+     * State of the file being decoded
+     */
+    private final ArrayList<String> strings = new ArrayList<String>();
+    private long timeStamp = 0;
+    private long pid = 0;
+
+    private final StringBuilder line = new StringBuilder(256);
+    private final LineEncoder encoder = new LineEncoder();
+    private byte[] record = new byte[256];
+
+    private BinaryLogDecoder() {
+    }
+
+    /**
+     * Decode a binary log stream into text
+     *
+     * @param is
+     *            the binary log, starting with its header
+     * @param os
+     *            where the text lines are written
+     * @throws IOException
+     *             if the stream is not a binary log or cannot be read
+     */
+    public static void decode(InputStream is, OutputStream os) throws IOException {
+        new BinaryLogDecoder().decodeStream(is, os);
+    }
+
+    public static void main(String[] args) throws IOException {
+        OutputStream os = new BufferedOutputStream(System.out);
+        for (int i = 0; i < args.length; i++) {
+            InputStream is = new FileInputStream(args[i]);
+            try {
+                decode(is, os);
+            } finally {
+                is.close();
+            }
+        }
+        os.flush();
+    }
+
+    /**
+     * Truncate a binary log file after its last whole record, cutting a
+     * record torn by a crash, which would otherwise swallow the records
+     * appended after it. The records are walked by their length from the
+     * header, only the length varints are read.
+     *
+     * @return the length of the file, -1 if it is not a binary log
+     */
+    static long recover(String fileUrl) throws IOException {
+        File file = new File(fileUrl);
+        long size = file.length();
+        if (!file.exists() || (0 == size)) {
+            return 0;
+        }
+
+        long end = 0;
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            byte[] header = new byte[BinaryLogFormat.MAGIC.length + 1];
+            int read = 0;
+            int b;
+            while ((read < header.length) && ((b = is.read()) >= 0)) {
+                header[read++] = (byte) b;
+            }
+            for (int i = 0; i < Math.min(read, BinaryLogFormat.MAGIC.length); i++) {
+                if (header[i] != BinaryLogFormat.MAGIC[i]) {
+                    return -1;
+                }
+            }
+            if (read == header.length) {
+                if (header[read - 1] != BinaryLogFormat.VERSION) {
+                    return -1;
+                }
+                end = read;
+            }
+
+            // A torn header is cut too, the file then starts over
+            while ((read == header.length) && (end < size)) {
+                long length = 0;
+                int count = 0;
+                do {
+                    b = is.read();
+                    if (b < 0) {
+                        break;
+                    }
+                    length |= (long) (b & 0x7F) << (7 * count);
+                    count++;
+                } while (((b & 0x80) != 0) && (count < 10));
+                if ((b < 0) || ((b & 0x80) != 0) || (length <= 0)
+                        || (end + count + length > size)) {
+                    break;
+                }
+                long remaining = length;
+                while (remaining > 0) {
+                    long skipped = is.skip(remaining);
+                    if (skipped <= 0) {
+                        break;
+                    }
+                    remaining -= skipped;
+                }
+                end += count + length;
+            }
+        } finally {
+            is.close();
+        }
+
+        if (end < size) {
+            System.out.println("[fileUrl:" + fileUrl + "][size:" + size
+                    + "] torn record, truncate to " + end);
+            RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+            try {
+                truncated.setLength(end);
+            } finally {
+                truncated.close();
+            }
+        }
+        return end;
+    }
+
+    private void decodeStream(InputStream is, OutputStream os) throws IOException {
+        is = new BufferedInputStream(is);
+        for (int i = 0; i < BinaryLogFormat.MAGIC.length; i++) {
+            if (is.read() != BinaryLogFormat.MAGIC[i]) {
+                throw new IOException("not a binary log");
+            }
+        }
+        int version = is.read();
+        if (version != BinaryLogFormat.VERSION) {
+            throw new IOException("unsupported binary log version " + version);
+        }
+
+        while (true) {
+            long length = readLength(is);
+            if ((length <= 0) || (length > Integer.MAX_VALUE)) {
+                return;
+            }
+            if (length > record.length) {
+                record = new byte[(int) Math.max(length, record.length * 2L)];
+            }
+            if (!readFully(is, record, (int) length)) {
+                // Torn last record
+                return;
+            }
+            BinaryLogFormat.Reader reader = new BinaryLogFormat.Reader(record, 1, (int) length);
+            try {
+                decodeRecord(record[0] & 0xFF, reader, os);
+            } catch (IOException e) {
+                // Skip the malformed record, the next one is framed by its length
+                System.out.println("binary log record skipped: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read the varint length of the next record, -1 at the end of the stream
+     */
+    private static long readLength(InputStream is) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = is.read();
+            if (b < 0) {
+                return -1;
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean readFully(InputStream is, byte[] buffer, int length)
+            throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = is.read(buffer, offset, length - offset);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    private void decodeRecord(int type, BinaryLogFormat.Reader reader, OutputStream os)
+            throws IOException {
+        switch (type) {
+            case BinaryLogFormat.TYPE_START:
+                pid = reader.readVarint();
+                strings.clear();
+                timeStamp = 0;
+                break;
+            case BinaryLogFormat.TYPE_STRING:
+                int id = (int) reader.readVarint() - BinaryLogFormat.FIRST_STRING_ID;
+                String s = reader.readString();
+                while (strings.size() <= id) {
+                    strings.add(null);
+                }
+                strings.set(id, s);
+                break;
+            case BinaryLogFormat.TYPE_EVENT:
+                decodeEvent(reader);
+                write(os);
+                break;
+            case BinaryLogFormat.TYPE_TEXT:
+                timeStamp += reader.readZigZag();
+                line.setLength(0);
+                TimeFormatter.append(line, timeStamp);
+                line.append(" [").append(readRef(reader)).append("] ")
+                    .append(readRef(reader)).append(reader.readString()).append("\r\n");
+                write(os);
+                break;
+            default:
+                // Unknown record, written by a later version
+                break;
+        }
+    }
+
+    private void decodeEvent(BinaryLogFormat.Reader reader) throws IOException {
+        timeStamp += reader.readZigZag();
+        reader.readZigZag(); // level, the level name is written
+        String levelName = readRef(reader);
+        String appTag = readRef(reader);
+        String tag = readRef(reader);
+        String location = readRef(reader);
+        long threadId = reader.readVarint();
+        int flags = reader.readByte();
+
+        line.setLength(0);
+        TimeFormatter.append(line, timeStamp);
+        line.append(" [").append(levelName).append("] ")
+            .append('[').append(appTag).append("][").append(tag).append(']')
+            .append("[Pid:").append(pid).append("][Tid:").append(threadId);
+        if (location != null) {
+            line.append("][").append(location);
+        }
+        line.append("] ");
+
+        if ((flags & BinaryLogFormat.FLAG_ARGUMENTS) != 0) {
+            String format = readRef(reader);
+            Object[] args = new Object[(int) reader.readVarint()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = readArgument(reader);
+            }
+            MessageFormatter.appendFormatted(line, format, args);
+        } else {
+            line.append(reader.readString());
+        }
+        if ((flags & BinaryLogFormat.FLAG_THROWABLE) != 0) {
+            line.append('\n').append(reader.readString());
+        }
+        line.append("\r\n");
+    }
+
+    private static Object readArgument(BinaryLogFormat.Reader reader) throws IOException {
+        int type = reader.readByte();
+        switch (type) {
+            case BinaryLogFormat.ARG_NULL:
+                return null;
+            case BinaryLogFormat.ARG_LONG:
+                return Long.valueOf(reader.readZigZag());
+            case BinaryLogFormat.ARG_DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(reader.readLong()));
+            case BinaryLogFormat.ARG_FLOAT:
+                return Float.valueOf(Float.intBitsToFloat(reader.readInt()));
+            case BinaryLogFormat.ARG_TRUE:
+                return Boolean.TRUE;
+            case BinaryLogFormat.ARG_FALSE:
+                return Boolean.FALSE;
+            case BinaryLogFormat.ARG_STRING:
+                return reader.readString();
+            default:
+                throw new IOException("unknown argument type " + type);
+        }
+    }
+
+    private String readRef(BinaryLogFormat.Reader reader) throws IOException {
+        int ref = (int) reader.readVarint();
+        if (ref == BinaryLogFormat.REF_NULL) {
+            return null;
+        } else if (ref == BinaryLogFormat.REF_INLINE) {
+            return reader.readString();
+        }
+        int id = ref - BinaryLogFormat.FIRST_STRING_ID;
+        if ((id < 0) || (id >= strings.size())) {
+            throw new IOException("unknown string " + ref);
+        }
+        return strings.get(id);
+    }
+
+    private void write(OutputStream os) throws IOException {
+        ByteBuffer bytes = encoder.encode(line);
+        os.write(bytes.array(), bytes.position(), bytes.remaining());
+    }
+}
@@ -0,0 +1,257 @@
+package com.android.common.logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Layout of the files written by BinaryFileAppender and read by
+ * BinaryLogDecoder.
+ * A file starts with MAGIC and VERSION, followed by records. Each record is
+ * its varint length, its type byte and its body:
+ * <ul>
+ *   <li> TYPE_START: varint pid. Written each time the file is opened, it
+ *        resets the string table and the time stamp base. </li>
+ *   <li> TYPE_STRING: varint id, UTF-8 chars. Adds a string to the table,
+ *        ids start at FIRST_STRING_ID. </li>
+ *   <li> TYPE_EVENT: zigzag varint time stamp delta, zigzag varint level,
+ *        string refs of the level name, app tag, tag and location, varint
+ *        thread id, flags byte, then either a format string ref, a varint
+ *        argument count and the raw arguments (FLAG_ARGUMENTS), or the
+ *        message string, then the stack trace string if FLAG_THROWABLE. </li>
+ *   <li> TYPE_TEXT: zigzag varint time stamp delta, string refs of the level
+ *        name and param tag, message string. Written by writeLogMessage. </li>
+ * </ul>
+ * A string ref is a varint: REF_NULL, REF_INLINE followed by a string, or a
+ * string table id. A string is a varint byte length and the UTF-8 bytes.
+ * Numbers are unsigned LEB128 varints, zigzag encoded when they can be
+ * negative.
+ */
+final class BinaryLogFormat {
+
+    static final byte[] MAGIC = { 'S', 'L', 'O', 'G' };
+    static final int VERSION = 1;
+
+    static final int TYPE_START = 1;
+    static final int TYPE_STRING = 2;
+    static final int TYPE_EVENT = 3;
+    static final int TYPE_TEXT = 4;
+
+    static final int FLAG_ARGUMENTS = 1;
+    static final int FLAG_THROWABLE = 2;
+
+    static final int REF_NULL = 0;
+    static final int REF_INLINE = 1;
+    static final int FIRST_STRING_ID = 2;
+
+    static final int ARG_NULL = 0;
+    static final int ARG_LONG = 1;
+    static final int ARG_DOUBLE = 2;
+    static final int ARG_FLOAT = 3;
+    static final int ARG_TRUE = 4;
+    static final int ARG_FALSE = 5;
+    static final int ARG_STRING = 6;
+
+    /**
+     * This class is static and cannot be intantiated
+     */
+    private BinaryLogFormat() {
+    }
+
+    /**
+     * Growable byte buffer records are encoded into, reused from record to
+     * record
+     */
+    static final class Buffer {
+        private byte[] data;
+        private int size = 0;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                byte[] grown = new byte[Math.max(size + extra, data.length * 2)];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            data[size++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                data[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                data[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        /**
+         * Write a string: its UTF-8 length and bytes. Unpaired surrogates are
+         * written as '?', as String.getBytes does.
+         */
+        void writeString(CharSequence s) {
+            int length = s.length();
+            int bytes = 0;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    bytes++;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (isPair(s, i)) {
+                    bytes += 4;
+                    i++;
+                } else if ((c >= Character.MIN_SURROGATE) && (c <= Character.MAX_SURROGATE)) {
+                    bytes++;
+                } else {
+                    bytes += 3;
+                }
+            }
+
+            writeVarint(bytes);
+            ensure(bytes);
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    data[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    data[size++] = (byte) (0xC0 | (c >> 6));
+                    data[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (isPair(s, i)) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    data[size++] = (byte) (0xF0 | (cp >> 18));
+                    data[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    data[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    data[size++] = (byte) (0x80 | (cp & 0x3F));
+                } else if ((c >= Character.MIN_SURROGATE) && (c <= Character.MAX_SURROGATE)) {
+                    data[size++] = (byte) '?';
+                } else {
+                    data[size++] = (byte) (0xE0 | (c >> 12));
+                    data[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    data[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private static boolean isPair(CharSequence s, int i) {
+            return Character.isHighSurrogate(s.charAt(i)) && (i + 1 < s.length())
+                    && Character.isLowSurrogate(s.charAt(i + 1));
+        }
+
+        /**
+         * Append a record made of a type and a body
+         */
+        void writeRecord(int type, Buffer body) {
+            writeVarint(body.size + 1);
+            writeByte(type);
+            ensure(body.size);
+            System.arraycopy(body.data, 0, data, size, body.size);
+            size += body.size;
+        }
+
+        void writeTo(OutputStream os) throws IOException {
+            os.write(data, 0, size);
+        }
+    }
+
+    /**
+     * Cursor over the body of a record
+     */
+    static final class Reader {
+        private final byte[] data;
+        private int position;
+        private final int limit;
+
+        Reader(byte[] data, int position, int limit) {
+            this.data = data;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        boolean hasRemaining() {
+            return position < limit;
+        }
+
+        int readByte() throws IOException {
+            if (position >= limit) {
+                throw new IOException("truncated record");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        long readZigZag() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        int readInt() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        String readString() throws IOException {
+            int length = (int) readVarint();
+            if ((length < 0) || (position + length > limit)) {
+                throw new IOException("truncated string");
+            }
+            String s = new String(data, position, length, "UTF-8");
+            position += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.android.common.logger;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the code location that called the Log facade.
+ * The caller is found with one Throwable stack capture per call, which is
+ * still the bulk of the cost. Only the formatted "Class.method(File:line)"
+ * String is cached per call site, so a call site does not build it again.
+ */
+final class CallerResolver {
+
+    /**
+     * Max number of frames inspected to find the caller
+     */
+    static final int MAX_FRAMES = 16;
+
+    /**
+     * Call sites with a line number beyond this one are not cached
+     */
+    private static final int MAX_CACHED_LINE = 1 << 16;
+
+    private static final String UNKNOWN_CALLER = "Unknown Caller";
+
+    /**
+     * Formatted locations of a class, indexed by line number
+     */
+    private static final class CallSites {
+        volatile String[] byLine = new String[64];
+    }
+
+    private static final ConcurrentHashMap<String, CallSites> sCallSites =
+            new ConcurrentHashMap<String, CallSites>();
+
+    /**
+     * This class is static and cannot be intantiated
+     */
+    private CallerResolver() {
+    }
+
+    /**
+     * Return the "Class.method(File:line)" location of the first frame outside
+     * the logger classes
+     */
+    static String getCallerLocation() {
+        StackTraceElement element = findCaller(new Throwable().getStackTrace());
+        if (element == null) {
+            return UNKNOWN_CALLER;
+        }
+        return getLocation(element.getClassName(), element.getMethodName(),
+                element.getFileName(), element.getLineNumber());
+    }
+
+    /**
+     * Return the class name of the first frame outside the logger classes
+     */
+    static String getCallerClassName() {
+        StackTraceElement element = findCaller(new Throwable().getStackTrace());
+        return (element != null) ? element.getClassName() : UNKNOWN_CALLER;
+    }
+
+    /**
+     * Return true for the frames of the logging code itself
+     */
+    static boolean isLoggerFrame(String className) {
+        return className.equals(Log.class.getName())
+                || className.equals(LogImpl.class.getName())
+                || className.startsWith(CallerResolver.class.getName());
+    }
+
+    private static StackTraceElement findCaller(StackTraceElement[] elements) {
+        int max = Math.min(elements.length, MAX_FRAMES);
+        for (int i = 0; i < max; i++) {
+            if (!isLoggerFrame(elements[i].getClassName())) {
+                return elements[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the cached location of a call site, or null
+     */
+    private static String getCached(String className, int lineNumber) {
+        CallSites sites = sCallSites.get(className);
+        if ((sites == null) || (lineNumber < 0)) {
+            return null;
+        }
+        String[] byLine = sites.byLine;
+        return (lineNumber < byLine.length) ? byLine[lineNumber] : null;
+    }
+
+    /**
+     * Return the cached location of a call site, formatting it on first use
+     */
+    static String getLocation(String className, String methodName, String fileName,
+            int lineNumber) {
+        String cached = getCached(className, lineNumber);
+        if (cached != null) {
+            return cached;
+        }
+
+        CallSites sites = sCallSites.get(className);
+        if (sites == null) {
+            sites = new CallSites();
+            CallSites previous = sCallSites.putIfAbsent(className, sites);
+            if (previous != null) {
+                sites = previous;
+            }
+        }
+
+        String location = format(className, methodName, fileName, lineNumber);
+        if ((lineNumber >= 0) && (lineNumber < MAX_CACHED_LINE)) {
+            synchronized (sites) {
+                String[] byLine = sites.byLine;
+                if (lineNumber >= byLine.length) {
+                    int size = byLine.length;
+                    while (size <= lineNumber) {
+                        size <<= 1;
+                    }
+                    String[] grown = new String[size];
+                    System.arraycopy(byLine, 0, grown, 0, byLine.length);
+                    byLine = grown;
+                }
+                byLine[lineNumber] = location;
+                // Publish the array again so readers see the new entry
+                sites.byLine = byLine;
+            }
+        }
+        return location;
+    }
+
+    private static String format(String className, String methodName, String fileName,
+            int lineNumber) {
+        StringBuilder sb = new StringBuilder(className.length() + 48);
+        int dot = className.lastIndexOf('.');
+        sb.append(className, dot + 1, className.length()).append('.').append(methodName)
+          .append('(').append(fileName != null ? fileName : "Unknown Source");
+        if (lineNumber >= 0) {
+            sb.append(':').append(lineNumber);
+        }
+        return sb.append(')').toString();
+    }
+}
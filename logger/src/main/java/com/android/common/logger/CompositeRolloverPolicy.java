@@ -0,0 +1,40 @@
+package com.android.common.logger;
+
+/**
+ * Rolls the log file over as soon as one of its policies does, for instance
+ * every hour and every megabyte. The period name is the one of the first
+ * policy that has one.
+ */
+public class CompositeRolloverPolicy implements RolloverPolicy {
+
+    private final RolloverPolicy[] policies;
+
+    public CompositeRolloverPolicy(RolloverPolicy... policies) {
+        this.policies = policies.clone();
+    }
+
+    public void fileOpened(long timeStamp) {
+        for (int i = 0; i < policies.length; i++) {
+            policies[i].fileOpened(timeStamp);
+        }
+    }
+
+    public boolean isTriggered(long fileSize, long timeStamp) {
+        for (int i = 0; i < policies.length; i++) {
+            if (policies[i].isTriggered(fileSize, timeStamp)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getPeriodName() {
+        for (int i = 0; i < policies.length; i++) {
+            String name = policies[i].getPeriodName();
+            if (null != name) {
+                return name;
+            }
+        }
+        return null;
+    }
+}
@@ -1,13 +1,22 @@
 package com.android.common.logger;
 
 import java.io.IOException;
-
-import java.util.Date;
+import java.nio.ByteBuffer;
 
 /**
  * Default debugger to be used instea of System.out.println(msg);
  */ 
-public class ConsoleAppender implements Appender {
+public class ConsoleAppender implements EventAppender {
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /**
+     * A builder grown beyond this size by a huge message is trimmed
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final StringBuilder line = new StringBuilder(256);
+    private final LineEncoder encoder = new LineEncoder();
 
     /**
      * Default constructor
@@ -19,11 +28,34 @@ public class ConsoleAppender implements Appender {
     /**
      * ConsoleAppender writes one message on the standard output
      */
-    public void writeLogMessage(String paramTag, String level, String msg) {
-        Date now = new Date();
-        System.out.print(now.toString());
-        System.out.print(" [" + level + "] " );
-        System.out.println(msg);
+    public synchronized void writeLogMessage(String paramTag, String level, String msg) {
+        line.setLength(0);
+        TimeFormatter.append(line, System.currentTimeMillis());
+        line.append(" [").append(level).append("] ").append(msg);
+        println();
+    }
+
+    /**
+     * ConsoleAppender writes one event on the standard output. The line is
+     * built and encoded in buffers reused from event to event.
+     */
+    public synchronized void writeLogEvent(LogEvent event) {
+        line.setLength(0);
+        TimeFormatter.append(line, event.getTimeStamp());
+        line.append(" [").append(event.getLevelName()).append("] ");
+        event.appendMessage(line);
+        println();
+    }
+
+    private void println() {
+        line.append(LINE_SEPARATOR);
+        ByteBuffer bytes = encoder.encode(line);
+        System.out.write(bytes.array(), bytes.position(), bytes.remaining());
+        System.out.flush();
+        if (line.capacity() > MAX_RETAINED_CAPACITY) {
+            line.setLength(0);
+            line.trimToSize();
+        }
     }
     
     /**
@@ -0,0 +1,163 @@
+package com.android.common.logger;
+
+/**
+ * Error context cache used by LogImpl when the context logging is enabled.
+ * The last messages are kept in a preallocated ring made of parallel arrays
+ * (time stamps, levels, thread ids, tags) next to reusable message slots, so
+ * once the ring has filled up capturing an entry copies chars but does not
+ * allocate. The message slots are only created as the ring fills, a buffer of
+ * a thread logging little stays small. On ERROR the filled ring is detached
+ * in O(1) and replaced by a spare one, which lets another thread write the
+ * dump while logging goes on.
+ */
+final class ContextBuffer {
+
+    /**
+     * Longer messages are truncated in the context, so a single huge message
+     * does not pin a huge slot forever
+     */
+    static final int MAX_MESSAGE_LENGTH = 1024;
+
+    /**
+     * Initial capacity of a message slot
+     */
+    private static final int SLOT_CAPACITY = 64;
+
+    /**
+     * One ring of context entries
+     */
+    static final class Segment {
+        final long[] timeStamps;
+        final long[] threadIds;
+        final int[] levels;
+        final String[] levelNames;
+        final String[] tags;
+        final StringBuilder[] messages;
+
+        /** Index of the oldest entry */
+        int first = 0;
+
+        /** Number of entries */
+        int count = 0;
+
+        Segment(int capacity) {
+            timeStamps = new long[capacity];
+            threadIds = new long[capacity];
+            levels = new int[capacity];
+            levelNames = new String[capacity];
+            tags = new String[capacity];
+            messages = new StringBuilder[capacity];
+        }
+
+        int capacity() {
+            return levels.length;
+        }
+
+        /**
+         * Return the ring index of the i-th oldest entry
+         */
+        int index(int i) {
+            int index = first + i;
+            return (index >= levels.length) ? index - levels.length : index;
+        }
+
+        /**
+         * Copy an event into the ring, overwriting the oldest entry when full
+         */
+        void add(LogEvent event) {
+            int index;
+            if (count < levels.length) {
+                index = index(count);
+                count++;
+            } else {
+                index = first;
+                first = index(1);
+            }
+            timeStamps[index] = event.getTimeStamp();
+            threadIds[index] = event.getThreadId();
+            levels[index] = event.getLevel();
+            levelNames[index] = event.getLevelName();
+            tags[index] = event.getTag();
+            StringBuilder slot = messages[index];
+            if (slot == null) {
+                slot = new StringBuilder(SLOT_CAPACITY);
+                messages[index] = slot;
+            }
+            slot.setLength(0);
+            CharSequence msg = event.getMessage();
+            slot.append(msg, 0, Math.min(msg.length(), MAX_MESSAGE_LENGTH));
+        }
+
+        void clear() {
+            for (int i = 0; i < levels.length; i++) {
+                levelNames[i] = null;
+                tags[i] = null;
+                if (messages[i] != null) {
+                    messages[i].setLength(0);
+                }
+            }
+            first = 0;
+            count = 0;
+        }
+    }
+
+    private final int capacity;
+    private Segment active;
+    private Segment spare = null;
+
+    /**
+     * Time stamp of the last captured event, used to evict idle per-thread
+     * buffers
+     */
+    volatile long lastTimeStamp = 0;
+
+    /**
+     * Set once a per-thread buffer has been dropped from ThreadContextBuffers
+     */
+    volatile boolean evicted = false;
+
+    ContextBuffer(int capacity) {
+        this.capacity = capacity;
+        this.active = new Segment(capacity);
+    }
+
+    /**
+     * Store an event in the context
+     */
+    synchronized void capture(LogEvent event) {
+        active.add(event);
+        lastTimeStamp = event.getTimeStamp();
+    }
+
+    /**
+     * Take the current context out of the buffer, which goes on with an empty
+     * ring. Return null if the context is empty. The returned segment has to
+     * be given back with release() once dumped.
+     */
+    synchronized Segment detach() {
+        if (active.count == 0) {
+            return null;
+        }
+        Segment detached = active;
+        if (spare != null) {
+            active = spare;
+            spare = null;
+        } else {
+            // The previous dump is still running
+            active = new Segment(capacity);
+        }
+        return detached;
+    }
+
+    /**
+     * Give back a dumped segment, kept as the next spare ring
+     */
+    void release(Segment segment) {
+        segment.clear();
+        synchronized (this) {
+            if ((spare == null) && (segment.capacity() == capacity)) {
+                spare = segment;
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.android.common.logger;
+
+import java.io.IOException;
+
+/**
+ * Appender receiving the LogEvent itself instead of the three preformatted
+ * Strings of writeLogMessage. LogImpl prefers this method when the appender
+ * implements it, which avoids building the tag and message Strings.
+ */
+public interface EventAppender extends Appender {
+
+    /**
+     * Append an event to the Log file. The event is recycled once this call
+     * returns and must not be kept.
+     */
+    void writeLogEvent(LogEvent event) throws IOException;
+}
@@ -1,14 +1,28 @@
 package com.android.common.logger;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * This appender logs messages to a file using JSR75 (FileConnection)
@@ -18,12 +32,21 @@ import java.util.Locale;
  * on this is about 2 times the maxFileSize (this is not accurate as there is
  * no limit on the size of the single message printed).
  */
-public class FileAppender implements Appender {
+public class FileAppender implements EventAppender {
+	/**
+	 * Durability modes, see setDurability. PERIODIC and ON_ERROR can be
+	 * combined.
+	 */
+    public static final int DURABILITY_NONE     = 0;
+    public static final int DURABILITY_PERIODIC = 1;
+    public static final int DURABILITY_ON_ERROR = 2;
+
 	/**
 	 * the merged log file name
 	 */
     private String contentPath = null;
     private boolean memory = false;
+    private boolean stream = false;
     
     private String fileName = null;
     private String path = null;
@@ -42,9 +65,171 @@ public class FileAppender implements Appender {
      */
     private Object lock = new Object();
 
-    private static SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS",
-    		Locale.getDefault());
-    
+    /**
+     * Line being written, reused under lock
+     */
+    private StringBuilder line = new StringBuilder(256);
+
+    /**
+     * Encodes the line into a reused buffer, under lock
+     */
+    private LineEncoder encoder = new LineEncoder();
+
+    /**
+     * Size of the write buffer in bytes, 0 writes every line through
+     */
+    private int bufferSize = 0;
+
+    /**
+     * Max time in milliseconds a buffered line waits before being flushed,
+     * 0 disables the timer
+     */
+    private long flushInterval = 0;
+
+    /**
+     * True when lines were buffered since the last flush
+     */
+    private boolean dirty = false;
+
+    /**
+     * When the written lines are synced to the storage device
+     */
+    private int durability = DURABILITY_NONE;
+    private long syncInterval = 1000;
+    private ScheduledFuture<?> syncTask = null;
+
+    /**
+     * The file stream under the buffer, synced through its descriptor
+     */
+    private FileOutputStream fileOs = null;
+
+    /**
+     * True when lines were written since the last sync
+     */
+    private boolean unsynced = false;
+
+    /**
+     * Time stamp of the last line written
+     */
+    private long lastTimeStamp = 0;
+
+    /**
+     * Number of bytes of the current log file, counted as lines are written
+     * so the rollover check does not query the file system
+     */
+    private long fileSize = 0;
+
+    /**
+     * The counted size misses the lines of other writers sharing the file, so
+     * the real size is read back a few times per file: every
+     * maxFileSize / SIZE_CHECKS written bytes
+     */
+    private static final int SIZE_CHECKS = 16;
+    private long nextSizeCheck = 0;
+
+    /**
+     * Interval in milliseconds of the background check of the log file
+     */
+    private long checkInterval = 1000;
+
+    /**
+     * Runs the flush timers, the log file checks and the rotations, a single
+     * daemon thread shared by the file appenders, see getScheduler
+     */
+    private static ScheduledExecutorService scheduler = null;
+    private ScheduledFuture<?> flushTask = null;
+    private ScheduledFuture<?> checkTask = null;
+
+    /**
+     * Suffix of the compressed shards
+     */
+    private static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * Max time in milliseconds getLogContent waits for the pending rotations
+     */
+    private static final long ROTATION_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Decides the rollover, null to roll over on maxFileSize
+     */
+    private RolloverPolicy policy = null;
+
+    /**
+     * Names of the files rolled by a policy with periods,
+     * fileName.period.N.txt, with or without ".gz"
+     */
+    private Pattern datedNames = null;
+
+    /**
+     * Lines are written in arrival order, so a dated file may hold lines
+     * stamped out of its period: queued async events written after the
+     * rollover, or lines written while a rollover waits for getLogContent.
+     * The period of a file is widened by this margin when it is picked by name.
+     */
+    private static final long PERIOD_SLACK_MILLIS = 60 * 1000;
+
+    /**
+     * Retention limits, see setRetention, 0 when unset
+     */
+    private long maxTotalBytes = 0;
+    private long maxAgeMillis = 0;
+    private ScheduledFuture<?> retentionTask = null;
+
+    /**
+     * Interval of the retention check, which also runs after each rollover
+     * and each merged content file
+     */
+    private static final long RETENTION_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Compress the rotated shards, read by the rotation worker
+     */
+    private volatile boolean compressBackups = false;
+
+    /**
+     * Sequence number of the rolled files waiting for their rotation
+     */
+    private int rollCount = 0;
+
+    /**
+     * True once the rolled files left by a previous run were rotated
+     */
+    private boolean leftoversRotated = false;
+
+    /**
+     * Rotations submitted and not done yet, guarded by lock
+     */
+    private final Rotations rotations = new Rotations(lock);
+
+    /**
+     * In circular rotation the log is written into backup + 1 slot files,
+     * fileName.slotN.txt, used in turn. The manifest file holds the index of
+     * the newest slot.
+     */
+    private boolean circular = false;
+    private int slot = -1;
+    private boolean truncateOnOpen = false;
+
+    /**
+     * In framed format every line is written in a RecordFraming frame
+     */
+    private boolean framed = false;
+    private RecordFraming framing = new RecordFraming();
+
+    /**
+     * Sparse time index written next to the log files, see TimeIndex
+     */
+    private boolean timeIndexed = false;
+    private TimeIndex timeIndex = null;
+
+    /**
+     * Summary of the current log file, written next to it when it is closed,
+     * see ShardSummary
+     */
+    private boolean summarized = false;
+    private ShardSummary summary = null;
+
     /**
      * Default constructor
      */
@@ -106,6 +291,26 @@ public class FileAppender implements Appender {
         }
     }
 
+    /**
+     * Sets the rollover policy, which replaces the maxFileSize check. With a
+     * policy naming periods, like TimeRolloverPolicy, the rolled files are
+     * named fileName.period.N.txt, N counting the files of the period, and
+     * the backup newest of them are kept, compressed or not. A period is
+     * closed by the first line stamped after it, and getLogContent and search
+     * pick these files by name for a time range, with a margin for the lines
+     * written out of order. Otherwise the
+     * numbered shards are rotated. The circular rotation ignores the period
+     * names.
+     * This method must be called before initLogFile.
+     *
+     * @param policy the policy, null to roll over on maxFileSize
+     */
+    public void setRolloverPolicy(RolloverPolicy policy) {
+        synchronized(lock) {
+            this.policy = policy;
+        }
+    }
+
     /**
      * Sets the content path. This path is the directory where the combined log
      * is placed so that the LogContent is accessible. By default this directory
@@ -127,70 +332,600 @@ public class FileAppender implements Appender {
     public void setLogContentType(boolean memory) {
         this.memory = memory;
     }
-    
-    private String getNow() {
-    	try {
-            return formatter.format(new Date());
-    	} catch (Exception e) {
-    		return "unknown";
-    	}
+
+    /**
+     * Sets whether getLogContent returns a STREAM_CONTENT, which reads the
+     * log files in place through LogContent.openInputStream or transferTo,
+     * instead of merging them into a file or a String first. The files are
+     * opened by getLogContent, so the content does not change with later
+     * rollovers, and are released once the content is read or closed. This
+     * setting takes precedence over setLogContentType.
+     */
+    public void setStreamContent(boolean stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Sets the size of the write buffer. By default every line is written to
+     * the file as soon as it is logged. With a buffer, lines are written once
+     * bufferSize bytes are pending, when the flush interval expires, and
+     * immediately for an ERROR message. The buffer is also flushed before a
+     * rollover, by getLogContent and by closeLogFile.
+     * The buffer size is used when the log file is opened, so this method
+     * should be called before initLogFile.
+     *
+     * @param bufferSize the buffer size in bytes, 0 disables the buffering
+     */
+    public void setBufferSize(int bufferSize) {
+        synchronized(lock) {
+            this.bufferSize = Math.max(bufferSize, 0);
+        }
+    }
+
+    /**
+     * Sets the max time a buffered line waits before being written to the
+     * file. A timer flushes the buffer at this interval while lines are
+     * pending. It is only useful along with setBufferSize.
+     *
+     * @param flushInterval the interval in milliseconds, 0 disables the timer
+     */
+    public void setFlushInterval(long flushInterval) {
+        synchronized(lock) {
+            this.flushInterval = Math.max(flushInterval, 0);
+            if (null != flushTask) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            if (this.flushInterval > 0) {
+                flushTask = getScheduler().scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                }, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sets when the lines are synced to the storage device. flush only hands
+     * the lines to the system, which writes them later, so they can be lost
+     * by a power loss or a kernel crash.
+     * <ul>
+     *   <li> DURABILITY_NONE, the default, never syncs. </li>
+     *   <li> DURABILITY_PERIODIC syncs in the background at the sync interval,
+     *        when lines were written, without blocking the writers. </li>
+     *   <li> DURABILITY_ON_ERROR syncs before an ERROR line returns, so the
+     *        lines up to a crash report survive. </li>
+     * </ul>
+     * In the last two modes a log file is also synced when it is closed.
+     *
+     * @param durability DURABILITY_NONE or a combination of
+     *            DURABILITY_PERIODIC and DURABILITY_ON_ERROR
+     */
+    public void setDurability(int durability) {
+        synchronized(lock) {
+            this.durability = durability;
+            scheduleSync();
+        }
+    }
+
+    /**
+     * Sets the interval of the background sync of DURABILITY_PERIODIC, the
+     * default is one second.
+     *
+     * @param syncInterval the interval in milliseconds
+     */
+    public void setSyncInterval(long syncInterval) {
+        synchronized(lock) {
+            if (syncInterval > 0) {
+                this.syncInterval = syncInterval;
+                scheduleSync();
+            }
+        }
+    }
+
+    /**
+     * Start or stop the background sync. Must be called holding lock.
+     */
+    private void scheduleSync() {
+        if (null != syncTask) {
+            syncTask.cancel(false);
+            syncTask = null;
+        }
+        if ((durability & DURABILITY_PERIODIC) != 0) {
+            syncTask = getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    syncInBackground();
+                }
+            }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Background sync, the lines are flushed holding the lock and synced
+     * without it, so the writers are not blocked during the sync
+     */
+    private void syncInBackground() {
+        FileOutputStream target;
+        synchronized(lock) {
+            if (!unsynced || (null == fileOs)) {
+                return;
+            }
+            flush();
+            target = fileOs;
+            unsynced = false;
+        }
+        try {
+            target.getFD().sync();
+        } catch (IOException e) {
+            // Closed meanwhile, closeLogFile synced it
+        }
+    }
+
+    /**
+     * Sync the written lines. Must be called holding lock.
+     */
+    private void sync() throws IOException {
+        if (null != fileOs) {
+            os.flush();
+            fileOs.getFD().sync();
+            unsynced = false;
+        }
+    }
+
+    /**
+     * Sets whether the rotated shards are gzip compressed, to keep more
+     * history in the same space. The shards are then named
+     * fileName.1.txt.gz and so on, getLogContent decompresses them. The
+     * compression runs in the background along with the rotation.
+     *
+     * @param compressBackups true to compress the rotated shards
+     */
+    public void setCompressBackups(boolean compressBackups) {
+        this.compressBackups = compressBackups;
+    }
+
+    /**
+     * Sets the rotation mode. By default a rollover shifts the shards
+     * fileName.1.txt to fileName.backup.txt, renaming each of them. In
+     * circular rotation the log is written into backup + 1 numbered slots in
+     * turn, and a rollover only opens the next slot over its old content and
+     * records it in the fileName.manifest file, whatever the number of backups.
+     * getLogContent reads the slots from the oldest one. The backups are not
+     * compressed in this mode.
+     * This method must be called before initLogFile.
+     *
+     * @param circular true to write into circular slots
+     */
+    public void setCircularRotation(boolean circular) {
+        synchronized(lock) {
+            this.circular = circular;
+            this.slot = -1;
+            this.fileUrl = circular ? toSlotUrl(readManifest())
+                    : toFileUrl(path, fileName, suffix);
+        }
+    }
+
+    /**
+     * Sets whether the lines are written in CRC checked frames, see
+     * RecordFraming. When a framed log file is opened, a line torn by a crash
+     * at its end is cut, reading only the end of the file. A plain text log
+     * file found instead is rolled as is, never framed onto. getLogContent
+     * returns the lines without their frames, skipping corrupt regions and
+     * such plain text shards, and never a STREAM_CONTENT.
+     * This method must be called before initLogFile.
+     *
+     * @param framed true to write framed lines
+     */
+    public void setFramedRecords(boolean framed) {
+        synchronized(lock) {
+            this.framed = framed;
+        }
+    }
+
+    /**
+     * Sets whether a sparse time index is written next to each log file, as
+     * fileName.txt.idx, so getLogContent(fromMillis, toMillis) reads only the
+     * part of the shards holding the range. The index follows its file
+     * through the rollover and the compression.
+     * This method must be called before initLogFile.
+     *
+     * @param timeIndexed true to write the time index
+     */
+    public void setTimeIndex(boolean timeIndexed) {
+        synchronized(lock) {
+            this.timeIndexed = timeIndexed;
+        }
+    }
+
+    /**
+     * Sets whether a summary of each log file is written next to it when it
+     * is closed, as fileName.txt.sum: its time range, its number of lines per
+     * level and a Bloom filter of its tags. search and
+     * getLogContent(fromMillis, toMillis) skip the shards ruled out by their
+     * summary without opening them. A file appended by other writers or
+     * after a crash gets no summary.
+     * This method must be called before initLogFile.
+     *
+     * @param summarized true to write the summaries
+     */
+    public void setShardSummary(boolean summarized) {
+        synchronized(lock) {
+            this.summarized = summarized;
+        }
+    }
+
+    /**
+     * Sets the retention of the log files, on top of the number of backups:
+     * a budget for the total size of the files of this appender, the
+     * current one, the shards, compressed or not, the merged content file
+     * and the sidecar files, and a max age of the files. The oldest files
+     * are deleted first, the current log file is never deleted.
+     * The files are listed and deleted in the background, every ten minutes
+     * and after each rollover.
+     *
+     * @param maxTotalBytes the budget in bytes, 0 for no budget
+     * @param maxAgeMillis the max age in milliseconds, 0 for no max age
+     */
+    public void setRetention(long maxTotalBytes, long maxAgeMillis) {
+        synchronized(lock) {
+            this.maxTotalBytes = Math.max(maxTotalBytes, 0);
+            this.maxAgeMillis = Math.max(maxAgeMillis, 0);
+            if (null != retentionTask) {
+                retentionTask.cancel(false);
+                retentionTask = null;
+            }
+            if ((this.maxTotalBytes > 0) || (this.maxAgeMillis > 0)) {
+                retentionTask = getScheduler().scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        applyRetention();
+                    }
+                }, 0, RETENTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
+    /**
+     * Run the retention on the rotation worker, after the pending rotations.
+     * Must be called holding lock.
+     */
+    private void scheduleRetention() {
+        if ((maxTotalBytes > 0) || (maxAgeMillis > 0)) {
+            getScheduler().execute(new Runnable() {
+                public void run() {
+                    applyRetention();
+                }
+            });
+        }
+    }
+
+    /**
+     * The directories are listed without holding the lock
+     */
+    private void applyRetention() {
+        LogRetention retention;
+        String current;
+        synchronized(lock) {
+            if ((maxTotalBytes <= 0) && (maxAgeMillis <= 0)) {
+                return;
+            }
+            retention = new LogRetention(path, contentPath, fileName, suffix, maxTotalBytes,
+                    maxAgeMillis);
+            current = fileUrl;
+        }
+        retention.apply(current);
+    }
+
+    /**
+     * Sets the interval of the background check that reopens the log file if
+     * it was deleted or moved by someone else, and catches up with the lines
+     * appended by other writers of the same file. The default is one second.
+     *
+     * @param checkInterval the interval in milliseconds, 0 disables the check
+     */
+    public void setCheckInterval(long checkInterval) {
+        synchronized(lock) {
+            this.checkInterval = Math.max(checkInterval, 0);
+            if (null != checkTask) {
+                checkTask.cancel(false);
+                checkTask = null;
+            }
+            if (null != os) {
+                scheduleCheck();
+            }
+        }
+    }
+
+    /**
+     * Return the worker thread shared by the file appenders, started on first
+     * use
+     */
+    static synchronized ScheduledExecutorService getScheduler() {
+        if (null == scheduler) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SmartLogger-file");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Start the log file check if needed. Must be called holding lock.
+     */
+    private void scheduleCheck() {
+        if ((checkInterval > 0) && (null == checkTask)) {
+            checkTask = getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    checkLogFile();
+                }
+            }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Background check of the log file, the file system is queried without
+     * holding the lock so the writers are not blocked
+     */
+    private void checkLogFile() {
+        String url;
+        boolean exists;
+        long size;
+        FileAdapter current = null;
+        synchronized(lock) {
+            url = fileUrl;
+        }
+        try {
+            current = new FileAdapter(url);
+            exists = current.exists();
+            size = exists ? current.getSize() : 0;
+        } catch (IOException e) {
+            return;
+        } finally {
+            closeFile(null, null, current);
+        }
+
+        synchronized(lock) {
+            if ((null == os) || !url.equals(fileUrl)) {
+                // Closed or rolled meanwhile
+                return;
+            }
+            if (!exists) {
+                System.out.println("[fileUrl:" + fileUrl + "] log file removed, reopen it");
+                closeLogFile();
+                initLogFile();
+            } else if (size > fileSize) {
+                // Other writers appended to the file
+                updateFileSize(size);
+                if (null != summary) {
+                    summary.setIncomplete();
+                }
+                try {
+                    // A period is only closed by the time of a line, so the
+                    // lines queued before its end are not put in the next file
+                    rollIfNeeded(lastTimeStamp);
+                } catch (IOException e) {
+                    System.out.println("[fileUrl:" + fileUrl
+                            + "] roll file exception(IOException)");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the buffered lines to the file
+     */
+    public void flush() {
+        synchronized(lock) {
+            if (dirty && (null != os)) {
+                try {
+                    os.flush();
+                } catch (IOException e) {
+                    System.out.println("[fileUrl:" + fileUrl + "] flush exception(IOException)");
+                    e.printStackTrace();
+                }
+            }
+            dirty = false;
+        }
+    }
+    
     /**
      * FileAppender writes one message to the output file
      * @throws IOException 
-     * @throws UnsupportedEncodingException 
      */
-    public void writeLogMessage(String paramTag, String level, String msg) throws IOException {
-        synchronized(lock) {
-        	if ((null != os) && (!file.exists())) {
-    			closeLogFile();
-    			initLogFile();
+    public void writeLogMessage(String paramTag, String level, String msg) throws IOException {
+        synchronized(lock) {
+            line.setLength(0);
+            long timeStamp = System.currentTimeMillis();
+            rollIfNeeded(timeStamp);
+            if ((null != summary) && (null != os)) {
+                summary.add(timeStamp, ShardSummary.toLevel(level), ShardSummary.toTag(paramTag));
+            }
+            TimeFormatter.append(line, timeStamp);
+            line.append(" [").append(level).append("] ")
+                .append(paramTag)
+                .append(msg).append("\r\n");
+            writeLine(line, timeStamp, "ERROR".equals(level));
+        }
+    }
+
+    /**
+     * FileAppender writes one event to the output file, with the same layout
+     * as writeLogMessage
+     */
+    public void writeLogEvent(LogEvent event) throws IOException {
+        synchronized(lock) {
+            rollIfNeeded(event.getTimeStamp());
+            if ((null != summary) && (null != os)) {
+                summary.add(event.getTimeStamp(), event.getLevel(), event.getTag());
+            }
+            line.setLength(0);
+            TimeFormatter.append(line, event.getTimeStamp());
+            line.append(" [").append(event.getLevelName()).append("] ");
+            event.appendParamTag(line);
+            event.appendMessage(line);
+            line.append("\r\n");
+            writeLine(line, event.getTimeStamp(), event.getLevel() == Log.ERROR);
+        }
+    }
+
+    /**
+     * Write a formatted line. A buffered line is written at once if flush is
+     * true.
+     * Must be called holding lock.
+     */
+    private void writeLine(StringBuilder logMsg, long timeStamp, boolean flush)
+            throws IOException {
+    	if (null != os) {
+    		ByteBuffer logMsgBytes = null;
+    		
+    		try {
+    			logMsgBytes = encoder.encode(logMsg);
+    		//add by zouxiongjie 2014-2-25 对日志异常增加捕获
+    		} catch (OutOfMemoryError e) {
+    			e.printStackTrace();
+    		}
+    		
+    		if ((null != logMsgBytes) && logMsgBytes.hasRemaining()) {
+    			indexLine(timeStamp);
+    			lastTimeStamp = timeStamp;
+    			
+    			if (framed) {
+    				fileSize += framing.write(os, logMsgBytes.array(), logMsgBytes.position(),
+    						logMsgBytes.remaining());
+    			} else {
+    				os.write(logMsgBytes.array(), logMsgBytes.position(), logMsgBytes.remaining());
+    				fileSize += logMsgBytes.remaining();
+    			}
+    			
+    			if ((bufferSize <= 0) || flush) {
+    				os.flush();
+    				dirty = false;
+    			} else {
+    				dirty = true;
+    			}
+    			
+    			unsynced = true;
+    			if (flush && ((durability & DURABILITY_ON_ERROR) != 0)) {
+    				sync();
+    			}
+    		}
+
+    		if (fileSize >= nextSizeCheck) {
+    			updateFileSize(file.getSize());
+    		}
+    	}
+    }
+
+    /**
+     * Add the line about to be written to the time index. The index is
+     * dropped if it cannot be written, the line is still logged.
+     * Must be called holding lock.
+     */
+    private void indexLine(long timeStamp) {
+    	if (null != timeIndex) {
+    		try {
+    			timeIndex.add(timeStamp, fileSize);
+    		} catch (IOException e) {
+    			System.out.println("[fileUrl:" + fileUrl + "] write index exception(IOException)");
+    			e.printStackTrace();
+    			closeTimeIndex();
+    		}
+    	}
+    }
+
+    /**
+     * Must be called holding lock
+     */
+    private void closeTimeIndex() {
+    	if (null != timeIndex) {
+    		try {
+    			timeIndex.close();
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		} finally {
+    			timeIndex = null;
+    		}
+    	}
+    }
+
+    /**
+     * Write the summary of the closed log file. Must be called holding lock.
+     */
+    private void closeSummary() {
+    	if (null != summary) {
+    		try {
+    			summary.write(fileUrl, fileSize);
+    		} catch (IOException e) {
+    			System.out.println("[fileUrl:" + fileUrl + "] write summary exception(IOException)");
+    			e.printStackTrace();
+    		} finally {
+    			summary = null;
+    		}
+    	}
+    }
+
+    /**
+     * Take the lines of other writers into account, size being the real
+     * size of the file. Must be called holding lock.
+     */
+    private void updateFileSize(long size) {
+    	if (size > fileSize) {
+    		fileSize = size;
+    	}
+    	nextSizeCheck = fileSize + (maxFileSize / SIZE_CHECKS);
+    }
+
+    /**
+     * If the file grew beyond the limit, or the policy says so before a line
+     * of timeStamp is written, we rename it and create a new one.
+     * The size counted in memory includes the buffered lines, and is at most
+     * the real one when other writers share the file.
+     * Must be called holding lock.
+     */
+    private void rollIfNeeded(long timeStamp) throws IOException {
+    	if (null == os) {
+    		return;
+    	}
+    	
+    	if (null == policy) {
+    		if (fileSize < maxFileSize) {
+    			return;
     		}
-        	
-        	if (null != os) {
-        		byte[] logMsgBytes = null;
-            	StringBuffer logMsg = new StringBuffer(128);
-                logMsg.append(getNow())
-                      .append(" [").append(level).append("] ")
-                      .append(paramTag)
-                      .append(msg).append("\r\n");
-                
-                try {
-                	logMsgBytes = logMsg.toString().getBytes("UTF-8");
-                } catch (UnsupportedEncodingException e) {
-                	System.out.println("log UTF-8 exception: " + logMsg);
-                	e.printStackTrace();
-                //add by zouxiongjie 2014-2-25 对日志异常增加捕获
-                } catch (OutOfMemoryError e) {
-                	e.printStackTrace();
-				}
-                
-                if ((null != logMsgBytes) && (logMsgBytes.length > 0)) {
-                	os.write(logMsgBytes);
-                    os.flush();
-                }
-
-                // If the file grows beyond the limit, we rename it and create a new
-                // one
-                long fileSize = file.getSize();
-                
-                if (fileSize >= maxFileSize) {
-                	System.out.println("[fileSize:" + fileSize + "] >= [maxFileSize:"
-                        + maxFileSize + "] roll logger file");
-                	closeLogFile();
-                	rollFile();
-                	initLogFile();
-                }
-        	}
-        }
+    	} else if (!policy.isTriggered(fileSize, timeStamp)) {
+    		return;
+    	} else if (0 == fileSize) {
+    		// Nothing to roll, the empty file starts the new period
+    		policy.fileOpened(timeStamp);
+    		return;
+    	}
+    	
+    	if (rotations.hasWaiters()) {
+    		// Rolled after the shards are listed, so the waiters are not starved
+    		return;
+    	}
+    	
+    	System.out.println("[fileSize:" + fileSize + "][maxFileSize:" + maxFileSize
+    			+ "] roll logger file");
+    	// closeLogFile writes the buffered lines before the rename
+    	closeLogFile();
+    	rollFile();
+    	initLogFile();
+    	if (null != policy) {
+    		// The new file starts with the line of timeStamp
+    		policy.fileOpened(timeStamp);
+    	}
     }
     
     /**
      * delete the file
      * @param fileUrl file name
      */
-    private void deleteFile(String fileUrl) throws IOException {
+    static void deleteFile(String fileUrl) throws IOException {
     	FileAdapter file = null;
 		
 		try {
@@ -222,7 +957,7 @@ public class FileAppender implements Appender {
      * @param oldFileUrl old file name
      * @param newFileUrl new file name
      */
-    private void renameFile(String oldFileUrl, String newFileUrl) throws IOException {
+    static void renameFile(String oldFileUrl, String newFileUrl) throws IOException {
     	FileAdapter file = null;
 		
 		try {
@@ -250,10 +985,59 @@ public class FileAppender implements Appender {
 		}
     }
     
+    /**
+     * Empty the file, creating it if needed
+     */
+    private void truncateFile(String fileUrl) throws IOException {
+    	FileAdapter file = null;
+    	OutputStream os = null;
+    	
+    	try {
+    		file = new FileAdapter(fileUrl);
+    		os = file.openOutputStream(false);
+    	} catch (IOException e) {
+    		System.out.println("[fileUrl:" + fileUrl + "] truncate file exception(IOException)");
+    		throw e;
+    	} finally {
+    		closeFile(os, null, file);
+    	}
+    }
+    
+    /**
+     * Return true if the file exists
+     */
+    static boolean exists(String fileUrl) throws IOException {
+    	FileAdapter file = null;
+    	
+    	try {
+    		file = new FileAdapter(fileUrl);
+    		return file.exists();
+    	} finally {
+    		closeFile(null, null, file);
+    	}
+    }
+    
+    /**
+     * Return the size of the file, 0 if it does not exist
+     */
+    private long getSize(String fileUrl) {
+    	FileAdapter file = null;
+    	
+    	try {
+    		file = new FileAdapter(fileUrl);
+    		return file.exists() ? file.getSize() : 0;
+    	} catch (IOException e) {
+    		System.out.println("[fileUrl:" + fileUrl + "] get size exception(IOException)");
+    		return 0;
+    	} finally {
+    		closeFile(null, null, file);
+    	}
+    }
+    
     /**
      * Close connection and streams
      */
-    private void closeFile(OutputStream os, InputStream is, FileAdapter file) {
+    private static void closeFile(OutputStream os, InputStream is, FileAdapter file) {
     	try {
     		if (null != os) {
     			os.close();
@@ -286,27 +1070,337 @@ public class FileAppender implements Appender {
     }
     
     /**
-     * roll the file
+     * roll the file. The current file is only renamed aside here, the shards
+     * are shifted and compressed by the rotation worker so the writers do not
+     * wait for it.
      */
     private void rollFile() throws IOException {
     	System.out.println("[backup:" + backup + "] roll file ...");
     	
     	synchronized(lock) {
-    		if (0 == backup) {
-    			deleteFile(fileUrl);
-    		} else if (backup > 0) {
-    			deleteFile(toFileUrl(path, (fileName + "." + backup), suffix));
-    			
-    			for (int i = backup - 1; i > 0; i--) {
-    				renameFile(toFileUrl(path, (fileName + "." + i), suffix),
-    						toFileUrl(path, (fileName + "." + (i + 1)), suffix));
-    			}
-    			
-    			renameFile(fileUrl, toFileUrl(path, (fileName + ".1"), suffix));
+    		if (circular) {
+    			// Reuse the oldest slot, no file is renamed. It is emptied before
+    			// the manifest points to it, a crash in between leaves an empty
+    			// newest slot, never stale lines taken for the newest ones.
+    			slot = (slot + 1) % (backup + 1);
+    			fileUrl = toSlotUrl(slot);
+    			truncateFile(fileUrl);
+    			truncateOnOpen = true;
+    			writeManifest(slot);
+    			scheduleRetention();
+    			return;
     		}
+    		
+    		String period = (null != policy) ? policy.getPeriodName() : null;
+    		if (null != period) {
+    			rollDatedFile(period);
+    			return;
+    		}
+    		
+    		// Left by a previous run, rolledN may still wait for its rotation
+    		String url;
+    		do {
+    			url = toFileUrl(path, (fileName + ".rolled" + (++rollCount)), suffix);
+    		} while (exists(url));
+    		
+    		final String rolledUrl = url;
+    		renameFile(fileUrl, rolledUrl);
+    		renameSidecars(fileUrl, rolledUrl);
+    		
+    		submitRotate(rolledUrl);
+    		scheduleRetention();
         }
     }
     
+    /**
+     * Shift the shards to make the rolled file the first one, on the rotation
+     * worker. Must be called holding lock.
+     */
+    private void submitRotate(final String rolledUrl) {
+    	rotations.submit(new Runnable() {
+    		public void run() {
+    			try {
+    				rotate(rolledUrl);
+    			} catch (IOException e) {
+    				System.out.println("[rolledUrl:" + rolledUrl
+    						+ "] rotate file exception(IOException)");
+    				e.printStackTrace();
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * Rotate the rolled files of a previous run which ended before their
+     * rotation, oldest first, so they become shards again.
+     * Must be called holding lock.
+     */
+    private void rotateLeftovers() {
+    	final Pattern names = Pattern.compile(Pattern.quote(fileName) + "\\.rolled(\\d{1,9})"
+    			+ Pattern.quote(suffix));
+    	List<String> rolled = listNames(path, names);
+    	Collections.sort(rolled, new Comparator<String>() {
+    		public int compare(String name1, String name2) {
+    			return toIndex(names, name1, 1).compareTo(toIndex(names, name2, 1));
+    		}
+    	});
+    	
+    	for (String name : rolled) {
+    		String rolledUrl = toFileUrl(path, name, "");
+    		System.out.println("[rolledUrl:" + rolledUrl
+    				+ "] rotate a rolled file left by a previous run");
+    		submitRotate(rolledUrl);
+    	}
+    }
+    
+    /**
+     * Rename the current file after its period, the rotation worker
+     * compresses it and deletes the oldest dated files.
+     * Must be called holding lock.
+     */
+    private void rollDatedFile(String period) throws IOException {
+    	String url;
+    	int index = 0;
+    	do {
+    		index++;
+    		url = toFileUrl(path, (fileName + "." + period + "." + index), suffix);
+    	} while (exists(url) || exists(url + GZIP_SUFFIX));
+    	
+    	final String rolledUrl = url;
+    	renameFile(fileUrl, rolledUrl);
+    	renameSidecars(fileUrl, rolledUrl);
+    	
+    	rotations.submit(new Runnable() {
+    		public void run() {
+    			try {
+    				rotateDated(rolledUrl);
+    			} catch (IOException e) {
+    				System.out.println("[rolledUrl:" + rolledUrl
+    						+ "] rotate file exception(IOException)");
+    				e.printStackTrace();
+    			}
+    		}
+    	});
+    	scheduleRetention();
+    }
+    
+    /**
+     * Compress the rolled dated file and keep the backup newest dated files,
+     * runs on the rotation worker
+     */
+    private void rotateDated(String rolledUrl) throws IOException {
+    	if (compressBackups && exists(rolledUrl)) {
+    		compress(rolledUrl, rolledUrl + GZIP_SUFFIX);
+    		deleteFile(rolledUrl);
+    	}
+    	
+    	List<String> dated = listDatedFiles();
+    	for (int i = 0; i < dated.size() - backup; i++) {
+    		deleteFile(dated.get(i));
+    		deleteSidecars(dated.get(i));
+    	}
+    }
+    
+    /**
+     * Return the files rolled by a policy with periods, oldest first
+     */
+    private List<String> listDatedFiles() {
+    	final Pattern names = getDatedNames();
+    	List<String> dated = listNames(path, names);
+    	
+    	// By period, then by index in the period
+    	Collections.sort(dated, new Comparator<String>() {
+    		public int compare(String name1, String name2) {
+    			Matcher m1 = names.matcher(name1);
+    			Matcher m2 = names.matcher(name2);
+    			m1.matches();
+    			m2.matches();
+    			int result = m1.group(1).compareTo(m2.group(1));
+    			if (0 == result) {
+    				result = toIndex(names, name1, 2).compareTo(toIndex(names, name2, 2));
+    			}
+    			return result;
+    		}
+    	});
+    	
+    	for (int i = 0; i < dated.size(); i++) {
+    		dated.set(i, toFileUrl(path, dated.get(i), ""));
+    	}
+    	return dated;
+    }
+    
+    /**
+     * Return the names of the files of the log directory matching a pattern
+     */
+    static List<String> listNames(String path, Pattern names) {
+    	List<String> matching = new ArrayList<String>();
+    	FileAdapter dir = null;
+    	
+    	try {
+    		dir = new FileAdapter(path);
+    		if (dir.exists()) {
+    			Enumeration<?> list = dir.list(false);
+    			while (list.hasMoreElements()) {
+    				String name = (String) list.nextElement();
+    				if (names.matcher(name).matches()) {
+    					matching.add(name);
+    				}
+    			}
+    		}
+    	} catch (IOException e) {
+    		System.out.println("[path:" + path + "] list files exception(IOException)");
+    	} finally {
+    		closeFile(null, null, dir);
+    	}
+    	return matching;
+    }
+    
+    /**
+     * Return the number in a group of a file name matching a pattern
+     */
+    static Integer toIndex(Pattern names, String name, int group) {
+    	Matcher matcher = names.matcher(name);
+    	matcher.matches();
+    	return Integer.valueOf(matcher.group(group));
+    }
+    
+    private Pattern getDatedNames() {
+    	if (null == datedNames) {
+    		datedNames = Pattern.compile(Pattern.quote(fileName)
+    				+ "\\.(\\d{4}-\\d{2}-\\d{2}(?:-\\d{2})?)\\.(\\d+)" + Pattern.quote(suffix)
+    				+ "(?:\\" + GZIP_SUFFIX + ")?");
+    	}
+    	return datedNames;
+    }
+    
+    /**
+     * Return false if the file is named with a period out of a time range,
+     * give or take PERIOD_SLACK_MILLIS
+     */
+    private boolean isPeriodInRange(String url, long fromMillis, long toMillis) {
+    	Matcher matcher = getDatedNames().matcher(new File(url).getName());
+    	if (!matcher.matches()) {
+    		return true;
+    	}
+    	long[] period = TimeRolloverPolicy.parsePeriod(matcher.group(1));
+    	return (null == period) || ((period[0] - PERIOD_SLACK_MILLIS <= toMillis)
+    			&& (period[1] + PERIOD_SLACK_MILLIS > fromMillis));
+    }
+    
+    /**
+     * Return the newest slot recorded in the manifest, 0 if there is none
+     */
+    private int readManifest() {
+    	FileAdapter manifest = null;
+    	InputStream is = null;
+    	
+    	try {
+    		manifest = new FileAdapter(toManifestUrl());
+    		
+    		if (manifest.exists()) {
+    			is = manifest.openInputStream();
+    			ByteArrayOutputStream content = new ByteArrayOutputStream();
+    			merge(is, content);
+    			slot = Integer.parseInt(content.toString("UTF-8").trim());
+    		}
+    	} catch (Exception e) {
+    		System.out.println("[manifestUrl:" + toManifestUrl()
+    				+ "] read manifest exception(Exception)");
+    	} finally {
+    		closeFile(null, is, manifest);
+    	}
+    	
+    	if ((slot < 0) || (slot > backup)) {
+    		slot = 0;
+    	}
+    	return slot;
+    }
+    
+    private void writeManifest(int slot) throws IOException {
+    	FileAdapter manifest = null;
+    	OutputStream os = null;
+    	
+    	try {
+    		manifest = new FileAdapter(toManifestUrl());
+    		os = manifest.openOutputStream();
+    		os.write(String.valueOf(slot).getBytes("UTF-8"));
+    	} catch (IOException e) {
+    		System.out.println("[manifestUrl:" + toManifestUrl()
+    				+ "] write manifest exception(IOException)");
+    		throw e;
+    	} finally {
+    		closeFile(os, null, manifest);
+    	}
+    }
+    
+    /**
+     * Shift the shards and make the rolled file the first one, runs on the
+     * rotation worker
+     */
+    private void rotate(String rolledUrl) throws IOException {
+    	if (0 == backup) {
+    		deleteFile(rolledUrl);
+    		deleteSidecars(rolledUrl);
+    		return;
+    	}
+    	
+    	deleteFile(toShardUrl(backup));
+    	deleteFile(toShardUrl(backup) + GZIP_SUFFIX);
+    	deleteSidecars(toShardUrl(backup));
+    	
+    	for (int i = backup - 1; i > 0; i--) {
+    		renameFile(toShardUrl(i), toShardUrl(i + 1));
+    		renameFile(toShardUrl(i) + GZIP_SUFFIX, toShardUrl(i + 1) + GZIP_SUFFIX);
+    		renameSidecars(toShardUrl(i), toShardUrl(i + 1));
+    	}
+    	
+    	// The offsets of the index are those of the uncompressed shard
+    	renameSidecars(rolledUrl, toShardUrl(1));
+    	
+    	if (compressBackups) {
+    		compress(rolledUrl, toShardUrl(1) + GZIP_SUFFIX);
+    		deleteFile(rolledUrl);
+    	} else {
+    		renameFile(rolledUrl, toShardUrl(1));
+    	}
+    }
+    
+    /**
+     * Rename the time index and the summary of a log file along with it
+     */
+    private void renameSidecars(String oldFileUrl, String newFileUrl) throws IOException {
+    	renameFile(TimeIndex.toIndexUrl(oldFileUrl), TimeIndex.toIndexUrl(newFileUrl));
+    	renameFile(ShardSummary.toSummaryUrl(oldFileUrl), ShardSummary.toSummaryUrl(newFileUrl));
+    }
+    
+    private void deleteSidecars(String fileUrl) throws IOException {
+    	deleteFile(TimeIndex.toIndexUrl(fileUrl));
+    	deleteFile(ShardSummary.toSummaryUrl(fileUrl));
+    }
+    
+    private void compress(String fileUrl, String gzipUrl) throws IOException {
+    	FileAdapter file = null;
+    	FileAdapter gzipFile = null;
+    	InputStream is = null;
+    	OutputStream os = null;
+    	
+    	try {
+    		file = new FileAdapter(fileUrl);
+    		gzipFile = new FileAdapter(gzipUrl);
+    		is = file.openInputStream();
+    		os = new GZIPOutputStream(gzipFile.openOutputStream());
+    		merge(is, os);
+    		((GZIPOutputStream) os).finish();
+    	} catch (IOException e) {
+    		System.out.println("[fileUrl:" + fileUrl + "][gzipUrl:" + gzipUrl
+    				+ "] compress file exception(IOException)");
+    		throw e;
+    	} finally {
+    		closeFile(null, is, file);
+    		closeFile(os, null, gzipFile);
+    	}
+    }
+    
     /**
      * Init the logger
      */
@@ -314,9 +1408,50 @@ public class FileAppender implements Appender {
     	System.out.println("[fileUrl:" + fileUrl + "] init logger file ...");
     	
     	synchronized (lock) {
+    		if (!circular && !leftoversRotated) {
+    			leftoversRotated = true;
+    			rotateLeftovers();
+    		}
+    		
     		try {
+				if (framed && !truncateOnOpen
+						&& (RecordFraming.recover(fileUrl) == RecordFraming.NOT_FRAMED)) {
+					// A plain text log of a run without framing, it is kept as a
+					// shard and the framed lines go to a new file
+					System.out.println("[fileUrl:" + fileUrl + "] not a framed file, roll it");
+					rollFile();
+				}
+				
 				file = new FileAdapter(fileUrl);
-				os = file.openOutputStream(true);
+				// A reused slot starts over
+				boolean truncate = truncateOnOpen;
+				os = file.openOutputStream(!truncate);
+				fileOs = (os instanceof FileOutputStream) ? (FileOutputStream) os : null;
+				truncateOnOpen = false;
+				
+				if (bufferSize > 0) {
+					os = new BufferedOutputStream(os, bufferSize);
+				}
+				
+				// The only size query, the writes are counted from now on
+				fileSize = 0;
+				updateFileSize(file.getSize());
+				scheduleCheck();
+				
+				if (timeIndexed) {
+					openTimeIndex(truncate);
+				}
+				if (null != policy) {
+					// An appended file keeps the period of its last line
+					policy.fileOpened((fileSize > 0) ? file.lastModified()
+							: System.currentTimeMillis());
+				}
+				if (summarized) {
+					openSummary(truncate);
+				} else {
+					// Left by a previous run, it would not cover the new lines
+					deleteFile(ShardSummary.toSummaryUrl(fileUrl));
+				}
 			} catch (IOException e) {
 				System.out.println("[fileUrl:" + fileUrl
 						+ "] open file exception(IOException)");
@@ -325,6 +1460,37 @@ public class FileAppender implements Appender {
     	}
     }
 
+    /**
+     * Open the time index of the log file, the log is written without it if
+     * it cannot be opened. Must be called holding lock.
+     */
+    private void openTimeIndex(boolean truncate) {
+    	try {
+    		timeIndex = TimeIndex.open(fileUrl, fileSize, truncate);
+    	} catch (IOException e) {
+    		System.out.println("[fileUrl:" + fileUrl + "] open index exception(IOException)");
+    		e.printStackTrace();
+    	}
+    }
+
+    /**
+     * Start the summary of the log file. An appended file goes on with the
+     * summary written when it was closed, if the file was not changed since.
+     * The summary file is removed while the log file is open.
+     * Must be called holding lock.
+     */
+    private void openSummary(boolean truncate) throws IOException {
+    	summary = truncate ? null : ShardSummary.read(fileUrl, fileSize);
+    	if (null == summary) {
+    		summary = new ShardSummary();
+    		if (fileSize > 0) {
+    			// Lines of an unknown summary
+    			summary.setIncomplete();
+    		}
+    	}
+    	deleteFile(ShardSummary.toSummaryUrl(fileUrl));
+    }
+
     /**
      * FileAppender doesn't implement this method
      */
@@ -339,7 +1505,21 @@ public class FileAppender implements Appender {
     	System.out.println("[fileUrl:" + fileUrl + "] close logger file ...");
     	
         synchronized(lock) {
+        	if ((durability != DURABILITY_NONE) && (null != os)) {
+        		try {
+        			sync();
+        		} catch (IOException e) {
+        			System.out.println("[fileUrl:" + fileUrl + "] sync exception(IOException)");
+        			e.printStackTrace();
+        		}
+        	}
+        	
+        	// Closing the buffered stream writes the pending lines
         	closeFile(os, null, file);
+        	fileOs = null;
+        	closeTimeIndex();
+        	closeSummary();
+        	dirty = false;
         }
     }
 
@@ -363,6 +1543,7 @@ public class FileAppender implements Appender {
                 if (file.exists()) {
                     file.delete();
                 }
+                deleteSidecars(fileUrl);
             } catch (Exception e) {
                 System.out.println("[fileUrl:" + fileUrl
 						+ "] delete file exception(IOException)");
@@ -373,69 +1554,206 @@ public class FileAppender implements Appender {
 
     public LogContent getLogContent() throws IOException {
         synchronized (lock) {
-            FileAdapter mergedFa = null;
-            OutputStream mergedOs = null;
-            String shardFileUrl = null;
-            String mergedFileUrl = toFileUrl(contentPath, (fileName + ".merged"), suffix);
+            // The lines still in the buffer are part of the content
+            flush();
+            rotations.await(fileUrl);
             
-            System.out.println("[backup:" + backup + "][mergedFileUrl:" + mergedFileUrl
-            		+ "] start merge content ...");
+            return toLogContent(getFilesContent());
+        }
+    }
+    
+    /**
+     * Return the lines logged between two times. With the time index, see
+     * setTimeIndex, only the parts of the log files holding the range are
+     * read, give or take TimeIndex.INTERVAL bytes at each end. The files
+     * without index are returned in full, unless their summary, see
+     * setShardSummary, shows they are out of the range.
+     *
+     * @param fromMillis the start of the range, in milliseconds since the epoch
+     * @param toMillis the end of the range, in milliseconds since the epoch
+     */
+    public LogContent getLogContent(long fromMillis, long toMillis) throws IOException {
+        synchronized (lock) {
+            flush();
+            rotations.await(fileUrl);
+            
+            List<String> files = new ArrayList<String>();
+            List<long[]> ranges = new ArrayList<long[]>();
+            for (String url : getFileUrls()) {
+            	if (!isPeriodInRange(url, fromMillis, toMillis)) {
+            		continue;
+            	}
+            	ShardSummary shardSummary = getSummary(url);
+            	if ((null != shardSummary) && !shardSummary.mayOverlap(fromMillis, toMillis)) {
+            		continue;
+            	}
+            	long[] range = TimeIndex.range(url, fromMillis, toMillis);
+            	if (null != range) {
+            		files.add(url);
+            		ranges.add(range);
+            	}
+            }
+            
+            long[] offsets = new long[files.size()];
+            long[] lengths = new long[files.size()];
+            for (int i = 0; i < offsets.length; i++) {
+            	offsets[i] = ranges.get(i)[0];
+            	lengths[i] = ranges.get(i)[1];
+            }
+            return toLogContent(new LogContent(files.toArray(new String[files.size()]),
+            		offsets, lengths));
+        }
+    }
+    
+    /**
+     * Search the log files and deliver the matching lines to the listener,
+     * oldest first. The files are scanned in parallel and the search stops
+     * once the limit of the query is reached. The files are opened holding
+     * the lock, so a rollover during the search does not move lines, and
+     * are scanned without it. The shards ruled out by their summary are
+     * skipped, and with the time index only the parts of the files holding
+     * the time range of the query are read.
+     *
+     * @return the number of matches
+     */
+    public int search(LogQuery query, LogQuery.Listener listener) throws IOException {
+        List<InputStream> files = new ArrayList<InputStream>();
+        synchronized (lock) {
+            flush();
+            rotations.await(fileUrl);
             
             try {
-                // Prepare the output stream
-                if (memory) {
-                	mergedOs = new ByteArrayOutputStream();
-                } else {
-                	mergedFa = new FileAdapter(mergedFileUrl);
-                	mergedOs = mergedFa.openOutputStream();
-                }
-                
-                for (int i = backup; i > 0; i--) {
-                	shardFileUrl = toFileUrl(path, (fileName + "." + i), suffix);
-                	merge(shardFileUrl, mergedOs);
-                }
-                
-                merge(fileUrl, mergedOs);
-
-                if (memory) {
-                	return new LogContent(LogContent.STRING_CONTENT, mergedOs.toString());
-                } else {
-                	return new LogContent(LogContent.FILE_CONTENT, mergedFileUrl);
-                }
+            	for (String url : getFileUrls()) {
+            		if (!isPeriodInRange(url, query.getFromMillis(), query.getToMillis())) {
+            			continue;
+            		}
+            		ShardSummary shardSummary = getSummary(url);
+            		if ((null != shardSummary) && !shardSummary.mayMatch(query)) {
+            			continue;
+            		}
+            		long[] range = query.hasTimeRange()
+            				? TimeIndex.range(url, query.getFromMillis(), query.getToMillis())
+            				: new long[] { 0, -1 };
+            		if ((null != range) && url.equals(fileUrl) && (range[1] < 0)) {
+            			// Leave out the lines written during the search
+            			range[1] = Math.max(getSize(url) - range[0], 0);
+            		}
+            		InputStream is = (null == range) ? null
+            				: LogContent.openFile(url, range[0], range[1]);
+            		if (null != is) {
+            			files.add(is);
+            		}
+            	}
             } catch (IOException e) {
-            	System.out.println("[backup:" + backup + "][mergedFileUrl:" + mergedFileUrl
-                		+ "] merge content exception(IOException)");
-                throw e;
-            } finally {
-                closeFile(mergedOs, null, mergedFa);
+            	System.out.println("[fileUrl:" + fileUrl + "] open search file exception(IOException)");
+            	for (InputStream is : files) {
+            		closeFile(null, is, null);
+            	}
+            	throw e;
             }
         }
+        return LogSearch.search(files, framed, query, listener);
     }
     
-    private void merge(String fileUrl, OutputStream os) throws IOException {
-    	FileAdapter file = null;
-    	InputStream is = null;
-    	
-    	try {
-    		file = new FileAdapter(fileUrl);
-    		
-    		if (file.exists()) {
-    			is = file.openInputStream();
-        		
-        		if (null == is) {
-        			System.out.println("[fileUrl:" + fileUrl + "] open file failed");
-                } else {
-                	System.out.println("[fileUrl:" + fileUrl + "] merge to content");
-                	merge(is, os);
-                }
-    		}
-        } catch (Exception e) {
-            System.out.println("[fileUrl:" + fileUrl + "] open file exception(Exception)");
-            e.printStackTrace();
+    /**
+     * Return the summary of a closed log file, null if it has none or if it
+     * does not match the size of the file. Must be called holding lock.
+     */
+    private ShardSummary getSummary(String url) {
+    	if (url.equals(fileUrl)) {
+    		// The current file is summarized when it is closed
+    		return null;
+    	}
+    	long size = url.endsWith(GZIP_SUFFIX) ? -1 : getSize(url);
+    	return ShardSummary.read(url, size);
+    }
+    
+    /**
+     * Return the content of the log files as set by setStreamContent and
+     * setLogContentType. Must be called holding lock.
+     */
+    private LogContent toLogContent(LogContent files) throws IOException {
+        FileAdapter mergedFa = null;
+        OutputStream mergedOs = null;
+        String mergedFileUrl = toFileUrl(contentPath, (fileName + ".merged"), suffix);
+        
+        if (stream && !framed) {
+        	// Opened holding the lock, a later rollover does not move the lines
+        	return files.open();
+        }
+        
+        System.out.println("[backup:" + backup + "][mergedFileUrl:" + mergedFileUrl
+        		+ "] start merge content ...");
+        
+        try {
+            // Prepare the output stream
+            if (memory) {
+            	mergedOs = new ByteArrayOutputStream();
+            } else {
+            	mergedFa = new FileAdapter(mergedFileUrl);
+            	mergedOs = mergedFa.openOutputStream();
+            }
+            
+            if (framed) {
+            	// The files are read as one framed stream
+            	InputStream is = files.openInputStream();
+            	try {
+            		RecordFraming.unframe(is, mergedOs);
+            	} finally {
+            		is.close();
+            	}
+            } else {
+            	files.transferTo(Channels.newChannel(mergedOs));
+            }
+
+            if (memory) {
+            	return new LogContent(LogContent.STRING_CONTENT, mergedOs.toString());
+            } else {
+            	scheduleRetention();
+            	return new LogContent(LogContent.FILE_CONTENT, mergedFileUrl);
+            }
+        } catch (IOException e) {
+        	System.out.println("[backup:" + backup + "][mergedFileUrl:" + mergedFileUrl
+            		+ "] merge content exception(IOException)");
+            throw e;
         } finally {
-        	closeFile(null, is, file);
+            closeFile(mergedOs, null, mergedFa);
         }
     }
+    
+    /**
+     * Return a STREAM_CONTENT of the log files, oldest first.
+     * Must be called holding lock.
+     */
+    private LogContent getFilesContent() {
+    	List<String> files = getFileUrls();
+    	long[] lengths = new long[files.size()];
+    	Arrays.fill(lengths, -1);
+    	return new LogContent(files.toArray(new String[files.size()]), lengths);
+    }
+    
+    /**
+     * Return the log files, oldest first. Must be called holding lock.
+     */
+    private List<String> getFileUrls() {
+    	List<String> files = new ArrayList<String>();
+    	
+    	if (circular) {
+    		// From the oldest slot to the current one
+    		for (int i = 1; i <= backup; i++) {
+    			files.add(toSlotUrl((slot + i) % (backup + 1)));
+    		}
+    	} else {
+    		for (int i = backup; i > 0; i--) {
+    			String shardFileUrl = toShardUrl(i);
+    			files.add(shardFileUrl + GZIP_SUFFIX);
+    			files.add(shardFileUrl);
+    		}
+    		files.addAll(listDatedFiles());
+    	}
+    	files.add(fileUrl);
+    	return files;
+    }
 
     private void merge(InputStream is, OutputStream os) throws IOException {
         byte[] buffer = new byte[4096];
@@ -444,7 +1762,6 @@ public class FileAppender implements Appender {
             length = is.read(buffer);
             if (length > 0) {
                 os.write(buffer, 0, length);
-                os.flush();
             }
         } while(length > 0);
     }
@@ -457,12 +1774,99 @@ public class FileAppender implements Appender {
     	return ((null == s) || (s.length() <= 0));
     }
     
-    private String toFileUrl(String path, String fileName, String suffix) {
+    private String toSlotUrl(int index) {
+    	return toFileUrl(path, (fileName + ".slot" + index), suffix);
+    }
+    
+    private String toManifestUrl() {
+    	return toFileUrl(path, fileName, ".manifest");
+    }
+    
+    private String toShardUrl(int index) {
+    	return toFileUrl(path, (fileName + "." + index), suffix);
+    }
+    
+    static String toFileUrl(String path, String fileName, String suffix) {
     	if (path.endsWith(File.separator)) {
     		return path + fileName + suffix;
     	} else {
     		return path + File.separator + fileName + suffix;
     	}
     }
+    
+    /**
+     * The rotations of an appender, run on the shared worker and counted
+     * until they are done, so the readers of the shards can wait for them.
+     * Guarded by the lock of the appender.
+     */
+    static final class Rotations {
+    	private final Object lock;
+    	
+    	/**
+    	 * Number of rotations submitted and not done yet, and number of
+    	 * threads waiting for them
+    	 */
+    	private int pending = 0;
+    	private int waiters = 0;
+    	
+    	Rotations(Object lock) {
+    		this.lock = lock;
+    	}
+    	
+    	/**
+    	 * Run a rotation on the worker, counted until it is done.
+    	 * Must be called holding lock.
+    	 */
+    	void submit(final Runnable rotation) {
+    		pending++;
+    		getScheduler().execute(new Runnable() {
+    			public void run() {
+    				try {
+    					rotation.run();
+    				} finally {
+    					synchronized(lock) {
+    						pending--;
+    						lock.notifyAll();
+    					}
+    				}
+    			}
+    		});
+    	}
+    	
+    	/**
+    	 * Wait for the pending rotations, so the shards are in place when the
+    	 * caller lists them. The lock is released while waiting, the worker
+    	 * needs it for the flush, check and sync tasks queued before the
+    	 * rotations. The appender does not roll its file while hasWaiters is
+    	 * true, so only the pending rotations are waited.
+    	 * Must be called holding lock.
+    	 */
+    	void await(String fileUrl) {
+    		long deadline = System.currentTimeMillis() + ROTATION_TIMEOUT_MILLIS;
+    		waiters++;
+    		try {
+    			while (pending > 0) {
+    				long remaining = deadline - System.currentTimeMillis();
+    				if (remaining <= 0) {
+    					System.out.println("[fileUrl:" + fileUrl + "][pendingRotations:"
+    							+ pending + "] wait rotation timeout");
+    					return;
+    				}
+    				lock.wait(remaining);
+    			}
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		} finally {
+    			waiters--;
+    		}
+    	}
+    	
+    	/**
+    	 * Return true while a reader waits for the rotations.
+    	 * Must be called holding lock.
+    	 */
+    	boolean hasWaiters() {
+    		return waiters > 0;
+    	}
+    }
 }
-
@@ -0,0 +1,82 @@
+package com.android.common.logger;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * UTF-8 encoder of the formatted log lines, owned by an appender and used
+ * under its lock. The chars and bytes buffers are reused from line to line,
+ * ASCII chars are copied by a plain loop and only the rest of a line with
+ * other chars goes through the CharsetEncoder, so encoding a line does not
+ * allocate once the buffers have grown to the usual line length.
+ */
+final class LineEncoder {
+
+    /**
+     * Initial size of the buffers
+     */
+    private static final int INITIAL_CAPACITY = 512;
+
+    /**
+     * Buffers grown beyond this size by a huge line are dropped afterwards
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /**
+     * Max number of UTF-8 bytes for one char
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private char[] chars = new char[INITIAL_CAPACITY];
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+    private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_CAPACITY * MAX_BYTES_PER_CHAR);
+
+    /**
+     * Encode a line. The returned buffer holds the bytes between its position
+     * and its limit, it is backed by an array and reused by the next call.
+     */
+    ByteBuffer encode(StringBuilder line) {
+        int length = line.length();
+        ensureCapacity(length);
+        line.getChars(0, length, chars, 0);
+
+        // ASCII fast path
+        byte[] array = bytes.array();
+        int i = 0;
+        while ((i < length) && (chars[i] < 0x80)) {
+            array[i] = (byte) chars[i];
+            i++;
+        }
+        bytes.clear();
+        bytes.position(i);
+
+        if (i < length) {
+            charBuffer.limit(length).position(i);
+            encoder.reset();
+            encoder.encode(charBuffer, bytes, true);
+            encoder.flush(bytes);
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > chars.length) {
+            int capacity = Math.max(length, chars.length * 2);
+            chars = new char[capacity];
+            charBuffer = CharBuffer.wrap(chars);
+            bytes = ByteBuffer.allocate(capacity * MAX_BYTES_PER_CHAR);
+        } else if ((chars.length > MAX_RETAINED_CAPACITY) && (length <= INITIAL_CAPACITY)) {
+            chars = new char[INITIAL_CAPACITY];
+            charBuffer = CharBuffer.wrap(chars);
+            bytes = ByteBuffer.allocate(INITIAL_CAPACITY * MAX_BYTES_PER_CHAR);
+        }
+    }
+}
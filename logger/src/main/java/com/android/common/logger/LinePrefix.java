@@ -0,0 +1,43 @@
+package com.android.common.logger;
+
+/**
+ * The constant parts of a log line for one thread: "[appTag][" before the tag
+ * and "[Pid:x][Tid:y" before the message. Neither the pid nor the thread id
+ * changes during the life of a thread, so each thread builds its prefix once
+ * and LogEvent appends the chars as they are. The prefix is rebuilt when
+ * initLog sets another application tag.
+ */
+final class LinePrefix {
+
+    private static final ThreadLocal<LinePrefix> sLocal = new ThreadLocal<LinePrefix>();
+
+    final String appTag;
+    final long threadId;
+
+    /** "[appTag][" */
+    final char[] tagPrefix;
+
+    /** "[Pid:x][Tid:y" */
+    final char[] idPrefix;
+
+    private LinePrefix(String appTag, long threadId) {
+        this.appTag = appTag;
+        this.threadId = threadId;
+        this.tagPrefix = ("[" + appTag + "][").toCharArray();
+        this.idPrefix = ("[Pid:" + android.os.Process.myPid() + "][Tid:" + threadId)
+                .toCharArray();
+    }
+
+    /**
+     * Return the prefix of the current thread for an application tag
+     */
+    static LinePrefix get(String appTag) {
+        LinePrefix prefix = sLocal.get();
+        // initLog replaces mAppTag, a reference check is enough
+        if ((prefix == null) || (prefix.appTag != appTag)) {
+            prefix = new LinePrefix(appTag, Thread.currentThread().getId());
+            sLocal.set(prefix);
+        }
+        return prefix;
+    }
+}
@@ -39,6 +39,46 @@ public class Log {
 	 */
 	public static final int TRACE = 4;
 
+	/**
+	 * Async wait strategy BLOCKING: the consumer thread parks until a message is
+	 * published. Lowest CPU usage, producers pay a wake up when it is idle.
+	 */
+	public static final int ASYNC_WAIT_BLOCKING = 0;
+
+	/**
+	 * Async wait strategy SLEEPING: the consumer thread yields and then sleeps
+	 * shortly between polls. Producers never have to wake it up.
+	 */
+	public static final int ASYNC_WAIT_SLEEPING = 1;
+
+	/**
+	 * Async wait strategy YIELDING: the consumer thread keeps polling the ring.
+	 * Lowest latency, but it keeps one core busy.
+	 */
+	public static final int ASYNC_WAIT_YIELDING = 2;
+
+	/**
+	 * Default capacity of the async ring buffer
+	 */
+	public static final int ASYNC_DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * Context mode SHARED: all the threads share one error context cache.
+	 */
+	public static final int CONTEXT_SHARED = 0;
+
+	/**
+	 * Context mode PER_THREAD: each thread caches its own error context, an
+	 * ERROR dumps the context of the thread that logged it.
+	 */
+	public static final int CONTEXT_PER_THREAD = 1;
+
+	/**
+	 * Context mode PER_THREAD_MERGED: as PER_THREAD, and the context of the
+	 * other threads is dumped afterwards, merged in time order.
+	 */
+	public static final int CONTEXT_PER_THREAD_MERGED = 2;
+
 	// -------------------------------------------------------------
 	// Constructors
 	/**
@@ -63,6 +103,42 @@ public class Log {
 		mLogImpl.initLog(appTAG, object, level);
 	}
 
+	/**
+	 * Enable the asynchronous mode: log calls publish messages into a bounded
+	 * ring buffer drained by a single consumer thread, so callers no longer
+	 * block on the appender. When the ring is full callers wait for room.
+	 * 
+	 * @param capacity
+	 *            the ring capacity, rounded up to a power of two
+	 * @param waitStrategy
+	 *            one of ASYNC_WAIT_BLOCKING, ASYNC_WAIT_SLEEPING,
+	 *            ASYNC_WAIT_YIELDING
+	 */
+	public static void enableAsyncMode(int capacity, int waitStrategy) {
+		mLogImpl.enableAsyncMode(capacity, waitStrategy);
+	}
+
+	/**
+	 * Disable the asynchronous mode. Pending messages are written first.
+	 */
+	public static void disableAsyncMode() {
+		mLogImpl.disableAsyncMode();
+	}
+
+	/**
+	 * Return true if the asynchronous mode is enabled
+	 */
+	public static boolean isAsyncMode() {
+		return mLogImpl.isAsyncMode();
+	}
+
+	/**
+	 * Write all the pending messages and close the log file
+	 */
+	public static void closeLog() {
+		mLogImpl.closeLog();
+	}
+
 	/**
 	 * Return a reference to the current appender
 	 */
@@ -78,6 +154,43 @@ public class Log {
 		mLogImpl.enableContextLogging(contextLogging);
 	}
 
+	/**
+	 * Select how the error context is cached, one of CONTEXT_SHARED,
+	 * CONTEXT_PER_THREAD, CONTEXT_PER_THREAD_MERGED. The cached context is
+	 * dropped.
+	 */
+	public static void setContextMode(int contextMode) {
+		mLogImpl.setContextMode(contextMode);
+	}
+
+	/**
+	 * Set the number of messages kept in the shared error context. By default
+	 * 1024 messages are kept. Each entry costs about 40 bytes upfront, plus
+	 * its message once cached (up to 1024 chars).
+	 */
+	public static void setContextCacheSize(int cacheSize) {
+		mLogImpl.setContextCacheSize(cacheSize);
+	}
+
+	/**
+	 * Set the number of messages kept for each thread in the per-thread
+	 * context modes. By default 128 messages are kept per thread, for up to
+	 * 64 threads. Each entry costs about 40 bytes upfront, plus its message
+	 * once cached (up to 1024 chars).
+	 */
+	public static void setThreadContextCacheSize(int threadCacheSize) {
+		mLogImpl.setThreadContextCacheSize(threadCacheSize);
+	}
+
+	/**
+	 * Enable/disable logging the caller location ("Class.method(File:line)")
+	 * with every message. Disabled by default, as it needs a stack inspection
+	 * per logged message.
+	 */
+	public static void setIncludeCaller(boolean includeCaller) {
+		mLogImpl.setIncludeCaller(includeCaller);
+	}
+
 	/**
 	 * Allow clients to specify their maximum log level. By default this value
 	 * is set to TRACE.
@@ -132,6 +245,48 @@ public class Log {
 		return mLogImpl.getLogLevel();
 	}
 
+	/**
+	 * Override the log level for a tag and for all the tags it prefixes at a
+	 * '.' boundary: setTagLogLevel("net", DEBUG) enables DEBUG for "net" and
+	 * "net.http" only, unless "net.http" has its own override.
+	 * 
+	 * @param tag
+	 *            the tag or tag prefix
+	 * @param level
+	 *            log level to be set for this tag
+	 */
+	public static void setTagLogLevel(String tag, int level) {
+		mLogImpl.setTagLogLevel(tag, level);
+	}
+
+	/**
+	 * Remove the level override of a tag
+	 * 
+	 * @param tag
+	 *            the tag or tag prefix
+	 */
+	public static void removeTagLogLevel(String tag) {
+		mLogImpl.removeTagLogLevel(tag);
+	}
+
+	/**
+	 * Remove all the tag level overrides
+	 */
+	public static void clearTagLogLevels() {
+		mLogImpl.clearTagLogLevels();
+	}
+
+	/**
+	 * Return the log level that applies to a tag, taking the overrides into
+	 * account
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 */
+	public static int getTagLogLevel(String tag) {
+		return mLogImpl.getTagLogLevel(tag);
+	}
+
 	/**
 	 * ERROR: Error message
 	 * 
@@ -180,6 +335,100 @@ public class Log {
 		mLogImpl.error(tag, msg, e);
 	}
 
+	/**
+	 * ERROR: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument
+	 */
+	public static void error(String tag, String format, Object arg) {
+		if (mLogImpl.isEnabled(ERROR)) {
+			mLogImpl.log(ERROR, tag, format, new Object[] { arg });
+		}
+	}
+
+	/**
+	 * ERROR: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument
+	 * @param arg2
+	 *            the second argument
+	 */
+	public static void error(String tag, String format, Object arg1, Object arg2) {
+		if (mLogImpl.isEnabled(ERROR)) {
+			mLogImpl.log(ERROR, tag, format, new Object[] { arg1, arg2 });
+		}
+	}
+
+	/**
+	 * ERROR: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param args
+	 *            the arguments
+	 */
+	public static void error(String tag, String format, Object... args) {
+		mLogImpl.log(ERROR, tag, format, args);
+	}
+
+	/**
+	 * ERROR: Parameterized message with a primitive argument
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument, ints and longs are not boxed
+	 */
+	public static void error(String tag, String format, long arg) {
+		if (mLogImpl.isEnabled(ERROR)) {
+			mLogImpl.log(ERROR, tag, format, arg);
+		}
+	}
+
+	/**
+	 * ERROR: Parameterized message with primitive arguments
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument, ints and longs are not boxed
+	 * @param arg2
+	 *            the second argument, ints and longs are not boxed
+	 */
+	public static void error(String tag, String format, long arg1, long arg2) {
+		if (mLogImpl.isEnabled(ERROR)) {
+			mLogImpl.log(ERROR, tag, format, arg1, arg2);
+		}
+	}
+
+	/**
+	 * ERROR: Message built only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param supplier
+	 *            builds the message, possibly on the async consumer thread
+	 */
+	public static void error(String tag, MessageSupplier supplier) {
+		mLogImpl.log(ERROR, tag, supplier);
+	}
+
 	/**
 	 * WARN: Information message
 	 * 
@@ -214,6 +463,100 @@ public class Log {
 		mLogImpl.warn(tag, msg);
 	}
 
+	/**
+	 * WARN: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument
+	 */
+	public static void warn(String tag, String format, Object arg) {
+		if (mLogImpl.isEnabled(WARN)) {
+			mLogImpl.log(WARN, tag, format, new Object[] { arg });
+		}
+	}
+
+	/**
+	 * WARN: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument
+	 * @param arg2
+	 *            the second argument
+	 */
+	public static void warn(String tag, String format, Object arg1, Object arg2) {
+		if (mLogImpl.isEnabled(WARN)) {
+			mLogImpl.log(WARN, tag, format, new Object[] { arg1, arg2 });
+		}
+	}
+
+	/**
+	 * WARN: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param args
+	 *            the arguments
+	 */
+	public static void warn(String tag, String format, Object... args) {
+		mLogImpl.log(WARN, tag, format, args);
+	}
+
+	/**
+	 * WARN: Parameterized message with a primitive argument
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument, ints and longs are not boxed
+	 */
+	public static void warn(String tag, String format, long arg) {
+		if (mLogImpl.isEnabled(WARN)) {
+			mLogImpl.log(WARN, tag, format, arg);
+		}
+	}
+
+	/**
+	 * WARN: Parameterized message with primitive arguments
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument, ints and longs are not boxed
+	 * @param arg2
+	 *            the second argument, ints and longs are not boxed
+	 */
+	public static void warn(String tag, String format, long arg1, long arg2) {
+		if (mLogImpl.isEnabled(WARN)) {
+			mLogImpl.log(WARN, tag, format, arg1, arg2);
+		}
+	}
+
+	/**
+	 * WARN: Message built only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param supplier
+	 *            builds the message, possibly on the async consumer thread
+	 */
+	public static void warn(String tag, MessageSupplier supplier) {
+		mLogImpl.log(WARN, tag, supplier);
+	}
+
 	/**
 	 * INFO: Information message
 	 * 
@@ -248,6 +591,100 @@ public class Log {
 		mLogImpl.info(tag, msg);
 	}
 
+	/**
+	 * INFO: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument
+	 */
+	public static void info(String tag, String format, Object arg) {
+		if (mLogImpl.isEnabled(INFO)) {
+			mLogImpl.log(INFO, tag, format, new Object[] { arg });
+		}
+	}
+
+	/**
+	 * INFO: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument
+	 * @param arg2
+	 *            the second argument
+	 */
+	public static void info(String tag, String format, Object arg1, Object arg2) {
+		if (mLogImpl.isEnabled(INFO)) {
+			mLogImpl.log(INFO, tag, format, new Object[] { arg1, arg2 });
+		}
+	}
+
+	/**
+	 * INFO: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param args
+	 *            the arguments
+	 */
+	public static void info(String tag, String format, Object... args) {
+		mLogImpl.log(INFO, tag, format, args);
+	}
+
+	/**
+	 * INFO: Parameterized message with a primitive argument
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument, ints and longs are not boxed
+	 */
+	public static void info(String tag, String format, long arg) {
+		if (mLogImpl.isEnabled(INFO)) {
+			mLogImpl.log(INFO, tag, format, arg);
+		}
+	}
+
+	/**
+	 * INFO: Parameterized message with primitive arguments
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument, ints and longs are not boxed
+	 * @param arg2
+	 *            the second argument, ints and longs are not boxed
+	 */
+	public static void info(String tag, String format, long arg1, long arg2) {
+		if (mLogImpl.isEnabled(INFO)) {
+			mLogImpl.log(INFO, tag, format, arg1, arg2);
+		}
+	}
+
+	/**
+	 * INFO: Message built only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param supplier
+	 *            builds the message, possibly on the async consumer thread
+	 */
+	public static void info(String tag, MessageSupplier supplier) {
+		mLogImpl.log(INFO, tag, supplier);
+	}
+
 	/**
 	 * DEBUG: Debug message
 	 * 
@@ -282,6 +719,100 @@ public class Log {
 		mLogImpl.debug(obj, msg);
 	}
 
+	/**
+	 * DEBUG: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument
+	 */
+	public static void debug(String tag, String format, Object arg) {
+		if (mLogImpl.isEnabled(DEBUG)) {
+			mLogImpl.log(DEBUG, tag, format, new Object[] { arg });
+		}
+	}
+
+	/**
+	 * DEBUG: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument
+	 * @param arg2
+	 *            the second argument
+	 */
+	public static void debug(String tag, String format, Object arg1, Object arg2) {
+		if (mLogImpl.isEnabled(DEBUG)) {
+			mLogImpl.log(DEBUG, tag, format, new Object[] { arg1, arg2 });
+		}
+	}
+
+	/**
+	 * DEBUG: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param args
+	 *            the arguments
+	 */
+	public static void debug(String tag, String format, Object... args) {
+		mLogImpl.log(DEBUG, tag, format, args);
+	}
+
+	/**
+	 * DEBUG: Parameterized message with a primitive argument
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument, ints and longs are not boxed
+	 */
+	public static void debug(String tag, String format, long arg) {
+		if (mLogImpl.isEnabled(DEBUG)) {
+			mLogImpl.log(DEBUG, tag, format, arg);
+		}
+	}
+
+	/**
+	 * DEBUG: Parameterized message with primitive arguments
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument, ints and longs are not boxed
+	 * @param arg2
+	 *            the second argument, ints and longs are not boxed
+	 */
+	public static void debug(String tag, String format, long arg1, long arg2) {
+		if (mLogImpl.isEnabled(DEBUG)) {
+			mLogImpl.log(DEBUG, tag, format, arg1, arg2);
+		}
+	}
+
+	/**
+	 * DEBUG: Message built only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param supplier
+	 *            builds the message, possibly on the async consumer thread
+	 */
+	public static void debug(String tag, MessageSupplier supplier) {
+		mLogImpl.log(DEBUG, tag, supplier);
+	}
+
 	/**
 	 * TRACE: Debugger mode
 	 */
@@ -313,6 +844,100 @@ public class Log {
 		mLogImpl.trace(tag, msg);
 	}
 
+	/**
+	 * TRACE: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument
+	 */
+	public static void trace(String tag, String format, Object arg) {
+		if (mLogImpl.isEnabled(TRACE)) {
+			mLogImpl.log(TRACE, tag, format, new Object[] { arg });
+		}
+	}
+
+	/**
+	 * TRACE: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument
+	 * @param arg2
+	 *            the second argument
+	 */
+	public static void trace(String tag, String format, Object arg1, Object arg2) {
+		if (mLogImpl.isEnabled(TRACE)) {
+			mLogImpl.log(TRACE, tag, format, new Object[] { arg1, arg2 });
+		}
+	}
+
+	/**
+	 * TRACE: Parameterized message, formatted only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param args
+	 *            the arguments
+	 */
+	public static void trace(String tag, String format, Object... args) {
+		mLogImpl.log(TRACE, tag, format, args);
+	}
+
+	/**
+	 * TRACE: Parameterized message with a primitive argument
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg
+	 *            the argument, ints and longs are not boxed
+	 */
+	public static void trace(String tag, String format, long arg) {
+		if (mLogImpl.isEnabled(TRACE)) {
+			mLogImpl.log(TRACE, tag, format, arg);
+		}
+	}
+
+	/**
+	 * TRACE: Parameterized message with primitive arguments
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param format
+	 *            the message pattern, each {} is replaced by an argument
+	 * @param arg1
+	 *            the first argument, ints and longs are not boxed
+	 * @param arg2
+	 *            the second argument, ints and longs are not boxed
+	 */
+	public static void trace(String tag, String format, long arg1, long arg2) {
+		if (mLogImpl.isEnabled(TRACE)) {
+			mLogImpl.log(TRACE, tag, format, arg1, arg2);
+		}
+	}
+
+	/**
+	 * TRACE: Message built only if it is logged
+	 * 
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 * @param supplier
+	 *            builds the message, possibly on the async consumer thread
+	 */
+	public static void trace(String tag, MessageSupplier supplier) {
+		mLogImpl.log(TRACE, tag, supplier);
+	}
+
 	/**
 	 * Dump memory statistics at this point. Dump if level >= DEBUG.
 	 * 
@@ -395,4 +1020,17 @@ public class Log {
 	public static boolean isLoggable(int msgLevel) {
 		return mLogImpl.isLoggable(msgLevel);
 	}
+
+	/**
+	 * Return true if a message with the given tag is currently loggable at the
+	 * given log level, taking the tag overrides into account
+	 * 
+	 * @param msgLevel
+	 *            the log level the msg shall be logged at.
+	 * @param tag
+	 *            the tag characterizing the log message initiator
+	 */
+	public static boolean isLoggable(int msgLevel, String tag) {
+		return mLogImpl.isLoggable(msgLevel, tag);
+	}
 }
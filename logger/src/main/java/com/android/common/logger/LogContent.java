@@ -1,5 +1,17 @@
 package com.android.common.logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPInputStream;
+
 /**
  * Log Container class. Holds the properties of the log appender which belongs 
  * to and the references the log content. This class can be used by all log 
@@ -9,9 +21,31 @@ public class LogContent {
    
     public static final int FILE_CONTENT   = 0;
     public static final int STRING_CONTENT = 1;
+    public static final int STREAM_CONTENT = 2;
+
+    /**
+     * Suffix of the gzip compressed files
+     */
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private int contentType;
     private String content = null;
+
+    /**
+     * Files of a STREAM_CONTENT, oldest first, the offset to read each of
+     * them from and the number of bytes to read, -1 up to the end of the file
+     */
+    private String[] files = null;
+    private long[] offsets = null;
+    private long[] lengths = null;
+
+    /**
+     * The files already opened, see open(), null when the files are opened
+     * by name as the content is read. An opened file is read once.
+     */
+    private FileInputStream[] streams = null;
     
     /**
      * Build a log container specifying the appender information
@@ -21,11 +55,95 @@ public class LogContent {
         this.content = content;
     }
 
+    /**
+     * Build a STREAM_CONTENT made of files read in turn. The files are only
+     * opened when the content is read, missing ones are skipped and ".gz"
+     * ones are decompressed.
+     */
+    LogContent(String[] files, long[] lengths) {
+        this(files, new long[files.length], lengths);
+    }
+
+    /**
+     * Build a STREAM_CONTENT made of parts of files. The offsets of ".gz"
+     * files are offsets in their uncompressed content.
+     */
+    LogContent(String[] files, long[] offsets, long[] lengths) {
+        this.contentType = STREAM_CONTENT;
+        this.files = files;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Return a STREAM_CONTENT of the same parts of the files, opened now. A
+     * later rename or truncation of the files does not change its content,
+     * the plain files being read up to their current size. It can be read
+     * once, close releases the files if it is not read.
+     */
+    LogContent open() throws IOException {
+        FileInputStream[] opened = new FileInputStream[files.length];
+        long[] limits = lengths.clone();
+        try {
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    opened[i] = new FileInputStream(files[i]);
+                } catch (FileNotFoundException e) {
+                    // Missing files are skipped
+                    continue;
+                }
+                if ((limits[i] < 0) && !files[i].endsWith(GZIP_SUFFIX)) {
+                    limits[i] = Math.max(opened[i].getChannel().size() - offsets[i], 0);
+                }
+            }
+        } catch (IOException e) {
+            close(opened);
+            throw e;
+        }
+        LogContent content = new LogContent(files, offsets, limits);
+        content.streams = opened;
+        return content;
+    }
+
+    /**
+     * Release the files of an opened STREAM_CONTENT which were not read
+     */
+    public void close() {
+        if (null != streams) {
+            close(streams);
+        }
+    }
+
+    private static void close(FileInputStream[] streams) {
+        for (int i = 0; i < streams.length; i++) {
+            if (null != streams[i]) {
+                try {
+                    streams[i].close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                streams[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Take the opened stream of a file, null if the content is read by name
+     * or if the file is missing or already read
+     */
+    private FileInputStream take(int index) {
+        FileInputStream fis = streams[index];
+        streams[index] = null;
+        return fis;
+    }
+
     /**
      * @return the content type. Possible values are:
      *  <ul>
      *    <li> FILE_CONTENT if the content is in a file </li>
      *    <li> STRING_CONTENT if the content is inlined </li>
+     *    <li> STREAM_CONTENT if the content is read from the log files by
+     *         openInputStream or transferTo </li>
      *  </ul>
      */             
     public int getContentType() {
@@ -35,9 +153,272 @@ public class LogContent {
     /**
      * @return the log content as a formatted string. Depending on the content
      * type the  value returned may represent a filename or the inlined log
-     * content. This method can return null if the content type is NULL_CONTENT
+     * content. This method returns null if the content type is STREAM_CONTENT
      */
     public String getContent() {
         return content;
     }
+
+    /**
+     * @return a stream reading the log content, whatever the content type.
+     * A STREAM_CONTENT is read across the log files without copying them.
+     */
+    public InputStream openInputStream() throws IOException {
+        switch (contentType) {
+            case FILE_CONTENT:
+                return new FileInputStream(content);
+            case STRING_CONTENT:
+                return new ByteArrayInputStream(getBytes(content));
+            default:
+                return new FilesInputStream(this);
+        }
+    }
+
+    /**
+     * Write the log content to a channel. The plain log files are copied with
+     * FileChannel.transferTo, which lets the system avoid copying the data
+     * through the Java heap.
+     *
+     * @return the number of bytes written
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        switch (contentType) {
+            case FILE_CONTENT:
+                return transferFile(content, 0, -1, target);
+            case STRING_CONTENT:
+                return write(ByteBuffer.wrap(getBytes(content)), target);
+            default:
+                long count = 0;
+                try {
+                    for (int i = 0; i < files.length; i++) {
+                        if (null != streams) {
+                            FileInputStream fis = take(i);
+                            if (null != fis) {
+                                count += transferFile(files[i], fis, offsets[i], lengths[i],
+                                        target);
+                            }
+                        } else {
+                            count += transferFile(files[i], offsets[i], lengths[i], target);
+                        }
+                    }
+                } finally {
+                    // The files left opened when a transfer failed
+                    close();
+                }
+                return count;
+        }
+    }
+
+    private static byte[] getBytes(String content) throws UnsupportedEncodingException {
+        return (null == content) ? new byte[0] : content.getBytes("UTF-8");
+    }
+
+    private static long write(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        long count = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return count;
+    }
+
+    private static long transferFile(String fileUrl, long offset, long length,
+            WritableByteChannel target) throws IOException {
+        File file = new File(fileUrl);
+        if (!file.exists()) {
+            return 0;
+        }
+        return transferFile(fileUrl, new FileInputStream(file), offset, length, target);
+    }
+
+    /**
+     * Write a part of an opened file to a channel, the file is closed
+     */
+    private static long transferFile(String fileUrl, FileInputStream fis, long offset,
+            long length, WritableByteChannel target) throws IOException {
+        if (fileUrl.endsWith(GZIP_SUFFIX)) {
+            InputStream is = openStream(fileUrl, fis, offset, length);
+            try {
+                long count = 0;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = is.read(buffer)) > 0) {
+                    count += write(ByteBuffer.wrap(buffer, 0, read), target);
+                }
+                return count;
+            } finally {
+                is.close();
+            }
+        }
+
+        try {
+            FileChannel channel = fis.getChannel();
+            long end = (length < 0) ? channel.size() : Math.min(offset + length, channel.size());
+            long position = offset;
+            while (position < end) {
+                long count = channel.transferTo(position, end - position, target);
+                if (count <= 0) {
+                    break;
+                }
+                position += count;
+            }
+            return Math.max(position - offset, 0);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Open one file of a STREAM_CONTENT, null if it does not exist
+     */
+    static InputStream openFile(String fileUrl, long offset, long length)
+            throws IOException {
+        File file = new File(fileUrl);
+        if (!file.exists()) {
+            return null;
+        }
+        return openStream(fileUrl, new FileInputStream(file), offset, length);
+    }
+
+    /**
+     * Read a part of an opened file, decompressing the ".gz" files
+     */
+    private static InputStream openStream(String fileUrl, FileInputStream fis, long offset,
+            long length) throws IOException {
+        InputStream is = fis;
+        try {
+            if (fileUrl.endsWith(GZIP_SUFFIX)) {
+                is = new GZIPInputStream(fis, BUFFER_SIZE);
+                skip(is, offset);
+            } else if (offset > 0) {
+                fis.getChannel().position(offset);
+            }
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+        return (length < 0) ? is : new LimitedInputStream(is, length);
+    }
+
+    /**
+     * Skip the first bytes of a compressed stream, which can only be read
+     */
+    private static void skip(InputStream is, long count) throws IOException {
+        while (count > 0) {
+            long skipped = is.skip(count);
+            if (skipped <= 0) {
+                if (is.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Reads at most a number of bytes of a stream
+     */
+    private static class LimitedInputStream extends InputStream {
+        private final InputStream is;
+        private long remaining;
+
+        LimitedInputStream(InputStream is, long length) {
+            this.is = is;
+            this.remaining = length;
+        }
+
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = is.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = is.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        public void close() throws IOException {
+            is.close();
+        }
+    }
+
+    /**
+     * Reads the files of a STREAM_CONTENT one after the other, opening each
+     * file when the previous one is exhausted
+     */
+    private static class FilesInputStream extends InputStream {
+        private final LogContent content;
+        private final String[] files;
+        private final long[] offsets;
+        private final long[] lengths;
+        private int next = 0;
+        private InputStream current = null;
+        private final byte[] single = new byte[1];
+
+        FilesInputStream(LogContent content) {
+            this.content = content;
+            this.files = content.files;
+            this.offsets = content.offsets;
+            this.lengths = content.lengths;
+        }
+
+        /**
+         * Return the stream to read, null at the end of the last file
+         */
+        private InputStream current() throws IOException {
+            while ((null == current) && (next < files.length)) {
+                if (null != content.streams) {
+                    FileInputStream fis = content.take(next);
+                    if (null != fis) {
+                        current = openStream(files[next], fis, offsets[next], lengths[next]);
+                    }
+                } else {
+                    current = openFile(files[next], offsets[next], lengths[next]);
+                }
+                next++;
+            }
+            return current;
+        }
+
+        public int read() throws IOException {
+            return (read(single, 0, 1) > 0) ? (single[0] & 0xff) : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            InputStream is;
+            while ((is = current()) != null) {
+                int read = is.read(b, off, len);
+                if (read > 0) {
+                    return read;
+                }
+                is.close();
+                current = null;
+            }
+            return -1;
+        }
+
+        public void close() throws IOException {
+            if (null != current) {
+                current.close();
+                current = null;
+            }
+            next = files.length;
+            content.close();
+        }
+    }
 }
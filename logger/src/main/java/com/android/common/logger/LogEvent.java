@@ -0,0 +1,342 @@
+package com.android.common.logger;
+
+import java.io.IOException;
+
+/**
+ * One log message on its way to the appenders. Events are mutable and
+ * recycled: LogImpl takes one from a small pool (or from the async ring slot),
+ * fills it, hands it to the appender and then reuses it, so the steady state
+ * log path does not allocate. Appenders must not keep a reference to an event
+ * after writeLogEvent returns.
+ */
+public final class LogEvent {
+
+    /**
+     * Max number of idle events kept in the pool
+     */
+    private static final int MAX_POOL_SIZE = 16;
+
+    /**
+     * Initial capacity of the message buffer
+     */
+    private static final int MESSAGE_CAPACITY = 256;
+
+    /**
+     * Builders of a thread bigger than this are dropped after a long message
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /**
+     * Tag and message builders of the writeLogMessage path, one pair per
+     * logging thread
+     */
+    private static final ThreadLocal<StringBuilder[]> sLegacyBuilders = new ThreadLocal<StringBuilder[]>() {
+        @Override
+        protected StringBuilder[] initialValue() {
+            return new StringBuilder[] { new StringBuilder(64), new StringBuilder(MESSAGE_CAPACITY) };
+        }
+    };
+
+    private static final Object sPoolSync = new Object();
+    private static LogEvent sPool = null;
+    private static int sPoolSize = 0;
+
+    /** Next idle event in the pool */
+    private LogEvent next = null;
+
+    private int level;
+    private String levelName;
+    private String appTag;
+    private String tag;
+    private long timeStamp;
+    private long threadId;
+    private String location;
+    private final StringBuilder message = new StringBuilder(MESSAGE_CAPACITY);
+    private Throwable throwable;
+
+    /**
+     * Prefix of the logging thread, null when the event is filled by another
+     * thread (e.g. the error context lines)
+     */
+    private LinePrefix prefix;
+
+    /**
+     * The message as logged, formatted into the message buffer on first use
+     * so appenders storing the raw arguments never pay for the formatting
+     */
+    private boolean formatted = true;
+    private String format;
+    private Object[] args;
+    private long arg1;
+    private long arg2;
+    private int primitiveArgs;
+    private MessageSupplier supplier;
+
+    /**
+     * Events are obtained through obtain() or owned by the async ring
+     */
+    LogEvent() {
+    }
+
+    /**
+     * Return an event from the pool, or a new one if the pool is empty
+     */
+    static LogEvent obtain() {
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                LogEvent event = sPool;
+                sPool = event.next;
+                event.next = null;
+                sPoolSize--;
+                return event;
+            }
+        }
+        return new LogEvent();
+    }
+
+    /**
+     * Give the event back to the pool. It must not be used afterwards.
+     */
+    void recycle() {
+        clear();
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                next = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
+    /**
+     * Fill the event header, the message buffer is emptied
+     */
+    void set(String appTag, String tag, int level, String levelName, long timeStamp,
+            long threadId, String location, Throwable throwable) {
+        this.appTag = appTag;
+        this.tag = tag;
+        this.level = level;
+        this.levelName = levelName;
+        this.timeStamp = timeStamp;
+        this.threadId = threadId;
+        this.location = location;
+        this.throwable = throwable;
+        this.prefix = (threadId == Thread.currentThread().getId())
+                ? LinePrefix.get(appTag) : null;
+        clearMessage();
+    }
+
+    /**
+     * Set the message as logged, see MessageFormatter.appendMessage. It is
+     * only formatted when an appender asks for the text.
+     */
+    void setMessage(String format, Object[] args, long arg1, long arg2, int primitiveArgs,
+            MessageSupplier supplier) {
+        message.setLength(0);
+        this.format = format;
+        this.args = args;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.primitiveArgs = primitiveArgs;
+        this.supplier = supplier;
+        this.formatted = false;
+    }
+
+    private void clearMessage() {
+        message.setLength(0);
+        format = null;
+        args = null;
+        primitiveArgs = 0;
+        supplier = null;
+        formatted = true;
+    }
+
+    private StringBuilder formatMessage() {
+        if (!formatted) {
+            formatted = true;
+            MessageFormatter.appendMessage(message, format, args, arg1, arg2, primitiveArgs,
+                    supplier);
+        }
+        return message;
+    }
+
+    void clear() {
+        appTag = null;
+        tag = null;
+        levelName = null;
+        location = null;
+        throwable = null;
+        prefix = null;
+        clearMessage();
+    }
+
+    /**
+     * Buffer LogImpl writes the message text into
+     */
+    StringBuilder getMessageBuffer() {
+        return formatMessage();
+    }
+
+    /**
+     * Return true if the message is a format with arguments still to be
+     * applied, see getFormat and getArguments
+     */
+    boolean hasArguments() {
+        return !formatted && (supplier == null) && ((args != null) || (primitiveArgs > 0));
+    }
+
+    /**
+     * Return the format of a message with arguments
+     */
+    String getFormat() {
+        return format;
+    }
+
+    /**
+     * Return the arguments of a message with arguments, primitive ones boxed
+     */
+    Object[] getArguments() {
+        if (args != null) {
+            return args;
+        } else if (primitiveArgs == 1) {
+            return new Object[] { Long.valueOf(arg1) };
+        } else {
+            return new Object[] { Long.valueOf(arg1), Long.valueOf(arg2) };
+        }
+    }
+
+    /**
+     * Return the number of primitive arguments, which are read with
+     * getPrimitiveArg without boxing
+     */
+    int getPrimitiveArgCount() {
+        return (args != null) ? 0 : primitiveArgs;
+    }
+
+    long getPrimitiveArg(int index) {
+        return (index == 0) ? arg1 : arg2;
+    }
+
+    /**
+     * Return the log level, one of the Log level constants
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Return the level name as written in the log, e.g. "DEBUG"
+     */
+    public String getLevelName() {
+        return levelName;
+    }
+
+    /**
+     * Return the application tag
+     */
+    public String getAppTag() {
+        return appTag;
+    }
+
+    /**
+     * Return the tag characterizing the log message initiator
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Return the time the message was logged, in milliseconds since the epoch
+     */
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * Return the id of the thread that logged the message
+     */
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * Return the "Class.method(File:line)" location of the caller, or null
+     * unless the caller location is included in the log
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Return the message text. The returned sequence is reused, call
+     * toString() to keep it.
+     */
+    public CharSequence getMessage() {
+        return formatMessage();
+    }
+
+    /**
+     * Return the exception logged with the message, or null
+     */
+    public Throwable getThrowable() {
+        return throwable;
+    }
+
+    /**
+     * Append "[appTag][tag]", the tag layout of the text appenders
+     */
+    public void appendParamTag(StringBuilder sb) {
+        if (prefix != null) {
+            sb.append(prefix.tagPrefix);
+        } else {
+            sb.append('[').append(appTag).append("][");
+        }
+        sb.append(tag).append(']');
+    }
+
+    /**
+     * Append the "[Pid:x][Tid:y] " prefix (with the caller location if any),
+     * the message and the stack trace of the throwable if any, the message
+     * layout of the text appenders
+     */
+    public void appendMessage(StringBuilder sb) {
+        if (prefix != null) {
+            sb.append(prefix.idPrefix);
+        } else {
+            sb.append("[Pid:").append(android.os.Process.myPid())
+              .append("][Tid:").append(threadId);
+        }
+        if (location != null) {
+            sb.append("][").append(location);
+        }
+        sb.append("] ").append(formatMessage());
+        if (throwable != null) {
+            sb.append('\n').append(StackTracePrinter.getStackTrace(throwable));
+        }
+    }
+
+    /**
+     * Write the event to any appender, going through the three Strings
+     * writeLogMessage for appenders that do not implement EventAppender
+     */
+    static void writeTo(Appender appender, LogEvent event) throws IOException {
+        if (appender instanceof EventAppender) {
+            ((EventAppender) appender).writeLogEvent(event);
+        } else {
+            StringBuilder[] builders = sLegacyBuilders.get();
+            StringBuilder paramTag = builders[0];
+            StringBuilder msg = builders[1];
+            paramTag.setLength(0);
+            msg.setLength(0);
+            event.appendParamTag(paramTag);
+            event.appendMessage(msg);
+            try {
+                appender.writeLogMessage(paramTag.toString(), event.levelName, msg.toString());
+            } finally {
+                if (msg.capacity() > MAX_RETAINED_CAPACITY) {
+                    builders[1] = new StringBuilder(MESSAGE_CAPACITY);
+                }
+            }
+        }
+    }
+}
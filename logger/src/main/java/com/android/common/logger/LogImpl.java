@@ -1,9 +1,12 @@
 package com.android.common.logger;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.io.IOException;
 
 /**
@@ -54,7 +57,14 @@ public class LogImpl {
     /**
      * The default log level is INFO
      */
-    private  int level = INFO;
+    private  volatile int level = INFO;
+
+    /**
+     * Most verbose level that can produce any output, either written or cached
+     * for the error context. Recomputed whenever level, contextLogging or
+     * clientMaxLogLevel change, so a filtered call costs a single compare.
+     */
+    private  volatile int gateLevel = INFO;
     
     /**
      * Last time stamp used to dump profiling information
@@ -72,41 +82,78 @@ public class LogImpl {
     private  int cacheSize = CACHE_SIZE;
 
     /**
-     * Log cache
+     * Default per-thread log cache size, smaller than CACHE_SIZE as up to
+     * ThreadContextBuffers.MAX_THREADS of them are kept
+     */
+    private  final int THREAD_CACHE_SIZE = 128;
+
+    /**
+     * This is the per-thread log cache size (by default this is
+     * THREAD_CACHE_SIZE)
+     */
+    private  int threadCacheSize = THREAD_CACHE_SIZE;
+
+    /**
+     * Max time closeLog waits for the pending error context dumps
+     */
+    private  final long CONTEXT_DUMP_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Log cache, a ring of the last cacheSize messages
      */
-	private  Vector<String> cache = null;
+    private  volatile ContextBuffer contextBuffer = null;
 
     /**
-     * Tail pointer in the log cache
+     * Per-thread log caches, each a ring of the last threadCacheSize messages
+     * of its thread. Null unless the context mode is a per-thread one.
      */
-    private  int next = 0;
+    private  volatile ThreadContextBuffers threadBuffers = null;
 
     /**
-     * Head pointer in the log cache
+     * How the error context is cached, one of Log.CONTEXT_SHARED,
+     * Log.CONTEXT_PER_THREAD, Log.CONTEXT_PER_THREAD_MERGED
      */
-    private  int first = 0;
+    private  int contextMode = Log.CONTEXT_SHARED;
+
+    /**
+     * Thread writing the error context dumps, created on the first one
+     */
+    private  ExecutorService contextDumper = null;
 
     /**
      * Controls the context logging feature
      */
-    private  boolean contextLogging = false;
+    private  volatile boolean contextLogging = false;
 
     /**
      * The client max supported log level. This is only needed for more accurate context
      * logging behavior and the client filters log statements.
      */
-    private  int clientMaxLogLevel = TRACE;
+    private  volatile int clientMaxLogLevel = TRACE;
 
     private  boolean lockedLogLevel;
 
+    /**
+     * Ring buffer dispatcher, null unless the asynchronous mode is enabled
+     */
+    private volatile AsyncDispatcher dispatcher = null;
+
+    /**
+     * Per-tag level overrides, null when there is none
+     */
+    private  volatile TagLevels tagLevels = null;
+
+    /**
+     * Controls whether the caller location is resolved and logged with each
+     * message
+     */
+    private  volatile boolean includeCaller = false;
+
     /**
      *  Application TAG
      */
     public static String mAppTag = "smartLogger";
     
-    private SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS",
-    		Locale.getDefault());
-    
     //------------------------------------------------------------- Constructors
     /**
      * This class is  and cannot be intantiated
@@ -123,19 +170,26 @@ public class LogImpl {
      * @param object the appender object that write log file
      * @param level the log level
      */
-	public synchronized  void initLog(String appTAG, Appender object, int level){
-        mAppTag = appTAG;
-        out = object;
-        out.initLogFile();
-        // Init the caching part
-        cache = new Vector<String>(cacheSize);
-        first = 0;
-        next  = 0;
-        contextLogging = false;
-        lockedLogLevel = false;
-        setLogLevel(level);
+	public void initLog(String appTAG, Appender object, int level){
+        // Messages still in the ring belong to the previous appender
+        AsyncDispatcher d = dispatcher;
+        if (d != null) {
+            d.drain();
+        }
+
+        synchronized (this) {
+            mAppTag = appTAG;
+            out = object;
+            out.initLogFile();
+            // Init the caching part
+            resetContextBuffers();
+            contextLogging = false;
+            lockedLogLevel = false;
+            setLogLevel(level);
+            updateGateLevel();
+        }
         if (level > Log.DISABLED) {
-            writeLogMessage(getCaller(new Throwable()), level, getLevelMsg(level), "init logger >>>>>>>>>");
+            writeLogMessage(CallerResolver.getCallerClassName(), level, getLevelMsg(level), "init logger >>>>>>>>>");
         }
     }
     
@@ -159,14 +213,73 @@ public class LogImpl {
     	return levelMsg;
     }
     
-    private  String getCaller(Throwable e) {
-    	StackTraceElement[] element = e.getStackTrace();
-    	
-    	if (element.length > 1) {
-    		return e.getStackTrace()[1].getClassName();
-    	} else {
-    		return "Unknown Caller";
-    	}
+    /**
+     * Switch to the asynchronous mode: log calls only publish the message into
+     * a bounded ring buffer and a single consumer thread writes them to the
+     * appender. Calling this again replaces the current ring after draining it.
+     * @param capacity the ring capacity, rounded up to a power of two
+     * @param waitStrategy how the consumer waits for messages, one of
+     * Log.ASYNC_WAIT_BLOCKING, Log.ASYNC_WAIT_SLEEPING, Log.ASYNC_WAIT_YIELDING
+     */
+    public void enableAsyncMode(int capacity, int waitStrategy) {
+        AsyncDispatcher newDispatcher = new AsyncDispatcher(this, capacity, waitStrategy);
+        // The old ring is emptied before the new one takes messages, so the
+        // messages of a thread keep their order
+        disableAsyncMode();
+        AsyncDispatcher oldDispatcher;
+        synchronized (this) {
+            oldDispatcher = dispatcher;
+            dispatcher = newDispatcher;
+            newDispatcher.start();
+        }
+        if (oldDispatcher != null) {
+            oldDispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Go back to the synchronous mode once all the pending messages have been
+     * written
+     */
+    public void disableAsyncMode() {
+        AsyncDispatcher oldDispatcher;
+        synchronized (this) {
+            oldDispatcher = dispatcher;
+        }
+        if (oldDispatcher == null) {
+            return;
+        }
+        // Shut down before dropping the ring: until then a thread whose
+        // earlier messages are still queued gets them written first
+        oldDispatcher.shutdown();
+        synchronized (this) {
+            if (dispatcher == oldDispatcher) {
+                dispatcher = null;
+            }
+        }
+    }
+
+    /**
+     * Return true if the asynchronous mode is enabled
+     */
+    public boolean isAsyncMode() {
+        return dispatcher != null;
+    }
+
+    /**
+     * Write all the pending messages and close the appender log file
+     */
+    public void closeLog() {
+        AsyncDispatcher d = dispatcher;
+        if (d != null) {
+            d.drain();
+        }
+        waitContextDumps();
+        synchronized (this) {
+            if (out != null) {
+                out.closeLogFile();
+            }
+        }
     }
 
     /**
@@ -180,16 +293,83 @@ public class LogImpl {
      * Enabled/disable the context logging feature. When this feature is on, any
      * call to Log.error will trigger the dump of the error context.
      */
-    public void enableContextLogging(boolean contextLogging) {
+    public synchronized void enableContextLogging(boolean contextLogging) {
         this.contextLogging = contextLogging;
+        updateGateLevel();
+    }
+
+    /**
+     * Enable/disable the caller location ("Class.method(File:line)") in every
+     * message. The location is resolved only for messages passing the level
+     * check, and cached per call site.
+     */
+    public  void setIncludeCaller(boolean includeCaller) {
+        this.includeCaller = includeCaller;
+    }
+
+    /**
+     * Return true if the caller location is logged with each message
+     */
+    public  boolean isIncludeCaller() {
+        return includeCaller;
+    }
+
+    /**
+     * Select how the error context is cached: one buffer shared by all the
+     * threads (Log.CONTEXT_SHARED, the default), one buffer per thread dumping
+     * the history of the thread that logged the ERROR (Log.CONTEXT_PER_THREAD),
+     * or one buffer per thread dumping that history followed by a time ordered
+     * merge of the other threads (Log.CONTEXT_PER_THREAD_MERGED). The cached
+     * context is dropped.
+     */
+    public  synchronized void setContextMode(int contextMode) {
+        this.contextMode = contextMode;
+        resetContextBuffers();
+    }
+
+    /**
+     * Set the number of messages kept in the shared error context. Each entry
+     * costs about 40 bytes upfront, plus its message slot once used (up to
+     * ContextBuffer.MAX_MESSAGE_LENGTH chars). The cached context is dropped.
+     */
+    public  synchronized void setContextCacheSize(int cacheSize) {
+        if (cacheSize > 0) {
+            this.cacheSize = cacheSize;
+            resetContextBuffers();
+        }
+    }
+
+    /**
+     * Set the number of messages kept for each thread in the per-thread
+     * context modes. Up to ThreadContextBuffers.MAX_THREADS buffers are kept,
+     * each costing about 40 bytes per entry upfront plus its message slots
+     * once used (up to ContextBuffer.MAX_MESSAGE_LENGTH chars each). The
+     * cached context is dropped.
+     */
+    public  synchronized void setThreadContextCacheSize(int threadCacheSize) {
+        if (threadCacheSize > 0) {
+            this.threadCacheSize = threadCacheSize;
+            resetContextBuffers();
+        }
+    }
+
+    private  synchronized void resetContextBuffers() {
+        if (contextMode == Log.CONTEXT_SHARED) {
+            threadBuffers = null;
+            contextBuffer = new ContextBuffer(cacheSize);
+        } else {
+            contextBuffer = null;
+            threadBuffers = new ThreadContextBuffers(threadCacheSize);
+        }
     }
 
     /**
      * Allow clients to specify their maximum log level. By default this value
      * is set to TRACE.
      */
-    public  void setClientMaxLogLevel(int clientMaxLogLevel) {
+    public  synchronized void setClientMaxLogLevel(int clientMaxLogLevel) {
         this.clientMaxLogLevel = clientMaxLogLevel;
+        updateGateLevel();
     }
     
     /**
@@ -205,10 +385,11 @@ public class LogImpl {
      * the method will be ignorated in Log level is locked
      * @param newlevel log level to be set
      */
-    public  void setLogLevel(int newlevel) {
+    public  synchronized void setLogLevel(int newlevel) {
         if(!lockedLogLevel){
         	System.out.println("[level:" + level + "] >> [newlevel:" + newlevel + "] set log level.");
             level = newlevel;
+            updateGateLevel();
             if (out != null) {
                 out.setLogLevel(level);
             }
@@ -219,9 +400,10 @@ public class LogImpl {
      * Accessor method to lock defined log level
      * @param levelToLock log level to be lock
      */
-    public  void lockLogLevel(int levelToLock) {
+    public  synchronized void lockLogLevel(int levelToLock) {
         level = levelToLock;
         lockedLogLevel = true;
+        updateGateLevel();
         if (out != null) {
             out.setLogLevel(level);
         }
@@ -243,12 +425,62 @@ public class LogImpl {
     public  int getLogLevel() {
         return level;
     }
+
+    /**
+     * Override the log level for a tag and for all the tags it prefixes at a
+     * '.' boundary: "net" also applies to "net.http" unless "net.http" has its
+     * own override. The global level applies to the other tags.
+     * @param tag the tag or tag prefix
+     * @param tagLevel log level to be set for this tag
+     */
+    public  synchronized void setTagLogLevel(String tag, int tagLevel) {
+        HashMap<String, Integer> overrides = (tagLevels != null)
+                ? tagLevels.getOverrides() : new HashMap<String, Integer>();
+        overrides.put(tag, Integer.valueOf(tagLevel));
+        tagLevels = new TagLevels(overrides);
+        updateGateLevel();
+    }
+
+    /**
+     * Remove the level override of a tag, the tag then follows its prefixes
+     * or the global level again
+     * @param tag the tag or tag prefix
+     */
+    public  synchronized void removeTagLogLevel(String tag) {
+        if (tagLevels == null) {
+            return;
+        }
+        HashMap<String, Integer> overrides = tagLevels.getOverrides();
+        overrides.remove(tag);
+        tagLevels = overrides.isEmpty() ? null : new TagLevels(overrides);
+        updateGateLevel();
+    }
+
+    /**
+     * Remove all the tag level overrides
+     */
+    public  synchronized void clearTagLogLevels() {
+        tagLevels = null;
+        updateGateLevel();
+    }
+
+    /**
+     * Return the log level that applies to a tag, taking the overrides into
+     * account
+     * @param tag the tag characterizing the log message initiator
+     */
+    public  int getTagLogLevel(String tag) {
+        return getTagLevel(tag);
+    }
     
     /**
      * ERROR: Error message
      * @param msg the message to be logged
      */
     public  void error(String msg) {
+        if (ERROR > gateLevel) {
+            return;
+        }
         writeLogMessage("", ERROR, "ERROR", msg);
     }
     
@@ -258,6 +490,9 @@ public class LogImpl {
      * @param obj the object that send error message
      */
     public  void error(Object obj, String msg) {
+        if (ERROR > gateLevel) {
+            return;
+        }
         writeLogMessage(obj.getClass().getName(), ERROR, "ERROR", msg);
     }
 
@@ -267,6 +502,9 @@ public class LogImpl {
      * @param tag the tag characterizing the log message initiator
      */
     public  void error(String tag, String msg) {
+        if (ERROR > gateLevel) {
+            return;
+        }
         writeLogMessage(tag, ERROR, "ERROR", msg);
     }
 
@@ -277,9 +515,10 @@ public class LogImpl {
      * @param e the exception that caused the error
      */
     public  void error(String tag, String msg, Throwable e) {
-    	StringBuffer sb = new StringBuffer();
-    	sb.append(msg).append("\n").append(StackTracePrinter.getStackTrace(e));
-        writeLogMessage(tag, ERROR, "ERROR", sb.toString());
+        if (ERROR > gateLevel) {
+            return;
+        }
+        writeLogMessage(tag, ERROR, "ERROR", msg, e, null, 0, 0, 0, null);
     }
     
     // modified by zhangheng 20140318
@@ -288,6 +527,9 @@ public class LogImpl {
      * @param msg the message to be logged
      */
     public  void warn(String msg) {
+        if (WARN > gateLevel) {
+            return;
+        }
         writeLogMessage("", WARN, "WARN", msg);
     }
     
@@ -297,6 +539,9 @@ public class LogImpl {
      * @param obj the object that send log message
      */
     public  void warn(Object obj, String msg) {
+        if (WARN > gateLevel) {
+            return;
+        }
         writeLogMessage(obj.getClass().getName(), WARN, "WARN", msg.toString());
     }
 
@@ -306,6 +551,9 @@ public class LogImpl {
      * @param tag the tag characterizing the log message initiator
      */
     public  void warn(String tag, String msg) {
+        if (WARN > gateLevel) {
+            return;
+        }
         writeLogMessage(tag, WARN, "WARN", msg.toString());
     }
 
@@ -315,6 +563,9 @@ public class LogImpl {
      * @param msg the message to be logged
      */
     public  void info(String msg) {
+        if (INFO > gateLevel) {
+            return;
+        }
         writeLogMessage("", INFO, "INFO", msg);
     }
     
@@ -324,6 +575,9 @@ public class LogImpl {
      * @param obj the object that send log message
      */
     public  void info(Object obj, String msg) {
+        if (INFO > gateLevel) {
+            return;
+        }
         writeLogMessage(obj.getClass().getName(), INFO, "INFO", msg.toString());
     }
 
@@ -333,6 +587,9 @@ public class LogImpl {
      * @param tag the tag characterizing the log message initiator
      */
     public  void info(String tag, String msg) {
+        if (INFO > gateLevel) {
+            return;
+        }
         writeLogMessage(tag, INFO, "INFO", msg.toString());
     }
 
@@ -341,6 +598,9 @@ public class LogImpl {
      * @param msg the message to be logged
      */
     public  void debug(String msg) {
+        if (DEBUG > gateLevel) {
+            return;
+        }
         writeLogMessage("", DEBUG, "DEBUG", msg);
     }
     
@@ -350,6 +610,9 @@ public class LogImpl {
      * @param tag the tag characterizing the log message initiator
      */
     public  void debug(String tag, String msg) {
+        if (DEBUG > gateLevel) {
+            return;
+        }
         writeLogMessage(tag, DEBUG, "DEBUG", msg.toString());
     }
 
@@ -359,6 +622,9 @@ public class LogImpl {
      * @param obj the object that send log message
      */
     public  void debug(Object obj, String msg) {
+        if (DEBUG > gateLevel) {
+            return;
+        }
         writeLogMessage(obj.getClass().getName(), DEBUG, "DEBUG", msg.toString());
     }
 
@@ -366,6 +632,9 @@ public class LogImpl {
      * TRACE: Debugger mode
      */
     public  void trace(String msg) {
+        if (TRACE > gateLevel) {
+            return;
+        }
         writeLogMessage(msg, TRACE, "TRACE", msg);
     }
     
@@ -375,6 +644,9 @@ public class LogImpl {
      * @param obj the object that send log message
      */
     public  void trace(Object obj, String msg) {
+        if (TRACE > gateLevel) {
+            return;
+        }
         writeLogMessage(obj.getClass().getName(), TRACE, "TRACE", msg);
     }
 
@@ -384,6 +656,9 @@ public class LogImpl {
      * @param tag the tag characterizing the log message initiator
      */
     public  void trace(String tag, String msg) {
+        if (TRACE > gateLevel) {
+            return;
+        }
         writeLogMessage(tag, TRACE, "TRACE", msg);
     }
 
@@ -483,6 +758,33 @@ public class LogImpl {
         return out.getLogContent();
     }
 
+    /**
+     * Recompute the level snapshot checked before doing any work for a message.
+     * Messages above the current level still matter when the context logging
+     * is active, as they are cached and dumped on error. Synchronized with its
+     * callers, so concurrent setters cannot leave a stale snapshot.
+     */
+    private  synchronized void updateGateLevel() {
+        int gate = level;
+        if (contextLogging && (gate < clientMaxLogLevel)) {
+            gate = clientMaxLogLevel;
+        }
+        TagLevels t = tagLevels;
+        if ((t != null) && (gate < t.getMaxLevel())) {
+            gate = t.getMaxLevel();
+        }
+        gateLevel = gate;
+    }
+
+    /**
+     * Return the level that applies to a tag: its own override, else the
+     * override of its longest '.' separated prefix, else the global level
+     */
+    private  int getTagLevel(String tag) {
+        TagLevels t = tagLevels;
+        return (t == null) ? level : t.getLevel(tag, level);
+    }
+
     /**
      * Return true if a message is currently loggable at the given log level
      *
@@ -491,100 +793,349 @@ public class LogImpl {
     public  boolean isLoggable(int msgLevel) {
         return msgLevel <= level;
     }
-    
-    private  synchronized void writeLogMessage(String tag, int msgLevel, String levelMsg, String msg) {
+
+    /**
+     * Return true if a message with the given tag is currently loggable at
+     * the given log level, taking the tag overrides into account
+     *
+     * @param msgLevel the log level the msg shall be logged at.
+     * @param tag the tag characterizing the log message initiator
+     */
+    public  boolean isLoggable(int msgLevel, String tag) {
+        return (msgLevel <= gateLevel) && (msgLevel <= getTagLevel(tag));
+    }
+
+    /**
+     * Return true if a message at the given log level has to be built, either
+     * to be written or to be cached for the error context
+     *
+     * @param msgLevel the log level the msg shall be logged at.
+     */
+    public  boolean isEnabled(int msgLevel) {
+        return msgLevel <= gateLevel;
+    }
+
+    /**
+     * Log a parameterized message. The pattern is formatted only if the
+     * message passes the level check, on the consumer thread in async mode.
+     * @param msgLevel the log level
+     * @param tag the tag characterizing the log message initiator
+     * @param format the message pattern, each {} is replaced by an argument
+     * @param args the pattern arguments
+     */
+    public  void log(int msgLevel, String tag, String format, Object[] args) {
+        if (msgLevel > gateLevel) {
+            return;
+        }
+        writeLogMessage(tag, msgLevel, getLevelMsg(msgLevel), format, null, args, 0, 0, 0, null);
+    }
+
+    /**
+     * Log a parameterized message with one primitive argument, never boxed
+     * @param msgLevel the log level
+     * @param tag the tag characterizing the log message initiator
+     * @param format the message pattern, {} is replaced by the argument
+     * @param arg the pattern argument
+     */
+    public  void log(int msgLevel, String tag, String format, long arg) {
+        if (msgLevel > gateLevel) {
+            return;
+        }
+        writeLogMessage(tag, msgLevel, getLevelMsg(msgLevel), format, null, null, arg, 0, 1, null);
+    }
+
+    /**
+     * Log a parameterized message with two primitive arguments, never boxed
+     * @param msgLevel the log level
+     * @param tag the tag characterizing the log message initiator
+     * @param format the message pattern, each {} is replaced by an argument
+     * @param arg1 the first pattern argument
+     * @param arg2 the second pattern argument
+     */
+    public  void log(int msgLevel, String tag, String format, long arg1, long arg2) {
+        if (msgLevel > gateLevel) {
+            return;
+        }
+        writeLogMessage(tag, msgLevel, getLevelMsg(msgLevel), format, null, null, arg1, arg2, 2,
+                null);
+    }
+
+    /**
+     * Log a message built by the supplier, which is only called if the message
+     * passes the level check
+     * @param msgLevel the log level
+     * @param tag the tag characterizing the log message initiator
+     * @param supplier builds the message
+     */
+    public  void log(int msgLevel, String tag, MessageSupplier supplier) {
+        if (msgLevel > gateLevel) {
+            return;
+        }
+        writeLogMessage(tag, msgLevel, getLevelMsg(msgLevel), null, null, null, 0, 0, 0, supplier);
+    }
+
+    private  void writeLogMessage(String tag, int msgLevel, String levelMsg, String msg) {
+        writeLogMessage(tag, msgLevel, levelMsg, msg, null, null, 0, 0, 0, null);
+    }
+
+    /**
+     * Publish the message to the async ring, or fill a pooled event and write
+     * it right away. The message text is only built when an appender needs it,
+     * once the message passed the level check.
+     */
+    private  void writeLogMessage(String tag, int msgLevel, String levelMsg, String msg,
+            Throwable throwable, Object[] args, long arg1, long arg2, int primitiveArgs,
+            MessageSupplier supplier) {
+        // Past the gate, only the tag overrides can still filter the message
+        // out. With the context logging on it has to be cached anyway.
+        if ((tagLevels != null) && !contextLogging && (msgLevel > getTagLevel(tag))) {
+            return;
+        }
+
+        // The stack can only be inspected on the calling thread
+        String location = includeCaller ? CallerResolver.getCallerLocation() : null;
+        AsyncDispatcher d = dispatcher;
+        if ((d != null) && d.publish(mAppTag, tag, msgLevel, levelMsg, msg, location, throwable,
+                args, arg1, arg2, primitiveArgs, supplier)) {
+            return;
+        }
+
+        LogEvent event = LogEvent.obtain();
+        try {
+            event.set(mAppTag, tag, msgLevel, levelMsg, System.currentTimeMillis(),
+                    Thread.currentThread().getId(), location, throwable);
+            event.setMessage(msg, args, arg1, arg2, primitiveArgs, supplier);
+            writeLogEvent(event);
+        } finally {
+            event.recycle();
+        }
+    }
+
+    /**
+     * Called by the AsyncDispatcher consumer thread for each published message
+     */
+    void dispatchAsync(LogEvent event) {
+        writeLogEvent(event);
+    }
+
+    private  void writeLogEvent(LogEvent event) {
         if (contextLogging) {
             try {
-                cacheMessage(msgLevel, levelMsg, msg);
+                cacheMessage(event);
             } catch (Exception e) {
                 // Cannot cache log message, just ignore the error
             }
         }
 
-        try {
-            writeLogMessageNoCache(tag, msgLevel, levelMsg, msg);
-        } catch (Exception e) {
-            // Cannot write log message, just ignore the error
+        synchronized (this) {
+            try {
+                writeLogEventNoCache(event);
+            } catch (Exception e) {
+                // Cannot write log message, just ignore the error
+            }
         }
     }
 
-    private  void writeLogMessageNoCache(String tag, int msgLevel, String levelMsg, String msg) {
-        if (level >= msgLevel) {
+    private  void writeLogEventNoCache(LogEvent event) {
+        if (getTagLevel(event.getTag()) >= event.getLevel()) {
             try {
                 if (out != null) {
-                    out.writeLogMessage("[" + mAppTag + "][" + tag + "]", levelMsg,  "[Pid:" + android.os.Process.myPid() + "][Tid:" + Thread.currentThread().getId() + "] " + msg);
+                    LogEvent.writeTo(out, event);
                 } else {
-                    System.out.print(getNow());
-                    System.out.print("["+ mAppTag + "] [" + tag + "][" + levelMsg + "]");
-                    System.out.print("[Pid:" + android.os.Process.myPid() + "]");
-                    System.out.print("[Tid:" + Thread.currentThread().getId() + "]");
-                    System.out.println(msg);
+                    StringBuilder sb = new StringBuilder(event.getMessage().length() + 64);
+                    TimeFormatter.append(sb, event.getTimeStamp());
+                    sb.append('[').append(event.getAppTag()).append("] [")
+                      .append(event.getTag()).append("][")
+                      .append(event.getLevelName()).append(']');
+                    event.appendMessage(sb);
+                    System.out.println(sb);
                 }
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
         }
     }
-    
-    private  String getNow() {
-    	try {
-            return formatter.format(new Date());
-    	} catch (Exception e) {
-    		return "unknown";
-    	}
-    }
-
-    private  void cacheMessage(int msgLevel, String levelMsg, String msg) throws IOException {
 
+    /**
+     * Write one line of the error context
+     */
+    private  void writeContextLine(String appTag, String tag, String levelMsg, long timeStamp,
+            long threadId, CharSequence msg) {
+        LogEvent event = LogEvent.obtain();
+        try {
+            event.set(appTag, tag, ERROR, levelMsg, timeStamp, threadId, null, null);
+            event.getMessageBuffer().append(msg);
+            writeLogEventNoCache(event);
+        } finally {
+            event.recycle();
+        }
+    }
+    
+    private  void cacheMessage(LogEvent event) {
         // If we are already dumping at DEBUG, then the context is already
         // available
-        if (cache == null || level >= clientMaxLogLevel) {
+        if (level >= clientMaxLogLevel) {
+            return;
+        }
+
+        ThreadContextBuffers perThread = threadBuffers;
+        if (perThread != null) {
+            if (event.getLevel() == ERROR) {
+                ContextBuffer own = perThread.get(event.getThreadId(), false);
+                List<ContextBuffer> others = null;
+                if (contextMode == Log.CONTEXT_PER_THREAD_MERGED) {
+                    others = perThread.getAll();
+                    others.remove(own);
+                }
+                dumpAndFlushCache(own, others, event);
+            } else {
+                perThread.capture(event);
+            }
             return;
         }
 
-        if (msgLevel == ERROR) {
-            dumpAndFlushCache();
+        ContextBuffer buffer = contextBuffer;
+        if (buffer == null) {
+            return;
+        }
+        if (event.getLevel() == ERROR) {
+            dumpAndFlushCache(buffer, null, event);
         } else {
+            buffer.capture(event);
+        }
+    }
 
-            // Store at next
-            if (next >= cache.size()) {
-                cache.addElement(msg);
-            } else {
-                cache.setElementAt(msg, next);
+    /**
+     * Hand the context that led to an ERROR over to the dump thread, so the
+     * thread that logged the ERROR does not wait for the context to be written
+     * @param buffer the context of the ERROR, may be null
+     * @param others buffers dumped afterwards as one time ordered merge, may be
+     * null
+     */
+    private  void dumpAndFlushCache(ContextBuffer buffer, List<ContextBuffer> others,
+            LogEvent error) {
+        final List<ContextBuffer> buffers = new ArrayList<ContextBuffer>();
+        final List<ContextBuffer.Segment> segments = new ArrayList<ContextBuffer.Segment>();
+        final int ownCount = detach(buffer, buffers, segments);
+        if (others != null) {
+            for (int i = 0; i < others.size(); i++) {
+                detach(others.get(i), buffers, segments);
             }
-            // Move next
-            next++;
-            if (next == cacheSize) {
-                next = 0;
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+        final String appTag = error.getAppTag();
+        final long timeStamp = error.getTimeStamp();
+        final long threadId = error.getThreadId();
+
+        getContextDumper().execute(new Runnable() {
+            public void run() {
+                try {
+                    synchronized (LogImpl.this) {
+                        if (ownCount > 0) {
+                            writeContext(segments.subList(0, ownCount), appTag, timeStamp,
+                                    threadId);
+                        }
+                        if (segments.size() > ownCount) {
+                            writeContext(segments.subList(ownCount, segments.size()), appTag,
+                                    timeStamp, threadId);
+                        }
+                    }
+                } catch (Exception e) {
+                    // Cannot write the context, just ignore the error
+                } finally {
+                    for (int i = 0; i < segments.size(); i++) {
+                        buffers.get(i).release(segments.get(i));
+                    }
+                }
             }
+        });
+    }
+
+    /**
+     * Detach the content of a buffer into the dump lists
+     * @return the number of segments added
+     */
+    private  int detach(ContextBuffer buffer, List<ContextBuffer> buffers,
+            List<ContextBuffer.Segment> segments) {
+        ContextBuffer.Segment segment = (buffer != null) ? buffer.detach() : null;
+        if (segment == null) {
+            return 0;
+        }
+        buffers.add(buffer);
+        segments.add(segment);
+        return 1;
+    }
 
-            if (next == first) {
-                // Make room for the next entry
-                first++;
+    /**
+     * Write detached contexts merged in time order, each entry with its own
+     * time, tag and level. Must be called holding the LogImpl monitor.
+     */
+    private  void writeContext(List<ContextBuffer.Segment> segments, String appTag,
+            long timeStamp, long threadId) {
+        writeContextLine(appTag, "", "[Error Context]", timeStamp, threadId,
+                "==================================================");
+        int[] positions = new int[segments.size()];
+        while (true) {
+            // Pick the oldest pending entry, segments are few
+            int oldest = -1;
+            long oldestTime = Long.MAX_VALUE;
+            for (int s = 0; s < positions.length; s++) {
+                ContextBuffer.Segment segment = segments.get(s);
+                if (positions[s] < segment.count) {
+                    long time = segment.timeStamps[segment.index(positions[s])];
+                    if ((oldest < 0) || (time < oldestTime)) {
+                        oldest = s;
+                        oldestTime = time;
+                    }
+                }
             }
-            if (first == cacheSize) {
-                first = 0;
+            if (oldest < 0) {
+                break;
             }
+            ContextBuffer.Segment segment = segments.get(oldest);
+            int index = segment.index(positions[oldest]++);
+            writeContextLine(appTag, segment.tags[index],
+                    "[Error Context][" + segment.levelNames[index] + "]",
+                    segment.timeStamps[index], segment.threadIds[index],
+                    segment.messages[index]);
         }
+        writeContextLine(appTag, "", "[Error Context]", timeStamp, threadId,
+                "==================================================");
     }
 
-    private  void dumpAndFlushCache() throws IOException {
-        int i = first;
-        if (first != next) {
-            writeLogMessageNoCache("", ERROR, "[Error Context]", "==================================================");
-        }
-        while (i != next) {
-            if (i == cacheSize) {
-                i = 0;
-            }
-            writeLogMessageNoCache("", ERROR, "[Error Context]", (String) cache.elementAt(i));
-            ++i;
+    private  synchronized ExecutorService getContextDumper() {
+        if (contextDumper == null) {
+            contextDumper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SmartLogger-context");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
         }
+        return contextDumper;
+    }
 
-        if (first != next) {
-            writeLogMessageNoCache("", ERROR, "[Error Context]", "==================================================");
+    /**
+     * Wait for the error context dumps already requested to be written
+     */
+    private  void waitContextDumps() {
+        ExecutorService dumper;
+        synchronized (this) {
+            dumper = contextDumper;
+        }
+        if (dumper == null) {
+            return;
+        }
+        try {
+            dumper.submit(new Runnable() {
+                public void run() {
+                }
+            }).get(CONTEXT_DUMP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.out.println("wait error context dump exception(" + e + ")");
         }
-        first = 0;
-        next = 0;
     }
 }
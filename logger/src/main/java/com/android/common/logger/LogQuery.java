@@ -0,0 +1,116 @@
+package com.android.common.logger;
+
+import java.util.regex.Pattern;
+
+/**
+ * Filters of a search of the log files, see FileAppender.search. A line
+ * matches when it passes all the filters set, by default every line matches.
+ */
+public class LogQuery {
+
+    /**
+     * Receives the matching lines of a search, in time stamp order
+     */
+    public interface Listener {
+        /**
+         * @param timeStamp the time stamp of the line, -1 if it has none
+         * @param line the line without its line terminator
+         * @return false to stop the search
+         */
+        boolean onMatch(long timeStamp, String line);
+    }
+
+    private int level = Log.TRACE;
+    private boolean levelFiltered = false;
+    private String tag = null;
+    private String text = null;
+    private Pattern pattern = null;
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+    private int limit = Integer.MAX_VALUE;
+
+    /**
+     * Keep the lines of this level and of the more severe ones, as Log levels
+     * do: Log.WARN keeps the ERROR and WARN lines. The profiling lines have
+     * no level and are then dropped.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+        this.levelFiltered = true;
+    }
+
+    /**
+     * Keep the lines logged with this tag
+     */
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * Keep the lines containing this text
+     */
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Keep the lines in which this regular expression is found
+     */
+    public void setPattern(String regex) {
+        this.pattern = (null == regex) ? null : Pattern.compile(regex);
+    }
+
+    /**
+     * Keep the lines logged between two times, bounds included
+     *
+     * @param fromMillis the start of the range, in milliseconds since the epoch
+     * @param toMillis the end of the range, in milliseconds since the epoch
+     */
+    public void setTimeRange(long fromMillis, long toMillis) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+    }
+
+    /**
+     * Stop the search after this number of matches
+     */
+    public void setLimit(int limit) {
+        this.limit = (limit > 0) ? limit : Integer.MAX_VALUE;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    boolean isLevelFiltered() {
+        return levelFiltered;
+    }
+
+    String getTag() {
+        return tag;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    Pattern getPattern() {
+        return pattern;
+    }
+
+    long getFromMillis() {
+        return fromMillis;
+    }
+
+    long getToMillis() {
+        return toMillis;
+    }
+
+    boolean hasTimeRange() {
+        return (fromMillis != Long.MIN_VALUE) || (toMillis != Long.MAX_VALUE);
+    }
+
+    int getLimit() {
+        return limit;
+    }
+}
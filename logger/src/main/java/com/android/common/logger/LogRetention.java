@@ -0,0 +1,199 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Retention of the files of a FileAppender: a total byte budget and a max
+ * age, over the current file, the plain and compressed shards, the dated
+ * files, the circular slots, the merged content file and their time indexes
+ * and summaries. A log file and its sidecars are deleted together, oldest
+ * first, after the merged file, which is only a copy of the others. The current
+ * file, the manifest and the rolled files waiting for their rotation are
+ * counted but never deleted. A merged file younger than MERGED_GRACE_MILLIS,
+ * which getLogContent may just have returned, is neither counted nor
+ * deleted. Runs on the rotation worker of the appender.
+ */
+final class LogRetention {
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * Time left to the caller of getLogContent to read the merged file
+     */
+    static final long MERGED_GRACE_MILLIS = 10 * 60 * 1000;
+
+    private final String[] dirs;
+    private final Pattern names;
+    private final long maxTotalBytes;
+    private final long maxAgeMillis;
+
+    /**
+     * A log file and its sidecars
+     */
+    private static final class Group {
+        final List<String> fileUrls = new ArrayList<String>();
+        long size = 0;
+        long lastModified = 0;
+        boolean merged = false;
+    }
+
+    /**
+     * @param maxTotalBytes the budget in bytes, 0 for no budget
+     * @param maxAgeMillis the max age in milliseconds, 0 for no max age
+     */
+    LogRetention(String path, String contentPath, String fileName, String suffix,
+            long maxTotalBytes, long maxAgeMillis) {
+        String logDir = new File(path).getAbsolutePath();
+        String contentDir = new File(contentPath).getAbsolutePath();
+        this.dirs = logDir.equals(contentDir) ? new String[] { logDir }
+                : new String[] { logDir, contentDir };
+        this.names = Pattern.compile(Pattern.quote(fileName)
+                + "(\\.(\\d+|slot\\d+|rolled\\d+|merged"
+                + "|\\d{4}-\\d{2}-\\d{2}(?:-\\d{2})?\\.\\d+))?" + Pattern.quote(suffix)
+                + "(\\" + GZIP_SUFFIX + ")?(\\" + TimeIndex.SUFFIX + "|\\"
+                + ShardSummary.SUFFIX + ")?|" + Pattern.quote(fileName) + "\\.manifest");
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Delete the files beyond the budget or the max age
+     *
+     * @param currentFileUrl the log file being written
+     * @return the number of bytes deleted
+     */
+    long apply(String currentFileUrl) {
+        String current = new File(currentFileUrl).getAbsolutePath();
+        Map<String, Group> groups = new HashMap<String, Group>();
+        long total = 0;
+
+        for (String dir : dirs) {
+            FileAdapter directory = null;
+            try {
+                directory = new FileAdapter(dir);
+                if (!directory.exists()) {
+                    continue;
+                }
+                Enumeration<?> list = directory.list(false);
+                while (list.hasMoreElements()) {
+                    String name = (String) list.nextElement();
+                    Matcher matcher = names.matcher(name);
+                    if (!matcher.matches()) {
+                        continue;
+                    }
+                    String fileUrl = dir + File.separator + name;
+                    FileAdapter file = new FileAdapter(fileUrl);
+                    long size = file.getSize();
+                    long lastModified = file.lastModified();
+                    file.close();
+
+                    total += size;
+                    String key = toLogFileUrl(fileUrl);
+                    String kind = matcher.group(2);
+                    if (key.equals(current) || ((null != kind) && kind.startsWith("rolled"))
+                            || name.endsWith(".manifest")) {
+                        continue;
+                    }
+                    Group group = groups.get(key);
+                    if (null == group) {
+                        group = new Group();
+                        groups.put(key, group);
+                    }
+                    group.merged = "merged".equals(kind);
+                    group.fileUrls.add(fileUrl);
+                    group.size += size;
+                    group.lastModified = Math.max(group.lastModified, lastModified);
+                }
+            } catch (IOException e) {
+                System.out.println("[dir:" + dir + "] list log files exception(IOException)");
+            } finally {
+                try {
+                    if (null != directory) {
+                        directory.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        List<Group> oldestFirst = new ArrayList<Group>(groups.values());
+        Collections.sort(oldestFirst, new Comparator<Group>() {
+            public int compare(Group g1, Group g2) {
+                if (g1.merged != g2.merged) {
+                    return g1.merged ? -1 : 1;
+                }
+                return (g1.lastModified < g2.lastModified) ? -1
+                        : ((g1.lastModified == g2.lastModified) ? 0 : 1);
+            }
+        });
+
+        long deleted = 0;
+        long now = System.currentTimeMillis();
+        long expiry = (maxAgeMillis > 0) ? now - maxAgeMillis : Long.MIN_VALUE;
+        for (Group group : oldestFirst) {
+            if (group.merged && (group.lastModified > now - MERGED_GRACE_MILLIS)) {
+                // A transient copy, the shards are not deleted for it
+                total -= group.size;
+                continue;
+            }
+            boolean overBudget = (maxTotalBytes > 0) && (total - deleted > maxTotalBytes);
+            if (!overBudget && (group.lastModified >= expiry)) {
+                if (group.merged) {
+                    continue;
+                }
+                break;
+            }
+            System.out.println("[fileUrl:" + group.fileUrls.get(0) + "][size:" + group.size
+                    + "] retention delete");
+            for (String fileUrl : group.fileUrls) {
+                delete(fileUrl);
+            }
+            deleted += group.size;
+        }
+        return deleted;
+    }
+
+    /**
+     * Return the log file of a file or of a sidecar
+     */
+    private static String toLogFileUrl(String fileUrl) {
+        String[] suffixes = { TimeIndex.SUFFIX, ShardSummary.SUFFIX, GZIP_SUFFIX };
+        for (String suffix : suffixes) {
+            if (fileUrl.endsWith(suffix)) {
+                fileUrl = fileUrl.substring(0, fileUrl.length() - suffix.length());
+            }
+        }
+        return fileUrl;
+    }
+
+    private static void delete(String fileUrl) {
+        FileAdapter file = null;
+        try {
+            file = new FileAdapter(fileUrl);
+            if (file.exists()) {
+                file.delete();
+            }
+        } catch (IOException e) {
+            System.out.println("[fileUrl:" + fileUrl + "] delete file exception(IOException)");
+        } finally {
+            try {
+                if (null != file) {
+                    file.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
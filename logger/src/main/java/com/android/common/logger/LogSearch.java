@@ -0,0 +1,330 @@
+package com.android.common.logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Runs a LogQuery over the log files of FileAppender. Each file is scanned
+ * by its own task on a shared pool, into a bounded queue, and the caller
+ * drains the queues from the oldest file to the newest one, so the matches
+ * are delivered in time stamp order while the files are scanned in parallel.
+ * The pool runs the tasks in submission order, so the file being drained is
+ * always scanned. Once the limit is reached or the listener stops the search,
+ * the tasks stop at their next line.
+ */
+final class LogSearch {
+
+    /**
+     * Max number of matches a task keeps ahead of the caller
+     */
+    private static final int QUEUE_SIZE = 256;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String[] LEVEL_NAMES = { "ERROR", "WARN", "INFO", "DEBUG", "TRACE" };
+    private static final int[] LEVELS = { Log.ERROR, Log.WARN, Log.INFO, Log.DEBUG, Log.TRACE };
+
+    /**
+     * Queued after the last match of a file
+     */
+    private static final Object END = new Object();
+
+    private static ExecutorService sExecutor = null;
+
+    private final LogQuery query;
+    private final byte[] tag;
+    private volatile boolean stopped = false;
+
+    private LogSearch(LogQuery query) {
+        this.query = query;
+        this.tag = (null == query.getTag()) ? null : query.getTag().getBytes(UTF8);
+    }
+
+    /**
+     * Search files, oldest first. The streams are closed by the search.
+     *
+     * @param files the streams of the files
+     * @param framed true if the files are in the RecordFraming format
+     * @return the number of matches delivered to the listener
+     */
+    static int search(List<InputStream> files, boolean framed, LogQuery query,
+            LogQuery.Listener listener) throws IOException {
+        return new LogSearch(query).run(files, framed, listener);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (null == sExecutor) {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "SmartLogger-search");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    private int run(List<InputStream> files, boolean framed, LogQuery.Listener listener)
+            throws IOException {
+        List<FileScan> scans = new ArrayList<FileScan>();
+        int count = 0;
+        try {
+            ExecutorService executor = getExecutor();
+            for (InputStream is : files) {
+                FileScan scan = new FileScan(is, framed);
+                executor.execute(scan);
+                scans.add(scan);
+            }
+
+            for (FileScan scan : scans) {
+                Object item;
+                while ((item = scan.queue.take()) != END) {
+                    if (item instanceof IOException) {
+                        throw (IOException) item;
+                    }
+                    Match match = (Match) item;
+                    count++;
+                    if (!listener.onMatch(match.timeStamp, match.line)
+                            || (count >= query.getLimit())) {
+                        return count;
+                    }
+                }
+            }
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("log search interrupted");
+        } finally {
+            stopped = true;
+            // The streams of the tasks not submitted
+            for (int i = scans.size(); i < files.size(); i++) {
+                closeStream(files.get(i));
+            }
+        }
+    }
+
+    private static void closeStream(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final class Match {
+        final long timeStamp;
+        final String line;
+
+        Match(long timeStamp, String line) {
+            this.timeStamp = timeStamp;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Thrown out of a scan stopped by the caller
+     */
+    private static final class StoppedException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Scans one file. The file is written into the scan, which cuts it into
+     * "\r\n" terminated lines, so framed files go through RecordFraming.unframe
+     * like in getLogContent.
+     */
+    private final class FileScan extends OutputStream implements Runnable {
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+
+        private final InputStream is;
+        private final boolean framed;
+        private final TimeFormatter.Parser parser = new TimeFormatter.Parser();
+        private final Matcher matcher;
+        private byte[] line = new byte[1024];
+        private int size = 0;
+
+        FileScan(InputStream is, boolean framed) {
+            this.is = is;
+            this.framed = framed;
+            this.matcher = (null == query.getPattern()) ? null : query.getPattern().matcher("");
+        }
+
+        public void run() {
+            try {
+                if (framed) {
+                    RecordFraming.unframe(is, this);
+                } else {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = is.read(buffer)) > 0) {
+                        write(buffer, 0, read);
+                    }
+                }
+                if (size > 0) {
+                    // Last line without terminator
+                    match(size);
+                }
+            } catch (StoppedException e) {
+                return;
+            } catch (IOException e) {
+                queue(e);
+            } catch (RuntimeException e) {
+                queue(new IOException("log search failed", e));
+            } finally {
+                closeStream(is);
+                queue(END);
+            }
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            int end = off + len;
+            while (off < end) {
+                int start = off;
+                while ((off < end) && (b[off] != '\n')) {
+                    off++;
+                }
+                boolean complete = (off < end);
+                if (complete) {
+                    off++;
+                }
+                append(b, start, off - start);
+                if (complete && (size >= 2) && (line[size - 2] == '\r')) {
+                    match(size - 2);
+                    size = 0;
+                }
+            }
+        }
+
+        private void append(byte[] b, int off, int len) {
+            if (size + len > line.length) {
+                byte[] grown = new byte[Math.max(size + len, line.length * 2)];
+                System.arraycopy(line, 0, grown, 0, size);
+                line = grown;
+            }
+            System.arraycopy(b, off, line, size, len);
+            size += len;
+        }
+
+        /**
+         * Check a line, its header is read from the bytes and only the lines
+         * passing the time, level and tag filters are decoded
+         */
+        private void match(int length) throws IOException {
+            if (stopped) {
+                throw new StoppedException();
+            }
+
+            long timeStamp = parser.parse(line, length);
+            if (query.hasTimeRange() && ((timeStamp < query.getFromMillis())
+                    || (timeStamp > query.getToMillis()))) {
+                return;
+            }
+
+            // "time [LEVEL] [app][tag]..."
+            int levelStart = TimeFormatter.LENGTH + 2;
+            int levelEnd = indexOf(line, levelStart, length, ']');
+            if (query.isLevelFiltered() && ((timeStamp < 0) || (levelEnd < 0)
+                    || (getLevel(line, levelStart, levelEnd) > query.getLevel()))) {
+                return;
+            }
+            if (null != tag) {
+                int appEnd = (levelEnd < 0) ? -1 : indexOf(line, levelEnd + 3, length, ']');
+                int tagEnd = (appEnd < 0) ? -1 : indexOf(line, appEnd + 2, length, ']');
+                if ((timeStamp < 0) || (tagEnd < 0)
+                        || !regionEquals(line, appEnd + 2, tagEnd, tag)) {
+                    return;
+                }
+            }
+
+            String text = new String(line, 0, length, UTF8);
+            if ((null != query.getText()) && (text.indexOf(query.getText()) < 0)) {
+                return;
+            }
+            if ((null != matcher) && !matcher.reset(text).find()) {
+                return;
+            }
+            queue(new Match(timeStamp, text));
+        }
+
+        /**
+         * Queue an item unless the search is stopped
+         */
+        private void queue(Object item) {
+            try {
+                while (!queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int indexOf(byte[] data, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] data, int from, int to, byte[] value) {
+        if (to - from != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (data[from + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the level of a level name, MAX_VALUE for the profiling lines
+     */
+    private static int getLevel(byte[] data, int from, int to) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            String name = LEVEL_NAMES[i];
+            if (to - from == name.length()) {
+                int j = 0;
+                while ((j < name.length()) && (data[from + j] == name.charAt(j))) {
+                    j++;
+                }
+                if (j == name.length()) {
+                    return LEVELS[i];
+                }
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+}
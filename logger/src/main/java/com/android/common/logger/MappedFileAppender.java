@@ -0,0 +1,446 @@
+package com.android.common.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * This appender logs messages to a memory mapped file. The file is mapped by
+ * regions of regionSize bytes and the lines are copied in the mapped memory,
+ * so writing a line does not cost a system call, and the lines written so far
+ * are kept by the kernel even if the process is killed.
+ * The file is extended a region at a time, with written zeros so that the
+ * disk space is allocated before it is mapped, and truncated to the length of
+ * the written lines when it is closed. After a crash the zeros of the unused end
+ * of the last region are skipped when the file is opened again.
+ * As in FileAppender the file is renamed to fileName.1.txt once it reaches
+ * maxFileSize, and at most backup renamed files are kept.
+ */
+public class MappedFileAppender implements EventAppender {
+
+    /**
+     * Default size of a mapped region, 256K
+     */
+    public static final int DEFAULT_REGION_SIZE = 256 * 1024;
+
+    private String contentPath = null;
+    private boolean memory = false;
+    private boolean stream = false;
+
+    private String fileName = null;
+    private String path = null;
+    private String suffix = ".txt";
+    private String fileUrl = null;
+
+    // default 1M
+    private long maxFileSize = 1024 * 1024 * 1;
+    private int backup = 4;
+    private int regionSize = DEFAULT_REGION_SIZE;
+
+    private RandomAccessFile file = null;
+    private FileChannel channel = null;
+    private MappedByteBuffer region = null;
+
+    /**
+     * File offset of the mapped region
+     */
+    private long regionStart = 0;
+
+    /**
+     * Number of bytes written to the current file
+     */
+    private long fileSize = 0;
+
+    /**
+     * lock
+     */
+    private Object lock = new Object();
+
+    /**
+     * Line being written, reused under lock
+     */
+    private StringBuilder line = new StringBuilder(256);
+
+    /**
+     * Encodes the line into a reused buffer, under lock
+     */
+    private LineEncoder encoder = new LineEncoder();
+
+    /**
+     * Zeros written to allocate a region before mapping it
+     */
+    private ByteBuffer zeros = ByteBuffer.allocate(16 * 1024);
+
+    /**
+     * Default constructor
+     */
+    public MappedFileAppender(String path, String fileName) {
+        this(path, fileName, 4);
+    }
+
+    /**
+     * Default constructor
+     */
+    public MappedFileAppender(String path, String fileName, int backup) {
+        if ((null == fileName) || (fileName.length() <= 0)) {
+            throw new IllegalArgumentException("[fileName:" + fileName + "] empty file name");
+        }
+
+        System.out.println("[path:" + path + "][fileName:" + fileName
+                + "][backup:" + backup + "] mapped file appender initialize");
+        this.fileName = fileName;
+        this.path = path;
+        this.contentPath = path;
+        this.fileUrl = toFileUrl(path, fileName, suffix);
+
+        if (backup >= 0) {
+            this.backup = backup;
+        }
+    }
+
+    //----------------------------------------------------------- Public Methods
+    /**
+     * Sets the maximum file size, see FileAppender.setMaxFileSize
+     *
+     * @param maxFileSize the max size in bytes
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        if (maxFileSize > 1024) {
+            this.maxFileSize = maxFileSize;
+        }
+    }
+
+    /**
+     * Sets the size of the mapped regions, it is used for the next region
+     * mapped.
+     *
+     * @param regionSize the region size in bytes, at least 4K
+     */
+    public void setRegionSize(int regionSize) {
+        synchronized (lock) {
+            this.regionSize = Math.max(regionSize, 4096);
+        }
+    }
+
+    /**
+     * Sets the content path, see FileAppender.setContentPath
+     */
+    public void setContentPath(String path) {
+        contentPath = path;
+    }
+
+    /**
+     * Sets the content type of the log, see FileAppender.setLogContentType
+     */
+    public void setLogContentType(boolean memory) {
+        this.memory = memory;
+    }
+
+    /**
+     * Sets whether getLogContent returns a STREAM_CONTENT, see
+     * FileAppender.setStreamContent
+     */
+    public void setStreamContent(boolean stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * MappedFileAppender writes one message to the mapped file
+     */
+    public void writeLogMessage(String paramTag, String level, String msg) throws IOException {
+        synchronized (lock) {
+            line.setLength(0);
+            TimeFormatter.append(line, System.currentTimeMillis());
+            line.append(" [").append(level).append("] ")
+                .append(paramTag)
+                .append(msg).append("\r\n");
+            writeLine(line);
+        }
+    }
+
+    /**
+     * MappedFileAppender writes one event to the mapped file, with the same
+     * layout as FileAppender
+     */
+    public void writeLogEvent(LogEvent event) throws IOException {
+        synchronized (lock) {
+            line.setLength(0);
+            TimeFormatter.append(line, event.getTimeStamp());
+            line.append(" [").append(event.getLevelName()).append("] ");
+            event.appendParamTag(line);
+            event.appendMessage(line);
+            line.append("\r\n");
+            writeLine(line);
+        }
+    }
+
+    /**
+     * Copy a line in the mapped regions and roll the file if it grew beyond
+     * the limit. Must be called holding lock.
+     */
+    private void writeLine(StringBuilder logMsg) throws IOException {
+        if (null == channel) {
+            return;
+        }
+
+        ByteBuffer bytes = encoder.encode(logMsg);
+        while (bytes.hasRemaining()) {
+            if (!region.hasRemaining()) {
+                mapRegion(regionStart + region.capacity());
+            }
+            int length = Math.min(region.remaining(), bytes.remaining());
+            region.put(bytes.array(), bytes.position(), length);
+            bytes.position(bytes.position() + length);
+            fileSize += length;
+        }
+
+        if (fileSize >= maxFileSize) {
+            System.out.println("[fileSize:" + fileSize + "] >= [maxFileSize:"
+                    + maxFileSize + "] roll logger file");
+            closeLogFile();
+            rollFile();
+            initLogFile();
+        }
+    }
+
+    /**
+     * Map the region starting at a file offset. The file is first extended
+     * with written zeros: a region mapped past the end of the file would be a
+     * sparse one, and a full device would only fail on a later store into the
+     * mapped memory, killing the process with SIGBUS instead of raising an
+     * IOException here. Must be called holding lock.
+     */
+    private void mapRegion(long start) throws IOException {
+        long end = start + regionSize;
+        for (long size = channel.size(); size < end; ) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), end - size));
+            size += channel.write(zeros, size);
+        }
+        regionStart = start;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, regionSize);
+    }
+
+    /**
+     * Return the length of the file without the zeros of an unused region
+     * end, left when the file was not closed
+     */
+    private static long getWrittenLength(FileChannel channel) throws IOException {
+        long length = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (length > 0) {
+            int size = (int) Math.min(buffer.capacity(), length);
+            buffer.clear();
+            buffer.limit(size);
+            long start = length - size;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) != 0) {
+                    return start + i + 1;
+                }
+            }
+            length = start;
+        }
+        return 0;
+    }
+
+    /**
+     * Return the written length of a file which is not open, -1 if it does
+     * not exist
+     */
+    private static long getWrittenLength(String fileUrl) throws IOException {
+        if (!new File(fileUrl).exists()) {
+            return -1;
+        }
+        RandomAccessFile source = new RandomAccessFile(fileUrl, "r");
+        try {
+            return getWrittenLength(source.getChannel());
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Init the logger
+     */
+    public void initLogFile() {
+        System.out.println("[fileUrl:" + fileUrl + "] init mapped logger file ...");
+
+        synchronized (lock) {
+            try {
+                file = new RandomAccessFile(fileUrl, "rw");
+                channel = file.getChannel();
+                fileSize = getWrittenLength(channel);
+                mapRegion(fileSize);
+            } catch (IOException e) {
+                System.out.println("[fileUrl:" + fileUrl
+                        + "] open file exception(IOException)");
+                e.printStackTrace();
+                closeChannel();
+            }
+        }
+    }
+
+    /**
+     * MappedFileAppender doesn't implement this method
+     */
+    public void openLogFile() {
+    }
+
+    /**
+     * Truncate the file to the written length and close it
+     */
+    public void closeLogFile() {
+        System.out.println("[fileUrl:" + fileUrl + "] close mapped logger file ...");
+
+        synchronized (lock) {
+            if (null != channel) {
+                try {
+                    region.force();
+                    channel.truncate(fileSize);
+                } catch (Exception e) {
+                    System.out.println("[fileUrl:" + fileUrl
+                            + "] truncate file exception(Exception)");
+                    e.printStackTrace();
+                }
+            }
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            if (null != file) {
+                file.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            file = null;
+            channel = null;
+            region = null;
+        }
+    }
+
+    /**
+     * roll the file
+     */
+    private void rollFile() throws IOException {
+        System.out.println("[backup:" + backup + "] roll mapped file ...");
+
+        if (0 == backup) {
+            deleteFile(fileUrl);
+        } else if (backup > 0) {
+            deleteFile(toShardUrl(backup));
+
+            for (int i = backup - 1; i > 0; i--) {
+                renameFile(toShardUrl(i), toShardUrl(i + 1));
+            }
+
+            renameFile(fileUrl, toShardUrl(1));
+        }
+    }
+
+    private void deleteFile(String fileUrl) throws IOException {
+        FileAdapter file = new FileAdapter(fileUrl);
+        try {
+            if (file.exists()) {
+                file.delete();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void renameFile(String oldFileUrl, String newFileUrl) throws IOException {
+        FileAdapter file = new FileAdapter(oldFileUrl);
+        try {
+            if (file.exists()) {
+                file.rename(newFileUrl);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Perform additional actions needed when setting a new level.
+     * MappedFileAppender doesn't implement this method
+     */
+    public void setLogLevel(int level) {
+    }
+
+    /**
+     * Delete the log file
+     */
+    public void deleteLogFile() {
+        System.out.println("[fileUrl:" + fileUrl + "] delete mapped logger file ...");
+
+        synchronized (lock) {
+            try {
+                deleteFile(fileUrl);
+            } catch (Exception e) {
+                System.out.println("[fileUrl:" + fileUrl
+                        + "] delete file exception(IOException)");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public LogContent getLogContent() throws IOException {
+        synchronized (lock) {
+            String[] files = new String[backup + 1];
+            long[] lengths = new long[backup + 1];
+            for (int i = backup; i > 0; i--) {
+                files[backup - i] = toShardUrl(i);
+                lengths[backup - i] = -1;
+            }
+            // The current file is only read up to the written length
+            files[backup] = fileUrl;
+            lengths[backup] = (null != channel) ? fileSize : getWrittenLength(fileUrl);
+            LogContent content = new LogContent(files, lengths);
+            if (stream) {
+                // Opened holding the lock, a later rollover does not move the lines
+                return content.open();
+            }
+
+            String mergedFileUrl = toFileUrl(contentPath, (fileName + ".merged"), suffix);
+            OutputStream mergedOs = memory ? new ByteArrayOutputStream()
+                    : new FileOutputStream(mergedFileUrl);
+            try {
+                content.transferTo(Channels.newChannel(mergedOs));
+
+                if (memory) {
+                    return new LogContent(LogContent.STRING_CONTENT, mergedOs.toString());
+                } else {
+                    return new LogContent(LogContent.FILE_CONTENT, mergedFileUrl);
+                }
+            } finally {
+                mergedOs.close();
+            }
+        }
+    }
+
+    private String toShardUrl(int index) {
+        return toFileUrl(path, (fileName + "." + index), suffix);
+    }
+
+    private String toFileUrl(String path, String fileName, String suffix) {
+        if (path.endsWith(File.separator)) {
+            return path + fileName + suffix;
+        } else {
+            return path + File.separator + fileName + suffix;
+        }
+    }
+}
@@ -1,11 +1,23 @@
 package com.android.common.logger;
 
 import java.io.IOException;
-import java.util.Vector;
 
-public class MemoryAppender implements Appender {
+/**
+ * Keeps the last limit messages in memory. The messages are kept in a ring
+ * of builders, the builder of the oldest message being reused for the new
+ * one once the ring is full, so a message does not allocate once the ring
+ * has filled up.
+ */
+public class MemoryAppender implements EventAppender {
 
-    Vector  logData = null;
+    /**
+     * Builders bigger than this are not reused after a long message
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private StringBuilder[] logData = null;
+    private int first = 0;
+    private int count = 0;
 
     private int limit   = 250;
 
@@ -20,33 +32,65 @@ public class MemoryAppender implements Appender {
         initLogFile();
     }
 
-    public void setLimit(int limit) {
+    /**
+     * Set the number of messages kept, the newest ones are kept
+     */
+    public synchronized void setLimit(int limit) {
+        StringBuilder[] data = new StringBuilder[Math.max(limit, 1)];
+        int kept = Math.min(count, data.length);
+        for (int i = 0; i < kept; i++) {
+            data[i] = logData[(first + count - kept + i) % logData.length];
+        }
         this.limit = limit;
+        logData = data;
+        first = 0;
+        count = kept;
     }
 
-    public void initLogFile() {
-        logData = new Vector();
-        logData.ensureCapacity(limit + 1);
+    public synchronized void initLogFile() {
+        logData = new StringBuilder[Math.max(limit, 1)];
+        first = 0;
+        count = 0;
     }
 
     public void openLogFile() {
     }
 
-    public void writeLogMessage(String paramTag, String level, String msg) throws IOException {
-        StringBuffer message = new StringBuffer();
-        message.append("[").append(level).append("] ").append(msg);
-        msg = message.toString();
-        
-        logData.addElement(msg);
-        if (logData.size() > limit) {
-            logData.removeElementAt(0);
+    public synchronized void writeLogMessage(String paramTag, String level, String msg) throws IOException {
+        nextLine().append("[").append(level).append("] ").append(msg);
+    }
+
+    public synchronized void writeLogEvent(LogEvent event) throws IOException {
+        StringBuilder message = nextLine().append("[").append(event.getLevelName()).append("] ");
+        event.appendMessage(message);
+    }
+
+    /**
+     * Return the emptied builder of the new message, dropping the oldest
+     * message when the ring is full
+     */
+    private StringBuilder nextLine() {
+        int index;
+        if (count < logData.length) {
+            index = (first + count) % logData.length;
+            count++;
+        } else {
+            index = first;
+            first = (first + 1) % logData.length;
+        }
+        StringBuilder line = logData[index];
+        if ((line == null) || (line.capacity() > MAX_RETAINED_CAPACITY)) {
+            line = new StringBuilder(128);
+            logData[index] = line;
         }
+        line.setLength(0);
+        return line;
     }
-    
-    public String getLogData() {
+
+    public synchronized String getLogData() {
         StringBuffer result = new StringBuffer();
-        for (int x = 0; x < logData.size(); x++) {
-            result.append(logData.elementAt(x)).append("\n");
+        for (int x = 0; x < count; x++) {
+            result.append(logData[(first + x) % logData.length]).append("\n");
         }
         return result.toString();
     }
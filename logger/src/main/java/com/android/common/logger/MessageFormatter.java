@@ -0,0 +1,164 @@
+package com.android.common.logger;
+
+import java.util.Arrays;
+
+/**
+ * Expands the "{}" placeholders of a parameterized log message. LogImpl only
+ * calls it once a message passed the level check, so a filtered call never
+ * builds a String. A placeholder preceded by a backslash is kept as is.
+ */
+final class MessageFormatter {
+
+    private static final String PLACEHOLDER = "{}";
+
+    private static final char ESCAPE = '\\';
+
+    /**
+     * This class is static and cannot be intantiated
+     */
+    private MessageFormatter() {
+    }
+
+    /**
+     * Append the message text to sb: the supplied message if supplier is set,
+     * else the pattern formatted with args or with the primitive arguments,
+     * else msg as is.
+     * @param primitiveArgs number of primitive arguments (0, 1 or 2)
+     */
+    static void appendMessage(StringBuilder sb, String msg, Object[] args, long arg1,
+            long arg2, int primitiveArgs, MessageSupplier supplier) {
+        if (supplier != null) {
+            sb.append(get(supplier));
+        } else if (args != null) {
+            appendFormatted(sb, msg, args);
+        } else if (primitiveArgs == 1) {
+            appendFormatted(sb, msg, arg1);
+        } else if (primitiveArgs == 2) {
+            appendFormatted(sb, msg, arg1, arg2);
+        } else {
+            sb.append(msg);
+        }
+    }
+
+    /**
+     * Replace the placeholders of the pattern with the given arguments, in
+     * order. Extra arguments are ignored, extra placeholders are left as is.
+     */
+    static void appendFormatted(StringBuilder sb, String pattern, Object[] args) {
+        if ((pattern == null) || (args == null) || (args.length == 0)) {
+            sb.append(pattern);
+            return;
+        }
+        int from = 0;
+        for (int i = 0; (i < args.length) && (from >= 0); i++) {
+            from = appendLiteral(sb, pattern, from);
+            if (from >= 0) {
+                appendArg(sb, args[i]);
+            }
+        }
+        appendTail(sb, pattern, from);
+    }
+
+    /**
+     * Same as appendFormatted(StringBuilder, String, Object[]) for a single
+     * primitive argument, which then never gets boxed
+     */
+    static void appendFormatted(StringBuilder sb, String pattern, long arg) {
+        if (pattern == null) {
+            sb.append(pattern);
+            return;
+        }
+        int from = appendLiteral(sb, pattern, 0);
+        if (from >= 0) {
+            sb.append(arg);
+        }
+        appendTail(sb, pattern, from);
+    }
+
+    /**
+     * Same as appendFormatted(StringBuilder, String, Object[]) for two
+     * primitive arguments
+     */
+    static void appendFormatted(StringBuilder sb, String pattern, long arg1, long arg2) {
+        if (pattern == null) {
+            sb.append(pattern);
+            return;
+        }
+        int from = appendLiteral(sb, pattern, 0);
+        if (from >= 0) {
+            sb.append(arg1);
+            from = appendLiteral(sb, pattern, from);
+            if (from >= 0) {
+                sb.append(arg2);
+            }
+        }
+        appendTail(sb, pattern, from);
+    }
+
+    /**
+     * Call the supplier, never letting a failing one break the caller
+     */
+    static String get(MessageSupplier supplier) {
+        try {
+            return supplier.get();
+        } catch (RuntimeException e) {
+            return "[FAILED MessageSupplier.get(): " + e + "]";
+        }
+    }
+
+    /**
+     * Append the pattern text starting at from up to the next placeholder.
+     * @return the index following the placeholder, or -1 if the end of the
+     * pattern has been reached
+     */
+    private static int appendLiteral(StringBuilder sb, String pattern, int from) {
+        while (true) {
+            int index = pattern.indexOf(PLACEHOLDER, from);
+            if (index < 0) {
+                sb.append(pattern, from, pattern.length());
+                return -1;
+            }
+            if ((index > 0) && (pattern.charAt(index - 1) == ESCAPE)) {
+                sb.append(pattern, from, index - 1).append(PLACEHOLDER);
+                from = index + PLACEHOLDER.length();
+            } else {
+                sb.append(pattern, from, index);
+                return index + PLACEHOLDER.length();
+            }
+        }
+    }
+
+    /**
+     * Append what is left of the pattern once the arguments are exhausted
+     */
+    private static void appendTail(StringBuilder sb, String pattern, int from) {
+        while (from >= 0) {
+            from = appendLiteral(sb, pattern, from);
+            if (from >= 0) {
+                sb.append(PLACEHOLDER);
+            }
+        }
+    }
+
+    /**
+     * Append one argument the way it appears in a formatted message
+     */
+    static void appendArg(StringBuilder sb, Object arg) {
+        try {
+            if (arg instanceof Object[]) {
+                sb.append(Arrays.deepToString((Object[]) arg));
+            } else if (arg instanceof int[]) {
+                sb.append(Arrays.toString((int[]) arg));
+            } else if (arg instanceof long[]) {
+                sb.append(Arrays.toString((long[]) arg));
+            } else if (arg instanceof byte[]) {
+                sb.append(Arrays.toString((byte[]) arg));
+            } else {
+                sb.append(arg);
+            }
+        } catch (RuntimeException e) {
+            // A broken toString() must not prevent the message from being logged
+            sb.append("[FAILED toString(): ").append(e).append(']');
+        }
+    }
+}
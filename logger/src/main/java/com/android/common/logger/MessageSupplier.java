@@ -0,0 +1,14 @@
+package com.android.common.logger;
+
+/**
+ * Builds a log message on demand. get() is only called once the message is
+ * known to be logged, possibly on the async consumer thread, so expensive
+ * messages cost nothing while their level is filtered out.
+ */
+public interface MessageSupplier {
+
+    /**
+     * Return the message to be logged
+     */
+    String get();
+}
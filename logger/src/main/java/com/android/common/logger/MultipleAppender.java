@@ -11,7 +11,7 @@ import java.io.IOException;
 /**
  * an appender that contains multiple appenders
  */
-public class MultipleAppender implements Appender {
+public class MultipleAppender implements EventAppender {
 
     private Vector appenders = new Vector();
 
@@ -82,6 +82,12 @@ public class MultipleAppender implements Appender {
         }
     }
 
+    public void writeLogEvent(LogEvent event) throws IOException {
+        for (int i = 0; i< appenders.size(); i++) {
+            LogEvent.writeTo((Appender)appenders.elementAt(i), event);
+        }
+    }
+
     /**
      * Retrieve the first valid log content avoiding the CONSOLE type one, that
      * doesn't contain useful informations;
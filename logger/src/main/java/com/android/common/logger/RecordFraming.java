@@ -0,0 +1,235 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Frames of the FileAppender framed format. Each line is written as
+ * <pre>
+ *   MAGIC (2 bytes) | length (4 bytes) | CRC32 of the line (4 bytes) | line | length (4 bytes)
+ * </pre>
+ * The trailing length lets recover() check the last frame of a file from its
+ * end, and the magic lets readers find the next frame after a corrupt
+ * region. Lines longer than MAX_RECORD_SIZE are truncated, which bounds the
+ * work of both.
+ */
+final class RecordFraming {
+
+    static final int MAGIC_0 = 0xA5;
+    static final int MAGIC_1 = 0x5A;
+
+    static final int HEADER_SIZE = 10;
+    static final int TRAILER_SIZE = 4;
+    static final int OVERHEAD = HEADER_SIZE + TRAILER_SIZE;
+
+    /**
+     * Max length of a framed line
+     */
+    static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    /**
+     * Returned by recover for a file which does not start with a frame, like
+     * a plain text log written before the framing was enabled
+     */
+    static final long NOT_FRAMED = -1;
+
+    private final CRC32 crc = new CRC32();
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final byte[] trailer = new byte[TRAILER_SIZE];
+
+    /**
+     * Write a line in a frame, return the number of bytes written
+     */
+    int write(OutputStream os, byte[] data, int offset, int length) throws IOException {
+        length = Math.min(length, MAX_RECORD_SIZE);
+        crc.reset();
+        crc.update(data, offset, length);
+        header[0] = (byte) MAGIC_0;
+        header[1] = (byte) MAGIC_1;
+        putInt(header, 2, length);
+        putInt(header, 6, (int) crc.getValue());
+        putInt(trailer, 0, length);
+        os.write(header);
+        os.write(data, offset, length);
+        os.write(trailer);
+        return length + OVERHEAD;
+    }
+
+    /**
+     * Truncate a framed file after its last valid frame, cutting a frame torn
+     * by a crash. Only the first bytes and the last MAX_RECORD_SIZE + OVERHEAD
+     * bytes are read, whatever the size of the file. A file which does not
+     * start with a frame is left as is. If no valid frame is found at the end
+     * the file is left as is too, readers skip the corrupt region, unless the
+     * file only holds a torn first frame.
+     *
+     * @return the length of the file, NOT_FRAMED if it does not start with a
+     *         frame
+     */
+    static long recover(String fileUrl) throws IOException {
+        if (!new File(fileUrl).exists()) {
+            return 0;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(fileUrl, "rw");
+        try {
+            long size = file.length();
+            int window = (int) Math.min(size, MAX_RECORD_SIZE + OVERHEAD);
+            if (window == 0) {
+                return 0;
+            }
+            if ((file.read() != MAGIC_0) || ((size > 1) && (file.read() != MAGIC_1))) {
+                return NOT_FRAMED;
+            }
+
+            long windowStart = size - window;
+            byte[] tail = new byte[window];
+            file.seek(windowStart);
+            file.readFully(tail);
+
+            // Fast path: the trailer points to a valid last frame
+            int length = getInt(tail, window - TRAILER_SIZE);
+            int start = window - OVERHEAD - length;
+            if ((length >= 0) && (start >= 0) && isFrame(tail, start, window)) {
+                return size;
+            }
+
+            // Find the last frame ending before the torn data
+            for (int i = window - OVERHEAD; i >= 0; i--) {
+                if (isFrame(tail, i, window)) {
+                    long end = windowStart + i + OVERHEAD + getInt(tail, i + 2);
+                    System.out.println("[fileUrl:" + fileUrl + "][size:" + size
+                            + "] torn frame, truncate to " + end);
+                    file.setLength(end);
+                    return end;
+                }
+            }
+
+            if ((windowStart == 0) && ((window < OVERHEAD) || isTorn(tail, 0, window))) {
+                // Only the start of a first frame was written
+                System.out.println("[fileUrl:" + fileUrl + "] torn first frame, truncate to 0");
+                file.setLength(0);
+                return 0;
+            }
+            return size;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Copy the lines of a framed stream, skipping the corrupt regions
+     *
+     * @return the number of bytes skipped
+     */
+    static long unframe(InputStream is, OutputStream os) throws IOException {
+        byte[] buffer = new byte[2 * (MAX_RECORD_SIZE + OVERHEAD)];
+        int start = 0;
+        int end = 0;
+        long skipped = 0;
+        boolean eof = false;
+
+        while (true) {
+            // Keep at least a whole frame in the buffer
+            if (!eof && (end - start < MAX_RECORD_SIZE + OVERHEAD)) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                int read;
+                while ((end < buffer.length) && ((read = is.read(buffer, end,
+                        buffer.length - end)) > 0)) {
+                    end += read;
+                }
+                eof = (end < buffer.length);
+            }
+            if (end - start < OVERHEAD) {
+                return skipped + (end - start);
+            }
+
+            if (isFrame(buffer, start, end)) {
+                int length = getInt(buffer, start + 2);
+                os.write(buffer, start + HEADER_SIZE, length);
+                start += length + OVERHEAD;
+            } else if (eof && isTorn(buffer, start, end)) {
+                // A frame cut by a crash at the end of the file, unless a
+                // valid frame follows: then its length is corrupt, go on
+                // with that frame
+                int next = findFrame(buffer, start + 1, end);
+                if (next < 0) {
+                    return skipped + (end - start);
+                }
+                skipped += next - start;
+                start = next;
+            } else {
+                // Corrupt region, look for the next magic
+                start++;
+                skipped++;
+                while ((start < end) && ((buffer[start] & 0xFF) != MAGIC_0)) {
+                    start++;
+                    skipped++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if a valid frame starts at offset and ends before limit
+     */
+    private static boolean isFrame(byte[] data, int offset, int limit) {
+        if ((offset + OVERHEAD > limit) || ((data[offset] & 0xFF) != MAGIC_0)
+                || ((data[offset + 1] & 0xFF) != MAGIC_1)) {
+            return false;
+        }
+        int length = getInt(data, offset + 2);
+        if ((length < 0) || (length > MAX_RECORD_SIZE)
+                || (offset + OVERHEAD + length > limit)
+                || (getInt(data, offset + HEADER_SIZE + length) != length)) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, offset + HEADER_SIZE, length);
+        return (int) crc.getValue() == getInt(data, offset + 6);
+    }
+
+    /**
+     * Return the offset of the first valid frame between offset and limit,
+     * -1 if there is none
+     */
+    private static int findFrame(byte[] data, int offset, int limit) {
+        for (int i = offset; i + OVERHEAD <= limit; i++) {
+            if (isFrame(data, i, limit)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return true if a frame header starts at offset but its frame goes past
+     * limit
+     */
+    private static boolean isTorn(byte[] data, int offset, int limit) {
+        if (((data[offset] & 0xFF) != MAGIC_0) || ((data[offset + 1] & 0xFF) != MAGIC_1)) {
+            return false;
+        }
+        int length = getInt(data, offset + 2);
+        return (length >= 0) && (length <= MAX_RECORD_SIZE)
+                && (offset + OVERHEAD + length > limit);
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,34 @@
+package com.android.common.logger;
+
+/**
+ * Decides when FileAppender rolls its log file over, see
+ * FileAppender.setRolloverPolicy. The methods are called holding the lock of
+ * the appender, isTriggered before each line, so it should only compare
+ * numbers computed in fileOpened.
+ */
+public interface RolloverPolicy {
+
+    /**
+     * Called when a log file is opened
+     *
+     * @param timeStamp the start time of the file: the current time for a new
+     *            file, the last modification time of an appended one
+     */
+    public void fileOpened(long timeStamp);
+
+    /**
+     * Return true if the log file must be rolled over before a line is
+     * written to it
+     *
+     * @param fileSize the number of bytes of the file
+     * @param timeStamp the time stamp of the line
+     */
+    public boolean isTriggered(long fileSize, long timeStamp);
+
+    /**
+     * Return the name of the time period of the log file, the rolled file is
+     * then named fileName.period.N.txt, or null to rotate the numbered
+     * shards fileName.N.txt
+     */
+    public String getPeriodName();
+}
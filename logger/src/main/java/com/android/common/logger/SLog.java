@@ -11,50 +11,65 @@ public class SLog {
     public static final String LOG_TAG = "[SLog]";
     private static boolean isDebug = true;
 
+    /**
+     * "[Pid:x][Tid:y]" of the current thread, built once per thread
+     */
+    private static final ThreadLocal<String> prefix = new ThreadLocal<String>() {
+        @Override
+        protected String initialValue() {
+            return "[Pid:" + android.os.Process.myPid() + "][Tid:" + android.os.Process.myTid() + "]";
+        }
+    };
+
     private static boolean isDebug() {
         return isDebug;
     }
 
+    private static String format(String strTag, String msg) {
+        return new StringBuilder(64).append(prefix.get())
+                .append('[').append(strTag).append("] ").append(msg).toString();
+    }
+
     public static void v(String strTag, String msg) {
         if (isDebug()) {
-            Log.v(LOG_TAG, "[Pid:" + android.os.Process.myPid() + "][Tid:" + android.os.Process.myTid() + "]" + "[" + strTag + "] " + msg);
+            Log.v(LOG_TAG, format(strTag, msg));
         }
     }
 
     public static void d(String strTag, String msg) {
         if (isDebug()) {
-            Log.d(LOG_TAG, "[Pid:" + android.os.Process.myPid() + "][Tid:" + android.os.Process.myTid() + "]" + "[" + strTag + "] " + msg);
+            Log.d(LOG_TAG, format(strTag, msg));
         }
 
     }
 
     public static void i(String strTag, String msg) {
         if (isDebug()) {
-            Log.i(LOG_TAG, "[Pid:" + android.os.Process.myPid() + "][Tid:" + android.os.Process.myTid() + "]" + "[" + strTag + "] " + msg);
+            Log.i(LOG_TAG, format(strTag, msg));
         }
     }
 
     public static void w(String strTag, String msg) {
         if (isDebug()) {
-            Log.w(LOG_TAG, "[Pid:" + android.os.Process.myPid() + "][Tid:" + android.os.Process.myTid() + "]" + "[" + strTag + "] " + msg);
+            Log.w(LOG_TAG, format(strTag, msg));
         }
     }
 
     public static void e(String strTag, String msg) {
         if (isDebug()) {
-            Log.e(LOG_TAG, "[Pid:" + android.os.Process.myPid() + "][Tid:" + android.os.Process.myTid() + "]" + "[" + strTag + "] " + msg);
+            Log.e(LOG_TAG, format(strTag, msg));
         }
     }
 
     public static void e(String strTag, String msg, Throwable e) {
         if (isDebug()) {
-            Log.e(LOG_TAG, "[Pid:" + android.os.Process.myPid() + "][Tid:" + android.os.Process.myTid() + "]" + "[" + strTag + "] " + msg, e);
+            Log.e(LOG_TAG, format(strTag, msg), e);
         }
     }
 
     public static void e(String strTag, Throwable e) {
         if (isDebug()) {
-            Log.e(LOG_TAG, "[Pid:" + android.os.Process.myPid() + "][Tid:" + android.os.Process.myTid() + "]" + "[" + strTag + "] " + (e != null ? e.getMessage() : " null msg"), e);
+            Log.e(LOG_TAG, format(strTag, e != null ? e.getMessage() : " null msg"), e);
         }
     }
 
@@ -0,0 +1,237 @@
+package com.android.common.logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Summary of a FileAppender log file, written next to it as
+ * fileName.txt.sum when the file is closed: the size of the file, the min
+ * and max time stamps, the number of lines per level and a Bloom filter of
+ * the tags. Searches and time range reads skip the files whose summary
+ * rules them out, without opening them. Like the time index, the summary of
+ * a compressed shard keeps its name without the ".gz".
+ */
+final class ShardSummary {
+
+    /**
+     * Suffix of the summary files
+     */
+    static final String SUFFIX = ".sum";
+
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int MAGIC = 0x534C5355;
+    private static final int VERSION = 1;
+
+    /**
+     * The Bloom filter has BLOOM_BITS bits set by BLOOM_HASHES hashes, few
+     * false positives for the tens of tags of a file
+     */
+    private static final int BLOOM_BITS = 2048;
+    private static final int BLOOM_HASHES = 3;
+
+    private static final String[] LEVEL_NAMES = { "ERROR", "WARN", "INFO", "DEBUG", "TRACE" };
+
+    /**
+     * Count of the lines without level, the profiling ones
+     */
+    private static final int OTHER_LEVEL = LEVEL_NAMES.length;
+
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private final int[] counts = new int[LEVEL_NAMES.length + 1];
+    private final long[] tags = new long[BLOOM_BITS / 64];
+
+    /**
+     * True when some lines have no known tag, the tags are then not filtered
+     */
+    private boolean untagged = false;
+
+    /**
+     * False when some lines of the file were not counted, the summary is
+     * then not written
+     */
+    private boolean complete = true;
+
+    /**
+     * Count a line
+     *
+     * @param level the level, Log.ERROR to Log.TRACE, other values for the
+     *            lines without level
+     * @param tag the tag, null if it is unknown
+     */
+    void add(long timeStamp, int level, String tag) {
+        minTime = Math.min(minTime, timeStamp);
+        maxTime = Math.max(maxTime, timeStamp);
+        counts[((level >= 0) && (level < OTHER_LEVEL)) ? level : OTHER_LEVEL]++;
+        if (null == tag) {
+            untagged = true;
+            return;
+        }
+        int hash = tag.hashCode();
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = bloomBit(hash, i);
+            tags[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Forget the summary, some lines were written by someone else
+     */
+    void setIncomplete() {
+        complete = false;
+    }
+
+    /**
+     * Return false if no line of the file can match the query
+     */
+    boolean mayMatch(LogQuery query) {
+        if (!mayOverlap(query.getFromMillis(), query.getToMillis())) {
+            return false;
+        }
+        if (query.isLevelFiltered()) {
+            int count = 0;
+            for (int i = 0; (i < OTHER_LEVEL) && (i <= query.getLevel()); i++) {
+                count += counts[i];
+            }
+            if (0 == count) {
+                return false;
+            }
+        }
+        return (null == query.getTag()) || untagged || mayContainTag(query.getTag());
+    }
+
+    /**
+     * Return false if no line of the file was logged between two times
+     */
+    boolean mayOverlap(long fromMillis, long toMillis) {
+        return (minTime <= toMillis) && (maxTime >= fromMillis);
+    }
+
+    private boolean mayContainTag(String tag) {
+        int hash = tag.hashCode();
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = bloomBit(hash, i);
+            if ((tags[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bit of the i-th hash, the hashes are derived from two mixes of the
+     * String hash
+     */
+    private static int bloomBit(int hash, int i) {
+        int h1 = hash * 0x9E3779B1;
+        int h2 = Integer.reverse(hash) * 0x85EBCA6B | 1;
+        return ((h1 + i * h2) >>> 1) % BLOOM_BITS;
+    }
+
+    /**
+     * Return the level of a level name, -1 for the other names
+     */
+    static int toLevel(String levelName) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equals(levelName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the tag of a "[app][tag]" param tag, null if it has another
+     * layout
+     */
+    static String toTag(String paramTag) {
+        int start = paramTag.indexOf("][");
+        int end = paramTag.lastIndexOf(']');
+        return ((start < 0) || (end < start + 2)) ? null : paramTag.substring(start + 2, end);
+    }
+
+    /**
+     * Return the name of the summary of a log file
+     */
+    static String toSummaryUrl(String fileUrl) {
+        if (fileUrl.endsWith(GZIP_SUFFIX)) {
+            fileUrl = fileUrl.substring(0, fileUrl.length() - GZIP_SUFFIX.length());
+        }
+        return fileUrl + SUFFIX;
+    }
+
+    /**
+     * Write the summary of a log file of fileSize bytes, if all its lines
+     * were counted
+     */
+    void write(String fileUrl, long fileSize) throws IOException {
+        if (!complete) {
+            return;
+        }
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(toSummaryUrl(fileUrl))));
+        try {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeLong(fileSize);
+            os.writeLong(minTime);
+            os.writeLong(maxTime);
+            for (int i = 0; i < counts.length; i++) {
+                os.writeInt(counts[i]);
+            }
+            os.writeBoolean(untagged);
+            for (int i = 0; i < tags.length; i++) {
+                os.writeLong(tags[i]);
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Read the summary of a log file, null if it has none
+     *
+     * @param fileSize the expected size of the file, -1 for any size
+     */
+    static ShardSummary read(String fileUrl, long fileSize) {
+        File file = new File(toSummaryUrl(fileUrl));
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream is = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if ((is.readInt() != MAGIC) || (is.readInt() != VERSION)) {
+                    return null;
+                }
+                long size = is.readLong();
+                if ((fileSize >= 0) && (size != fileSize)) {
+                    return null;
+                }
+                ShardSummary summary = new ShardSummary();
+                summary.minTime = is.readLong();
+                summary.maxTime = is.readLong();
+                for (int i = 0; i < summary.counts.length; i++) {
+                    summary.counts[i] = is.readInt();
+                }
+                summary.untagged = is.readBoolean();
+                for (int i = 0; i < summary.tags.length; i++) {
+                    summary.tags[i] = is.readLong();
+                }
+                return summary;
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            System.out.println("[fileUrl:" + fileUrl + "] read summary exception(IOException)");
+            return null;
+        }
+    }
+}
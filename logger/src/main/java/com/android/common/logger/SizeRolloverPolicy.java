@@ -0,0 +1,28 @@
+package com.android.common.logger;
+
+/**
+ * Rolls the log file over once it reaches a size, the default behavior of
+ * FileAppender
+ */
+public class SizeRolloverPolicy implements RolloverPolicy {
+
+    private final long maxFileSize;
+
+    /**
+     * @param maxFileSize the max size in bytes
+     */
+    public SizeRolloverPolicy(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void fileOpened(long timeStamp) {
+    }
+
+    public boolean isTriggered(long fileSize, long timeStamp) {
+        return fileSize >= maxFileSize;
+    }
+
+    public String getPeriodName() {
+        return null;
+    }
+}
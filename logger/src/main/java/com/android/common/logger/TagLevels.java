@@ -0,0 +1,142 @@
+package com.android.common.logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable set of per-tag log level overrides. An override set on "net"
+ * applies to "net", "net.http", "net.http.client"... unless a longer prefix
+ * has its own override. The level resolved for a tag is cached in a small
+ * 2-way set associative table checked by reference first (tags are mostly
+ * constants), then in a hash map, so a lookup is an array read and a compare,
+ * and two hot tags falling in the same set do not evict each other. The slot
+ * of a tag is created once, when the tag is first resolved, so a miss in the
+ * table does not allocate; LogImpl replaces the whole instance when the
+ * overrides change, which drops the caches.
+ */
+final class TagLevels {
+
+    /**
+     * The cache is dropped when it grows beyond this number of tags
+     */
+    private static final int MAX_CACHED_TAGS = 1024;
+
+    /**
+     * Cached value of the tags without override
+     */
+    private static final Integer NO_OVERRIDE = Integer.valueOf(Integer.MIN_VALUE);
+
+    /**
+     * Number of sets of the table, a power of two
+     */
+    static final int SETS = 128;
+
+    /**
+     * Immutable slot of the table, shared by the hash map
+     */
+    static final class Slot {
+        final String tag;
+        final Integer level;
+
+        Slot(String tag, Integer level) {
+            this.tag = tag;
+            this.level = level;
+        }
+    }
+
+    /**
+     * The two ways of set i are at 2 * i (most recent) and 2 * i + 1
+     */
+    final Slot[] slots = new Slot[SETS * 2];
+
+    private final HashMap<String, Integer> overrides;
+
+    private final ConcurrentHashMap<String, Slot> resolved =
+            new ConcurrentHashMap<String, Slot>();
+
+    private final int maxLevel;
+
+    TagLevels(Map<String, Integer> overrides) {
+        this.overrides = new HashMap<String, Integer>(overrides);
+        int max = Log.DISABLED;
+        for (Integer level : this.overrides.values()) {
+            max = Math.max(max, level.intValue());
+        }
+        this.maxLevel = max;
+    }
+
+    /**
+     * Return the most verbose level of the overrides
+     */
+    int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Return a copy of the overrides
+     */
+    HashMap<String, Integer> getOverrides() {
+        return new HashMap<String, Integer>(overrides);
+    }
+
+    /**
+     * Return the level that applies to the tag, defaultLevel if neither the
+     * tag nor any of its prefixes has an override
+     */
+    int getLevel(String tag, int defaultLevel) {
+        if (tag == null) {
+            return defaultLevel;
+        }
+        int index = (tag.hashCode() & (SETS - 1)) << 1;
+        Slot slot = slots[index];
+        if ((slot == null) || (slot.tag != tag)) {
+            slot = slots[index + 1];
+            if ((slot == null) || (slot.tag != tag)) {
+                slot = getSlot(tag);
+                // A tag built at run time never hits by reference, it would
+                // only evict a constant one
+                if (slot.tag == tag) {
+                    // The most recent way goes to the other one
+                    slots[index + 1] = slots[index];
+                    slots[index] = slot;
+                }
+            }
+        }
+        Integer level = slot.level;
+        return (level == NO_OVERRIDE) ? defaultLevel : level.intValue();
+    }
+
+    /**
+     * Return the slot of a tag from the hash map, resolving it on first use
+     */
+    private Slot getSlot(String tag) {
+        Slot slot = resolved.get(tag);
+        if (slot == null) {
+            slot = new Slot(tag, resolve(tag));
+            if (resolved.size() >= MAX_CACHED_TAGS) {
+                resolved.clear();
+            }
+            resolved.put(tag, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Look the tag up, then its prefixes cut at each '.' from the longest one
+     */
+    private Integer resolve(String tag) {
+        String prefix = tag;
+        while (true) {
+            Integer level = overrides.get(prefix);
+            if (level != null) {
+                return level;
+            }
+            int dot = prefix.lastIndexOf('.');
+            if (dot <= 0) {
+                return NO_OVERRIDE;
+            }
+            prefix = prefix.substring(0, dot);
+        }
+    }
+}
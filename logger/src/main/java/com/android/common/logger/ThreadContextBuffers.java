@@ -0,0 +1,99 @@
+package com.android.common.logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-thread error context caches, used by LogImpl when the context mode is
+ * Log.CONTEXT_PER_THREAD or Log.CONTEXT_PER_THREAD_MERGED. Each thread
+ * captures into its own ContextBuffer, found through a ThreadLocal on the
+ * logging thread, so threads never contend and a chatty thread cannot push
+ * out the context of another one. Buffers are registered by thread id so the
+ * async consumer and the dump can reach them too.
+ */
+final class ThreadContextBuffers {
+
+    /**
+     * Max number of per-thread buffers, the least recently used one is
+     * dropped beyond that
+     */
+    static final int MAX_THREADS = 64;
+
+    private final int capacity;
+
+    private final ConcurrentHashMap<Long, ContextBuffer> buffers =
+            new ConcurrentHashMap<Long, ContextBuffer>();
+
+    private final ThreadLocal<ContextBuffer> local = new ThreadLocal<ContextBuffer>();
+
+    /**
+     * @param capacity number of entries kept for each thread
+     */
+    ThreadContextBuffers(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Store an event in the context of the thread that logged it
+     */
+    void capture(LogEvent event) {
+        get(event.getThreadId(), true).capture(event);
+    }
+
+    /**
+     * Return the buffer of a thread, creating it if create is true, or null
+     */
+    ContextBuffer get(long threadId, boolean create) {
+        boolean owner = (threadId == Thread.currentThread().getId());
+        if (owner) {
+            ContextBuffer buffer = local.get();
+            if ((buffer != null) && !buffer.evicted) {
+                return buffer;
+            }
+        }
+
+        Long key = Long.valueOf(threadId);
+        ContextBuffer buffer = buffers.get(key);
+        if ((buffer == null) && create) {
+            buffer = new ContextBuffer(capacity);
+            ContextBuffer previous = buffers.putIfAbsent(key, buffer);
+            if (previous != null) {
+                buffer = previous;
+            } else if (buffers.size() > MAX_THREADS) {
+                evictIdlest(key);
+            }
+        }
+        if (owner && (buffer != null)) {
+            local.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Return all the registered buffers
+     */
+    List<ContextBuffer> getAll() {
+        return new ArrayList<ContextBuffer>(buffers.values());
+    }
+
+    private void evictIdlest(Long keep) {
+        Map.Entry<Long, ContextBuffer> idlest = null;
+        Iterator<Map.Entry<Long, ContextBuffer>> it = buffers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, ContextBuffer> entry = it.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            if ((idlest == null)
+                    || (entry.getValue().lastTimeStamp < idlest.getValue().lastTimeStamp)) {
+                idlest = entry;
+            }
+        }
+        if ((idlest != null) && buffers.remove(idlest.getKey(), idlest.getValue())) {
+            idlest.getValue().evicted = true;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.android.common.logger;
+
+import java.util.Calendar;
+
+/**
+ * Renders log time stamps as "yyyy-MM-dd HH:mm:ss.SSS" in the default time
+ * zone. The "yyyy-MM-dd HH:mm:ss." prefix is computed once per second and
+ * kept in an immutable snapshot, so most calls only copy it and patch the
+ * three millisecond digits, without Date, Calendar or SimpleDateFormat.
+ * All the methods are thread safe.
+ */
+final class TimeFormatter {
+
+    /**
+     * Number of chars of a formatted time stamp
+     */
+    static final int LENGTH = 23;
+
+    /**
+     * Number of chars of the cached prefix, up to the '.' before the millis
+     */
+    private static final int PREFIX_LENGTH = 20;
+
+    /**
+     * The formatted prefix of one second
+     */
+    private static final class Second {
+        final long second;
+        final char[] prefix;
+
+        Second(long second, char[] prefix) {
+            this.second = second;
+            this.prefix = prefix;
+        }
+    }
+
+    private static volatile Second sLast = new Second(Long.MIN_VALUE, null);
+
+    /**
+     * Only used to render a new second, guarded by itself
+     */
+    private static final Calendar sCalendar = Calendar.getInstance();
+
+    /**
+     * This class is static and cannot be intantiated
+     */
+    private TimeFormatter() {
+    }
+
+    /**
+     * Append the formatted time stamp to a StringBuilder
+     */
+    static void append(StringBuilder sb, long timeStamp) {
+        Second second = getSecond(timeStamp);
+        int millis = millis(timeStamp);
+        sb.append(second.prefix)
+          .append((char) ('0' + millis / 100))
+          .append((char) ('0' + (millis / 10) % 10))
+          .append((char) ('0' + millis % 10));
+    }
+
+    /**
+     * Write the formatted time stamp in a char buffer, return the index
+     * following the last written char
+     */
+    static int write(long timeStamp, char[] buffer, int offset) {
+        Second second = getSecond(timeStamp);
+        int millis = millis(timeStamp);
+        System.arraycopy(second.prefix, 0, buffer, offset, PREFIX_LENGTH);
+        offset += PREFIX_LENGTH;
+        buffer[offset++] = (char) ('0' + millis / 100);
+        buffer[offset++] = (char) ('0' + (millis / 10) % 10);
+        buffer[offset++] = (char) ('0' + millis % 10);
+        return offset;
+    }
+
+    /**
+     * Write the formatted time stamp as ASCII in a byte buffer, return the
+     * index following the last written byte
+     */
+    static int write(long timeStamp, byte[] buffer, int offset) {
+        Second second = getSecond(timeStamp);
+        int millis = millis(timeStamp);
+        char[] prefix = second.prefix;
+        for (int i = 0; i < PREFIX_LENGTH; i++) {
+            buffer[offset++] = (byte) prefix[i];
+        }
+        buffer[offset++] = (byte) ('0' + millis / 100);
+        buffer[offset++] = (byte) ('0' + (millis / 10) % 10);
+        buffer[offset++] = (byte) ('0' + millis % 10);
+        return offset;
+    }
+
+    /**
+     * Return the formatted time stamp
+     */
+    static String format(long timeStamp) {
+        char[] buffer = new char[LENGTH];
+        write(timeStamp, buffer, 0);
+        return new String(buffer);
+    }
+
+    /**
+     * Parses the time stamps written by TimeFormatter at the start of the
+     * log lines. The second is computed with a Calendar only when it changes
+     * from the previous line. A Parser is not thread safe.
+     */
+    static final class Parser {
+        private final Calendar calendar = Calendar.getInstance();
+        private final byte[] lastPrefix = new byte[PREFIX_LENGTH];
+        private long lastSecond = Long.MIN_VALUE;
+
+        /**
+         * Return the time stamp at the start of a line, -1 if the line does
+         * not start with a time stamp
+         */
+        long parse(byte[] line, int length) {
+            if ((length < LENGTH) || !isTimeStamp(line)) {
+                return -1;
+            }
+
+            if ((lastSecond == Long.MIN_VALUE) || !samePrefix(line)) {
+                calendar.clear();
+                calendar.set(digits(line, 0, 4), digits(line, 5, 2) - 1, digits(line, 8, 2),
+                        digits(line, 11, 2), digits(line, 14, 2), digits(line, 17, 2));
+                lastSecond = calendar.getTimeInMillis();
+                System.arraycopy(line, 0, lastPrefix, 0, PREFIX_LENGTH);
+            }
+            return lastSecond + digits(line, PREFIX_LENGTH, 3);
+        }
+
+        private boolean samePrefix(byte[] line) {
+            for (int i = PREFIX_LENGTH - 2; i >= 0; i--) {
+                if (line[i] != lastPrefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Check the "dddd-dd-dd dd:dd:dd.ddd" layout
+         */
+        private static boolean isTimeStamp(byte[] line) {
+            for (int i = 0; i < LENGTH; i++) {
+                byte b = line[i];
+                switch (i) {
+                    case 4:
+                    case 7:
+                        if (b != '-') {
+                            return false;
+                        }
+                        break;
+                    case 10:
+                        if (b != ' ') {
+                            return false;
+                        }
+                        break;
+                    case 13:
+                    case 16:
+                        if (b != ':') {
+                            return false;
+                        }
+                        break;
+                    case 19:
+                        if (b != '.') {
+                            return false;
+                        }
+                        break;
+                    default:
+                        if ((b < '0') || (b > '9')) {
+                            return false;
+                        }
+                        break;
+                }
+            }
+            return true;
+        }
+
+        private static int digits(byte[] line, int offset, int count) {
+            int value = 0;
+            for (int i = offset; i < offset + count; i++) {
+                value = value * 10 + (line[i] - '0');
+            }
+            return value;
+        }
+    }
+
+    private static int millis(long timeStamp) {
+        int millis = (int) (timeStamp % 1000);
+        return (millis < 0) ? millis + 1000 : millis;
+    }
+
+    private static Second getSecond(long timeStamp) {
+        long second = (timeStamp - millis(timeStamp)) / 1000;
+        Second last = sLast;
+        if (last.second == second) {
+            return last;
+        }
+
+        char[] prefix = new char[PREFIX_LENGTH];
+        synchronized (sCalendar) {
+            sCalendar.setTimeInMillis(second * 1000);
+            put4(prefix, 0, sCalendar.get(Calendar.YEAR));
+            prefix[4] = '-';
+            put2(prefix, 5, sCalendar.get(Calendar.MONTH) + 1);
+            prefix[7] = '-';
+            put2(prefix, 8, sCalendar.get(Calendar.DAY_OF_MONTH));
+            prefix[10] = ' ';
+            put2(prefix, 11, sCalendar.get(Calendar.HOUR_OF_DAY));
+            prefix[13] = ':';
+            put2(prefix, 14, sCalendar.get(Calendar.MINUTE));
+            prefix[16] = ':';
+            put2(prefix, 17, sCalendar.get(Calendar.SECOND));
+            prefix[19] = '.';
+        }
+        last = new Second(second, prefix);
+        sLast = last;
+        return last;
+    }
+
+    private static void put2(char[] chars, int offset, int value) {
+        chars[offset] = (char) ('0' + value / 10);
+        chars[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    private static void put4(char[] chars, int offset, int value) {
+        put2(chars, offset, (value / 100) % 100);
+        put2(chars, offset + 2, value % 100);
+    }
+}
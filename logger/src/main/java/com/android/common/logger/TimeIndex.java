@@ -0,0 +1,193 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Sparse time index of a FileAppender log file, written next to it as
+ * fileName.txt.idx. The index is a list of entries of two big endian longs:
+ * the time stamp of a line and its offset in the log file, one entry at most
+ * every INTERVAL bytes. The index of a compressed shard keeps its name
+ * without the ".gz" and its offsets are those of the uncompressed file.
+ */
+final class TimeIndex {
+
+    /**
+     * Suffix of the index files
+     */
+    static final String SUFFIX = ".idx";
+
+    /**
+     * Min number of log bytes between two entries
+     */
+    static final int INTERVAL = 4 * 1024;
+
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int ENTRY_SIZE = 16;
+
+    private final RandomAccessFile file;
+    private final byte[] entry = new byte[ENTRY_SIZE];
+    private long nextOffset;
+
+    private TimeIndex(RandomAccessFile file, long nextOffset) {
+        this.file = file;
+        this.nextOffset = nextOffset;
+    }
+
+    /**
+     * Open the index of a log file to append entries. The entries past the
+     * size of the log file, left by a crash or a truncated file, are dropped.
+     *
+     * @param fileUrl the log file
+     * @param fileSize the size of the log file
+     * @param truncate true if the log file starts over
+     */
+    static TimeIndex open(String fileUrl, long fileSize, boolean truncate) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(toIndexUrl(fileUrl), "rw");
+        try {
+            long length = 0;
+            if (!truncate) {
+                long[] entries = read(file);
+                length = count(entries, fileSize) * ENTRY_SIZE;
+            }
+            if (file.length() != length) {
+                file.setLength(length);
+            }
+            file.seek(length);
+            return new TimeIndex(file, fileSize);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Add an entry for the line written at offset, if INTERVAL bytes were
+     * written since the last entry
+     */
+    void add(long timeStamp, long offset) throws IOException {
+        if (offset < nextOffset) {
+            return;
+        }
+        putLong(entry, 0, timeStamp);
+        putLong(entry, 8, offset);
+        file.write(entry);
+        nextOffset = offset + INTERVAL;
+    }
+
+    void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Return the name of the index of a log file
+     */
+    static String toIndexUrl(String fileUrl) {
+        if (fileUrl.endsWith(GZIP_SUFFIX)) {
+            fileUrl = fileUrl.substring(0, fileUrl.length() - GZIP_SUFFIX.length());
+        }
+        return fileUrl + SUFFIX;
+    }
+
+    /**
+     * Return the part of a log file holding the lines logged between
+     * fromMillis and toMillis, as {offset, length}, length being -1 up to the
+     * end of the file. The part is a superset of the range, by up to INTERVAL
+     * bytes at each end. The whole file is returned when it has no index, and
+     * null when it does not exist or the range is before its first entry.
+     * An index opened on a log file which already had lines starts past
+     * them: the times of the lines before its first entry are unknown, so
+     * they are always part of the range.
+     */
+    static long[] range(String fileUrl, long fromMillis, long toMillis) {
+        File logFile = new File(fileUrl);
+        if (!logFile.exists()) {
+            return null;
+        }
+
+        long[] entries;
+        try {
+            RandomAccessFile file = new RandomAccessFile(toIndexUrl(fileUrl), "r");
+            try {
+                entries = read(file);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            // No index, read the whole file
+            return new long[] { 0, -1 };
+        }
+
+        // The uncompressed size of a shard is unknown, its offsets are trusted
+        long size = fileUrl.endsWith(GZIP_SUFFIX) ? Long.MAX_VALUE : logFile.length();
+        int count = count(entries, size);
+        if (count == 0) {
+            return new long[] { 0, -1 };
+        }
+        if ((entries[0] > toMillis) && (entries[1] == 0)) {
+            return null;
+        }
+
+        int i = 0;
+        long start = 0;
+        while ((i < count) && (entries[2 * i] < fromMillis)) {
+            start = entries[2 * i + 1];
+            i++;
+        }
+        while ((i < count) && (entries[2 * i] <= toMillis)) {
+            i++;
+        }
+        long length = (i < count) ? (entries[2 * i + 1] - start) : -1;
+        return new long[] { start, length };
+    }
+
+    /**
+     * Read the entries of an index as {timeStamp, offset} pairs, ignoring a
+     * torn last entry
+     */
+    private static long[] read(RandomAccessFile file) throws IOException {
+        int count = (int) (file.length() / ENTRY_SIZE);
+        byte[] data = new byte[count * ENTRY_SIZE];
+        file.seek(0);
+        file.readFully(data);
+
+        long[] entries = new long[2 * count];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = getLong(data, 8 * i);
+        }
+        return entries;
+    }
+
+    /**
+     * Return the number of leading entries with increasing offsets below the
+     * size of the log file
+     */
+    private static int count(long[] entries, long size) {
+        int count = 0;
+        long last = -1;
+        while (2 * count < entries.length) {
+            long offset = entries[2 * count + 1];
+            if ((offset <= last) || (offset >= size)) {
+                break;
+            }
+            last = offset;
+            count++;
+        }
+        return count;
+    }
+
+    private static void putLong(byte[] data, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            data[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
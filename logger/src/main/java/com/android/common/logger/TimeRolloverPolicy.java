@@ -0,0 +1,89 @@
+package com.android.common.logger;
+
+import java.util.Calendar;
+
+/**
+ * Rolls the log file over at the start of each hour or each day, in the
+ * default time zone. The next boundary is computed when the file is opened,
+ * so the check of a line is a single compare. The rolled files are named
+ * with their period, "yyyy-MM-dd-HH" or "yyyy-MM-dd".
+ */
+public class TimeRolloverPolicy implements RolloverPolicy {
+
+    public static final int HOURLY = 0;
+    public static final int DAILY  = 1;
+
+    private final int period;
+    private final Calendar calendar = Calendar.getInstance();
+    private long nextBoundary = Long.MAX_VALUE;
+    private String periodName = null;
+
+    /**
+     * @param period HOURLY or DAILY
+     */
+    public TimeRolloverPolicy(int period) {
+        if ((period != HOURLY) && (period != DAILY)) {
+            throw new IllegalArgumentException("[period:" + period + "] unknown period");
+        }
+        this.period = period;
+    }
+
+    public void fileOpened(long timeStamp) {
+        calendar.setTimeInMillis(timeStamp);
+        if (period == DAILY) {
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+        }
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+
+        StringBuilder name = new StringBuilder(13);
+        name.append(calendar.get(Calendar.YEAR)).append('-');
+        append2(name, calendar.get(Calendar.MONTH) + 1).append('-');
+        append2(name, calendar.get(Calendar.DAY_OF_MONTH));
+        if (period == HOURLY) {
+            append2(name.append('-'), calendar.get(Calendar.HOUR_OF_DAY));
+        }
+        periodName = name.toString();
+
+        calendar.add((period == HOURLY) ? Calendar.HOUR_OF_DAY : Calendar.DAY_OF_MONTH, 1);
+        nextBoundary = calendar.getTimeInMillis();
+    }
+
+    public boolean isTriggered(long fileSize, long timeStamp) {
+        return timeStamp >= nextBoundary;
+    }
+
+    public String getPeriodName() {
+        return periodName;
+    }
+
+    private static StringBuilder append2(StringBuilder sb, int value) {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Return the start and the end of a period name, as {start, end} in
+     * milliseconds, null if the name is not a period
+     */
+    static long[] parsePeriod(String name) {
+        if (((name.length() != 10) && (name.length() != 13)) || (name.charAt(4) != '-')
+                || (name.charAt(7) != '-')) {
+            return null;
+        }
+        try {
+            Calendar calendar = Calendar.getInstance();
+            calendar.clear();
+            boolean hourly = (name.length() == 13);
+            calendar.set(Integer.parseInt(name.substring(0, 4)),
+                    Integer.parseInt(name.substring(5, 7)) - 1,
+                    Integer.parseInt(name.substring(8, 10)),
+                    hourly ? Integer.parseInt(name.substring(11, 13)) : 0, 0, 0);
+            long start = calendar.getTimeInMillis();
+            calendar.add(hourly ? Calendar.HOUR_OF_DAY : Calendar.DAY_OF_MONTH, 1);
+            return new long[] { start, calendar.getTimeInMillis() };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
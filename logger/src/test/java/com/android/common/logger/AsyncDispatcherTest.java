@@ -0,0 +1,205 @@
+package com.android.common.logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ring buffer of the asynchronous mode: wraparound, a full ring, shutdown
+ * and drain
+ */
+public class AsyncDispatcherTest {
+
+    private static final String TAG = "ring";
+
+    private static LogImpl createLog(RecordingAppender appender, int waitStrategy) {
+        LogImpl log = new LogImpl();
+        log.initLog("test", appender, Log.TRACE);
+        log.enableAsyncMode(16, waitStrategy);
+        return log;
+    }
+
+    private static void assertSequence(List<String> messages, String prefix, int count) {
+        assertEquals(count, messages.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(prefix + i, messages.get(i));
+        }
+    }
+
+    @Test
+    public void wraparound() {
+        int[] strategies = { Log.ASYNC_WAIT_BLOCKING, Log.ASYNC_WAIT_SLEEPING,
+                Log.ASYNC_WAIT_YIELDING };
+        for (int strategy : strategies) {
+            RecordingAppender appender = new RecordingAppender(TAG, true);
+            LogImpl log = createLog(appender, strategy);
+            // Many times around the 16 slots
+            for (int i = 0; i < 1000; i++) {
+                log.log(Log.INFO, TAG, "message {}", i);
+            }
+            log.disableAsyncMode();
+            assertSequence(appender.messages, "message ", 1000);
+        }
+    }
+
+    @Test
+    public void fullRingWaits() throws InterruptedException {
+        final RecordingAppender appender = new RecordingAppender(TAG, false);
+        final LogImpl log = createLog(appender, Log.ASYNC_WAIT_BLOCKING);
+        final AtomicInteger published = new AtomicInteger();
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 40; i++) {
+                    log.info(TAG, "message " + i);
+                    published.incrementAndGet();
+                }
+            }
+        };
+        producer.start();
+
+        // The consumer holds the first slot, the producer fills the others
+        // and waits instead of dropping messages
+        assertTrue(appender.entered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        assertEquals(16, published.get());
+        assertTrue(producer.isAlive());
+
+        appender.gate.countDown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        log.disableAsyncMode();
+        assertSequence(appender.messages, "message ", 40);
+    }
+
+    @Test
+    public void shutdownWhilePublishing() throws InterruptedException {
+        final RecordingAppender appender = new RecordingAppender(TAG, true);
+        final LogImpl log = createLog(appender, Log.ASYNC_WAIT_SLEEPING);
+        final int threads = 4;
+        final int messages = 5000;
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            producers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < messages; i++) {
+                        log.log(Log.INFO, TAG, "t" + id + " {}", i);
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        Thread.sleep(5);
+        log.disableAsyncMode();
+        for (Thread producer : producers) {
+            producer.join(10000);
+            assertFalse(producer.isAlive());
+        }
+
+        // No message lost, each thread in order
+        assertEquals(threads * messages, appender.size());
+        for (int t = 0; t < threads; t++) {
+            List<String> own = new ArrayList<String>();
+            for (String message : appender.messages) {
+                if (message.startsWith("t" + t + " ")) {
+                    own.add(message);
+                }
+            }
+            assertSequence(own, "t" + t + " ", messages);
+        }
+    }
+
+    @Test
+    public void disableKeepsOrder() throws InterruptedException {
+        final RecordingAppender appender = new RecordingAppender(TAG, false);
+        final LogImpl log = createLog(appender, Log.ASYNC_WAIT_BLOCKING);
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    log.info(TAG, "message " + i);
+                }
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // Async mode is going away, these come after the queued ones
+                for (int i = 5; i < 10; i++) {
+                    log.info(TAG, "message " + i);
+                }
+            }
+        };
+        producer.start();
+        assertTrue(appender.entered.await(5, TimeUnit.SECONDS));
+        Thread disabler = new Thread() {
+            public void run() {
+                log.disableAsyncMode();
+            }
+        };
+        disabler.start();
+        Thread.sleep(400);
+
+        appender.gate.countDown();
+        producer.join(10000);
+        disabler.join(10000);
+        assertFalse(log.isAsyncMode());
+        assertSequence(appender.messages, "message ", 10);
+    }
+
+    @Test
+    public void drainTimeout() throws InterruptedException {
+        RecordingAppender appender = new RecordingAppender(TAG, false);
+        LogImpl log = new LogImpl();
+        log.initLog("test", appender, Log.TRACE);
+        AsyncDispatcher dispatcher = new AsyncDispatcher(log, 16, Log.ASYNC_WAIT_BLOCKING);
+        dispatcher.start();
+        assertTrue(dispatcher.publish("test", TAG, Log.INFO, "INFO", "stuck", null, null,
+                null, 0, 0, 0, null));
+        assertTrue(appender.entered.await(5, TimeUnit.SECONDS));
+
+        // The appender never returns, drain gives up instead of hanging
+        long start = System.currentTimeMillis();
+        dispatcher.drain();
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, (elapsed >= 4900) && (elapsed < 8000));
+        assertEquals(0, appender.size());
+
+        appender.gate.countDown();
+        dispatcher.shutdown();
+        assertEquals(1, appender.size());
+        assertEquals("stuck", appender.messages.get(0));
+    }
+
+    @Test
+    public void consumerLogsWithFullRing() throws InterruptedException {
+        final RecordingAppender appender = new RecordingAppender(TAG, true);
+        final LogImpl log = createLog(appender, Log.ASYNC_WAIT_BLOCKING);
+        Thread producer = new Thread() {
+            public void run() {
+                // The supplier runs on the consumer thread and logs more
+                // messages than the ring holds
+                log.log(Log.INFO, TAG, new MessageSupplier() {
+                    public String get() {
+                        for (int i = 0; i < 40; i++) {
+                            log.info(TAG, "inner " + i);
+                        }
+                        return "outer";
+                    }
+                });
+                log.disableAsyncMode();
+            }
+        };
+        producer.start();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+
+        assertEquals(41, appender.size());
+        assertSequence(appender.messages.subList(0, 40), "inner ", 40);
+        assertEquals("outer", appender.messages.get(40));
+    }
+}
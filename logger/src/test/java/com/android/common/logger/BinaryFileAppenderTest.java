@@ -0,0 +1,289 @@
+package com.android.common.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binary log files written by BinaryFileAppender and decoded back to the
+ * text layout of FileAppender
+ */
+public class BinaryFileAppenderTest {
+
+    private static BinaryFileAppender createLog(File dir, int backup) {
+        BinaryFileAppender appender = new BinaryFileAppender(dir.getPath(), "b", backup);
+        appender.setLogContentType(true);
+        appender.initLogFile();
+        return appender;
+    }
+
+    private static String content(BinaryFileAppender appender) throws IOException {
+        return appender.getLogContent().getContent();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = is.read(buffer)) > 0) {
+                os.write(buffer, 0, length);
+            }
+            return os.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void appendFile(File file, byte[] bytes) throws IOException {
+        FileOutputStream os = new FileOutputStream(file, true);
+        try {
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Return the number of records of a type in a binary log file
+     */
+    private static int countRecords(File file, int type) throws IOException {
+        byte[] data = readFile(file);
+        BinaryLogFormat.Reader reader = new BinaryLogFormat.Reader(data,
+                BinaryLogFormat.MAGIC.length + 1, data.length);
+        int count = 0;
+        while (reader.hasRemaining()) {
+            long length = reader.readVarint();
+            if (reader.readByte() == type) {
+                count++;
+            }
+            for (long i = 1; i < length; i++) {
+                reader.readByte();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the event as written by FileAppender
+     */
+    private static String toText(LogEvent event) {
+        StringBuilder sb = new StringBuilder();
+        TimeFormatter.append(sb, event.getTimeStamp());
+        sb.append(" [").append(event.getLevelName()).append("] ");
+        event.appendParamTag(sb);
+        event.appendMessage(sb);
+        return sb.append("\r\n").toString();
+    }
+
+    /**
+     * An event of another thread, so its text does not use the cached line
+     * prefix of the current one
+     */
+    private static LogEvent header(long timeStamp, String location, Throwable throwable) {
+        LogEvent event = new LogEvent();
+        event.set("app", "net.http", Log.INFO, "INFO", timeStamp, 1L << 40, location,
+                throwable);
+        return event;
+    }
+
+    private static LogEvent event(long timeStamp, String format, Object... args) {
+        LogEvent event = header(timeStamp, null, null);
+        event.setMessage(format, args, 0, 0, 0, null);
+        return event;
+    }
+
+    private static LogEvent event(long timeStamp, String format, long arg1, long arg2,
+            int primitiveArgs) {
+        LogEvent event = header(timeStamp, "Main.run(Main.java:10)", null);
+        event.setMessage(format, null, arg1, arg2, primitiveArgs, null);
+        return event;
+    }
+
+    @Test
+    public void eventsDecoded() throws IOException {
+        File dir = TestFiles.createDir("binary-events");
+        BinaryFileAppender appender = createLog(dir, 2);
+        try {
+            long now = 1729994400123L;
+            LogEvent[] events = {
+                // Each argument tag
+                event(now, "null {} long {} int {} short {} byte {}", null,
+                        Long.valueOf(Long.MIN_VALUE), Integer.valueOf(-7),
+                        Short.valueOf((short) 300), Byte.valueOf((byte) -1)),
+                event(now + 1, "double {} {} {} {}", Double.valueOf(-0.0),
+                        Double.valueOf(Double.NaN), Double.valueOf(1e300),
+                        Double.valueOf(Double.NEGATIVE_INFINITY)),
+                event(now + 2, "float {} {} boolean {} {}", Float.valueOf(1.5f),
+                        Float.valueOf(Float.MIN_VALUE), Boolean.TRUE, Boolean.FALSE),
+                event(now + 3, "string {} object {} array {}", "été 😀 \ud83d",
+                        new StringBuilder("built"), new int[] { 1, 2 }),
+                // Primitive arguments, without boxing
+                event(now + 4, "one {}", -42, 0, 1),
+                event(now + 5, "two {} {}", Long.MAX_VALUE, Long.MIN_VALUE, 2),
+                // Time going back, a negative delta
+                event(now - 86400000L, "earlier {}", "day"),
+            };
+            LogEvent plain = header(now + 6, null, new IOException("failure"));
+            plain.getMessageBuffer().append("plain message, no argument");
+
+            StringBuilder expected = new StringBuilder();
+            for (LogEvent event : events) {
+                appender.writeLogEvent(event);
+                expected.append(toText(event));
+            }
+            appender.writeLogEvent(plain);
+            expected.append(toText(plain));
+
+            // Unpaired surrogates are written as '?' in both layouts
+            assertEquals(new String(expected.toString().getBytes("UTF-8"), "UTF-8"),
+                    content(appender));
+        } finally {
+            appender.closeLogFile();
+            appender.deleteLogFile();
+        }
+    }
+
+    @Test
+    public void stringTableCap() throws IOException {
+        File dir = TestFiles.createDir("binary-strings");
+        BinaryFileAppender appender = createLog(dir, 0);
+        appender.setMaxFileSize(64 * 1024 * 1024);
+        int count = BinaryFileAppender.MAX_STRINGS + 500;
+        try {
+            for (int i = 0; i < count; i++) {
+                appender.writeLogMessage("[tag" + i + "]", "INFO", "message " + i);
+            }
+            // Tags of the table and inline ones, mixed
+            for (int i = 0; i < count; i += 97) {
+                appender.writeLogMessage("[tag" + i + "]", "WARN", "again " + i);
+            }
+            String[] lines = content(appender).split("\r\n");
+            int index = 0;
+            for (int i = 0; i < count; i++) {
+                assertTrue(lines[index],
+                        lines[index].endsWith(" [INFO] [tag" + i + "]message " + i));
+                index++;
+            }
+            for (int i = 0; i < count; i += 97) {
+                assertTrue(lines[index],
+                        lines[index].endsWith(" [WARN] [tag" + i + "]again " + i));
+                index++;
+            }
+            assertEquals(lines.length, index);
+
+            // The table stops at its cap
+            appender.closeLogFile();
+            assertEquals(BinaryFileAppender.MAX_STRINGS,
+                    countRecords(new File(dir, "b.blog"), BinaryLogFormat.TYPE_STRING));
+        } finally {
+            appender.closeLogFile();
+            appender.deleteLogFile();
+        }
+    }
+
+    @Test
+    public void tornRecordRecovered() throws IOException {
+        File dir = TestFiles.createDir("binary-torn");
+        File file = new File(dir, "b.blog");
+        BinaryFileAppender appender = createLog(dir, 2);
+        try {
+            appender.writeLogMessage("[test]", "INFO", "before crash");
+            appender.closeLogFile();
+            long length = file.length();
+
+            // A record cut by a crash: its length announces more bytes
+            appendFile(file, new byte[] { 50, BinaryLogFormat.TYPE_TEXT, 1, 2 });
+            appender.initLogFile();
+            appender.writeLogMessage("[test]", "INFO", "after restart");
+            appender.closeLogFile();
+
+            byte[] data = readFile(file);
+            assertTrue(data.length > length);
+            // The torn bytes are gone, the new records follow the old ones
+            assertEquals(0, BinaryLogDecoder.recover(file.getPath()) - data.length);
+            String[] lines = content(appender).split("\r\n");
+            assertEquals(2, lines.length);
+            assertTrue(lines[0].endsWith("[INFO] [test]before crash"));
+            assertTrue(lines[1].endsWith("[INFO] [test]after restart"));
+        } finally {
+            appender.deleteLogFile();
+        }
+    }
+
+    @Test
+    public void notBinaryKept() throws IOException {
+        File dir = TestFiles.createDir("binary-old");
+        appendFile(new File(dir, "b.blog"), "a text log\r\n".getBytes("UTF-8"));
+        BinaryFileAppender appender = createLog(dir, 2);
+        try {
+            appender.writeLogMessage("[test]", "INFO", "binary");
+            assertTrue(content(appender).endsWith("[INFO] [test]binary\r\n"));
+            assertEquals("a text log\r\n",
+                    new String(readFile(new File(dir, "b.old1.blog")), "UTF-8"));
+        } finally {
+            appender.closeLogFile();
+            appender.deleteLogFile();
+        }
+    }
+
+    @Test
+    public void rotatedByWorker() throws IOException {
+        File dir = TestFiles.createDir("binary-rotate");
+        BinaryFileAppender appender = createLog(dir, 2);
+        appender.setMaxFileSize(2048);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                appender.writeLogMessage("[test]", "INFO", "line " + i);
+            }
+            String[] lines = content(appender).split("\r\n");
+            assertTrue(lines.length < 1000);
+            // The newest lines with no gap, across the shards
+            int first = 1000 - lines.length;
+            for (int i = 0; i < lines.length; i++) {
+                assertTrue(lines[i], lines[i].endsWith("]line " + (first + i)));
+            }
+            String[] names = dir.list();
+            Arrays.sort(names);
+            assertArrayEquals(new String[] { "b.1.blog", "b.2.blog", "b.blog" }, names);
+        } finally {
+            appender.closeLogFile();
+            appender.deleteLogFile();
+        }
+    }
+
+    @Test
+    public void leftoverRotated() throws IOException {
+        File dir = TestFiles.createDir("binary-leftover");
+        BinaryFileAppender appender = createLog(dir, 2);
+        appender.writeLogMessage("[test]", "INFO", "left by a crash");
+        appender.closeLogFile();
+        // Renamed aside by a run that ended before its rotation
+        assertTrue(new File(dir, "b.blog").renameTo(new File(dir, "b.rolled7.blog")));
+
+        appender = new BinaryFileAppender(dir.getPath(), "b", 2);
+        appender.setLogContentType(true);
+        appender.initLogFile();
+        try {
+            appender.writeLogMessage("[test]", "INFO", "new run");
+            String[] lines = content(appender).split("\r\n");
+            assertEquals(2, lines.length);
+            assertTrue(lines[0].endsWith("]left by a crash"));
+            assertTrue(lines[1].endsWith("]new run"));
+            assertTrue(new File(dir, "b.1.blog").exists());
+            assertFalse(new File(dir, "b.rolled7.blog").exists());
+        } finally {
+            appender.closeLogFile();
+            appender.deleteLogFile();
+        }
+    }
+}
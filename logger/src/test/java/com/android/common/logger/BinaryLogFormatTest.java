@@ -0,0 +1,158 @@
+package com.android.common.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encoding of the binary log fields, read back by the record reader
+ */
+public class BinaryLogFormatTest {
+
+    private static BinaryLogFormat.Reader reader(BinaryLogFormat.Buffer buffer)
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buffer.writeTo(os);
+        byte[] data = os.toByteArray();
+        return new BinaryLogFormat.Reader(data, 0, data.length);
+    }
+
+    private static int varintSize(long value) {
+        BinaryLogFormat.Buffer buffer = new BinaryLogFormat.Buffer(1);
+        buffer.writeVarint(value);
+        return buffer.size();
+    }
+
+    private static int zigZagSize(long value) {
+        BinaryLogFormat.Buffer buffer = new BinaryLogFormat.Buffer(1);
+        buffer.writeZigZag(value);
+        return buffer.size();
+    }
+
+    @Test
+    public void varints() throws IOException {
+        long[] values = { 0, 1, 127, 128, 255, 300, 16383, 16384, Integer.MAX_VALUE,
+                0xFFFFFFFFL, 1L << 56, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+        BinaryLogFormat.Buffer buffer = new BinaryLogFormat.Buffer(4);
+        for (long value : values) {
+            buffer.writeVarint(value);
+        }
+        BinaryLogFormat.Reader reader = reader(buffer);
+        for (long value : values) {
+            assertEquals(value, reader.readVarint());
+        }
+        assertFalse(reader.hasRemaining());
+
+        assertEquals(1, varintSize(0));
+        assertEquals(1, varintSize(127));
+        assertEquals(2, varintSize(128));
+        assertEquals(2, varintSize(16383));
+        assertEquals(3, varintSize(16384));
+        assertEquals(9, varintSize(Long.MAX_VALUE));
+        // Negative values take all 10 bytes, hence zigzag for them
+        assertEquals(10, varintSize(-1));
+    }
+
+    @Test
+    public void zigZagDeltas() throws IOException {
+        long[] values = { 0, -1, 1, -2, 63, -64, 64, -65, 1000, -1000,
+                Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+        BinaryLogFormat.Buffer buffer = new BinaryLogFormat.Buffer(4);
+        for (long value : values) {
+            buffer.writeZigZag(value);
+        }
+        BinaryLogFormat.Reader reader = reader(buffer);
+        for (long value : values) {
+            assertEquals(value, reader.readZigZag());
+        }
+        assertFalse(reader.hasRemaining());
+
+        // Small deltas either way fit in one byte
+        assertEquals(1, zigZagSize(-64));
+        assertEquals(1, zigZagSize(63));
+        assertEquals(2, zigZagSize(64));
+        assertEquals(2, zigZagSize(-65));
+        assertEquals(10, zigZagSize(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void fixedSizeNumbers() throws IOException {
+        BinaryLogFormat.Buffer buffer = new BinaryLogFormat.Buffer(4);
+        buffer.writeLong(Double.doubleToRawLongBits(-0.0));
+        buffer.writeLong(Long.MIN_VALUE + 1);
+        buffer.writeInt(Float.floatToRawIntBits(Float.NaN));
+        buffer.writeInt(-2);
+        BinaryLogFormat.Reader reader = reader(buffer);
+        assertEquals(Double.doubleToRawLongBits(-0.0), reader.readLong());
+        assertEquals(Long.MIN_VALUE + 1, reader.readLong());
+        assertEquals(Float.floatToRawIntBits(Float.NaN), reader.readInt());
+        assertEquals(-2, reader.readInt());
+    }
+
+    @Test
+    public void strings() throws IOException {
+        String[] values = {
+            "",
+            "plain",
+            "été",
+            "日本語",
+            "emoji 😀",
+            "high \ud83d alone",
+            "low \ude00 alone",
+            "swapped \ude00\ud83d",
+            "ends with \ud83d",
+        };
+        BinaryLogFormat.Buffer buffer = new BinaryLogFormat.Buffer(4);
+        for (String value : values) {
+            int size = buffer.size();
+            buffer.writeString(value);
+            // The length prefix is the length of String.getBytes
+            int bytes = value.getBytes("UTF-8").length;
+            assertEquals(value, varintSize(bytes) + bytes, buffer.size() - size);
+        }
+        BinaryLogFormat.Reader reader = reader(buffer);
+        for (String value : values) {
+            // Unpaired surrogates read back as '?', as String.getBytes writes them
+            assertEquals(new String(value.getBytes("UTF-8"), "UTF-8"), reader.readString());
+        }
+        assertEquals("high ? alone", new String(values[5].getBytes("UTF-8"), "UTF-8"));
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    public void records() throws IOException {
+        BinaryLogFormat.Buffer body = new BinaryLogFormat.Buffer(4);
+        BinaryLogFormat.Buffer records = new BinaryLogFormat.Buffer(4);
+        body.writeVarint(42);
+        records.writeRecord(BinaryLogFormat.TYPE_START, body);
+        body.reset();
+        for (int i = 0; i < 100; i++) {
+            body.writeString("a string long enough to need a two byte length");
+        }
+        records.writeRecord(BinaryLogFormat.TYPE_TEXT, body);
+
+        BinaryLogFormat.Reader reader = reader(records);
+        assertEquals(2, reader.readVarint());
+        assertEquals(BinaryLogFormat.TYPE_START, reader.readByte());
+        assertEquals(42, reader.readVarint());
+        assertEquals(body.size() + 1, reader.readVarint());
+        assertEquals(BinaryLogFormat.TYPE_TEXT, reader.readByte());
+        for (int i = 0; i < 100; i++) {
+            reader.readString();
+        }
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedString() throws IOException {
+        BinaryLogFormat.Buffer buffer = new BinaryLogFormat.Buffer(4);
+        buffer.writeString("cut");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        buffer.writeTo(os);
+        byte[] data = os.toByteArray();
+        new BinaryLogFormat.Reader(data, 0, data.length - 1).readString();
+    }
+}
@@ -0,0 +1,139 @@
+package com.android.common.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rename-free circular rotation: slots used in turn, the manifest, and the
+ * content read back from the oldest slot
+ */
+public class CircularRotationTest {
+
+    private static final Pattern LINE = Pattern.compile("line (\\d+)$", Pattern.MULTILINE);
+
+    private static FileAppender createLog(File dir, int backup) {
+        FileAppender appender = new FileAppender(dir.getPath() + File.separator, "p", backup);
+        appender.setMaxFileSize(2048);
+        appender.setCircularRotation(true);
+        appender.initLogFile();
+        return appender;
+    }
+
+    private static void write(FileAppender appender, int first, int count) throws IOException {
+        for (int i = first; i < first + count; i++) {
+            appender.writeLogMessage("[test]", "INFO", "line " + i);
+        }
+    }
+
+    private static String read(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = is.read(buffer)) > 0) {
+                os.write(buffer, 0, length);
+            }
+            return os.toString("UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Return the line numbers of the content, in order
+     */
+    private static List<Integer> lineNumbers(FileAppender appender) throws IOException {
+        LogContent content = appender.getLogContent();
+        List<Integer> numbers = new ArrayList<Integer>();
+        try {
+            Matcher matcher = LINE.matcher(read(content.openInputStream()));
+            while (matcher.find()) {
+                numbers.add(Integer.valueOf(matcher.group(1)));
+            }
+        } finally {
+            content.close();
+        }
+        return numbers;
+    }
+
+    /**
+     * Check the content is the last lines up to last, with no gap nor stale
+     * line of a reused slot
+     */
+    private static void assertNewest(FileAppender appender, int last) throws IOException {
+        List<Integer> numbers = lineNumbers(appender);
+        assertFalse(numbers.isEmpty());
+        int first = last - numbers.size() + 1;
+        for (int i = 0; i < numbers.size(); i++) {
+            assertEquals(numbers.toString(), first + i, numbers.get(i).intValue());
+        }
+    }
+
+    private static int manifest(File dir) throws IOException {
+        return Integer.parseInt(read(new FileInputStream(new File(dir, "p.manifest"))).trim());
+    }
+
+    @Test
+    public void slotsUsedInTurn() throws IOException {
+        File dir = TestFiles.createDir("circular-turn");
+        FileAppender appender = createLog(dir, 2);
+        try {
+            write(appender, 0, 400);
+            appender.closeLogFile();
+
+            // Only the slots and the manifest, nothing renamed
+            String[] names = dir.list();
+            Arrays.sort(names);
+            assertArrayEquals(new String[] { "p.manifest", "p.slot0.txt", "p.slot1.txt",
+                    "p.slot2.txt" }, names);
+            for (String name : names) {
+                assertTrue(name, new File(dir, name).length() <= 2048 + 128);
+            }
+            assertNewest(appender, 399);
+            // The newest line is in the slot of the manifest
+            String newest = read(new FileInputStream(new File(dir,
+                    "p.slot" + manifest(dir) + ".txt")));
+            assertTrue(newest.trim().endsWith("line 399"));
+        } finally {
+            appender.deleteLogFile();
+        }
+    }
+
+    @Test
+    public void restartResumesManifestSlot() throws IOException {
+        File dir = TestFiles.createDir("circular-restart");
+        FileAppender appender = createLog(dir, 3);
+        write(appender, 0, 250);
+        appender.closeLogFile();
+        int slot = manifest(dir);
+
+        // A new run appends to the newest slot, then moves on from it
+        appender = createLog(dir, 3);
+        try {
+            write(appender, 250, 10);
+            assertEquals(slot, manifest(dir));
+            assertNewest(appender, 259);
+
+            write(appender, 260, 400);
+            appender.closeLogFile();
+            assertNewest(appender, 659);
+            for (String name : dir.list()) {
+                assertTrue(name, name.matches("p\\.(slot[0-3]\\.txt|manifest|merged\\.txt)"));
+            }
+        } finally {
+            appender.deleteLogFile();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.android.common.logger;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Error context rings: capture, detach, per-thread eviction and the merged
+ * dump order
+ */
+public class ContextBufferTest {
+
+    private static final String TAG = "context";
+
+    private static LogEvent event(long threadId, long timeStamp, String msg) {
+        LogEvent event = LogEvent.obtain();
+        event.set("test", TAG, Log.DEBUG, "DEBUG", timeStamp, threadId, null, null);
+        event.getMessageBuffer().append(msg);
+        return event;
+    }
+
+    private static void capture(ContextBuffer buffer, long timeStamp, String msg) {
+        LogEvent event = event(1, timeStamp, msg);
+        buffer.capture(event);
+        event.recycle();
+    }
+
+    @Test
+    public void ringKeepsNewest() {
+        ContextBuffer buffer = new ContextBuffer(4);
+        for (int i = 0; i < 6; i++) {
+            capture(buffer, i, "m" + i);
+        }
+        ContextBuffer.Segment segment = buffer.detach();
+        assertEquals(4, segment.count);
+        for (int i = 0; i < 4; i++) {
+            int index = segment.index(i);
+            assertEquals("m" + (i + 2), segment.messages[index].toString());
+            assertEquals(i + 2, segment.timeStamps[index]);
+        }
+        assertNull(buffer.detach());
+    }
+
+    @Test
+    public void slotsCreatedOnUse() {
+        ContextBuffer buffer = new ContextBuffer(8);
+        capture(buffer, 0, "m0");
+        ContextBuffer.Segment segment = buffer.detach();
+        assertNotNull(segment.messages[0]);
+        for (int i = 1; i < 8; i++) {
+            assertNull(segment.messages[i]);
+        }
+        buffer.release(segment);
+    }
+
+    @Test
+    public void spareReused() {
+        ContextBuffer buffer = new ContextBuffer(4);
+        capture(buffer, 0, "first");
+        ContextBuffer.Segment first = buffer.detach();
+        buffer.release(first);
+        assertEquals(0, first.count);
+        assertNull(first.tags[0]);
+
+        // The released ring takes over at the next detach
+        capture(buffer, 1, "second");
+        ContextBuffer.Segment second = buffer.detach();
+        assertNotSame(first, second);
+        capture(buffer, 2, "third");
+        ContextBuffer.Segment third = buffer.detach();
+        assertSame(first, third);
+        assertEquals(1, third.count);
+        assertEquals("third", third.messages[third.index(0)].toString());
+    }
+
+    @Test
+    public void longMessageTruncated() {
+        ContextBuffer buffer = new ContextBuffer(2);
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < ContextBuffer.MAX_MESSAGE_LENGTH + 100; i++) {
+            msg.append('x');
+        }
+        capture(buffer, 0, msg.toString());
+        ContextBuffer.Segment segment = buffer.detach();
+        assertEquals(ContextBuffer.MAX_MESSAGE_LENGTH, segment.messages[0].length());
+    }
+
+    @Test
+    public void idlestThreadEvicted() {
+        ThreadContextBuffers buffers = new ThreadContextBuffers(4);
+        long self = Thread.currentThread().getId();
+        LogEvent event = event(self, 1, "own");
+        buffers.capture(event);
+        event.recycle();
+        ContextBuffer own = buffers.get(self, false);
+        assertNotNull(own);
+
+        // Other threads all logged later, the calling thread is the idlest
+        for (int i = 0; i < ThreadContextBuffers.MAX_THREADS; i++) {
+            event = event(10000 + i, 100 + i, "other " + i);
+            buffers.capture(event);
+            event.recycle();
+        }
+        assertTrue(own.evicted);
+        assertEquals(ThreadContextBuffers.MAX_THREADS, buffers.getAll().size());
+        assertNull(buffers.get(self, false));
+
+        // The thread gets a new buffer on its next message
+        event = event(self, 1000, "again");
+        buffers.capture(event);
+        event.recycle();
+        ContextBuffer renewed = buffers.get(self, false);
+        assertNotSame(own, renewed);
+        assertFalse(renewed.evicted);
+        assertNull(buffers.get(10000, false));
+        assertEquals(ThreadContextBuffers.MAX_THREADS, buffers.getAll().size());
+    }
+
+    /**
+     * Return the dumped context, without the ERROR itself which is written
+     * while the context is dumped by another thread
+     */
+    private static String[] dumped(RecordingAppender appender) {
+        List<String> messages = appender.messages;
+        assertTrue(messages.remove("failure"));
+        return messages.toArray(new String[messages.size()]);
+    }
+
+    private static void logOn(ExecutorService executor, final LogImpl log, final String msg)
+            throws Exception {
+        executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                log.debug(TAG, msg);
+                // Distinct time stamps make the merge order deterministic
+                Thread.sleep(3);
+                return null;
+            }
+        }).get();
+    }
+
+    @Test
+    public void mergedDumpOrder() throws Exception {
+        RecordingAppender appender = new RecordingAppender(TAG, true);
+        LogImpl log = new LogImpl();
+        log.initLog("test", appender, Log.INFO);
+        log.setClientMaxLogLevel(Log.DEBUG);
+        log.setContextMode(Log.CONTEXT_PER_THREAD_MERGED);
+        log.enableContextLogging(true);
+
+        ExecutorService a = Executors.newSingleThreadExecutor();
+        ExecutorService b = Executors.newSingleThreadExecutor();
+        try {
+            logOn(a, log, "a0");
+            logOn(b, log, "b0");
+            log.debug(TAG, "own0");
+            Thread.sleep(3);
+            logOn(a, log, "a1");
+            logOn(b, log, "b1");
+            log.debug(TAG, "own1");
+            log.error(TAG, "failure");
+            log.closeLog();
+        } finally {
+            a.shutdown();
+            b.shutdown();
+        }
+
+        // The history of the thread that logged the ERROR, then the other
+        // threads merged in time order
+        String[] expected = { "own0", "own1", "a0", "b0", "a1", "b1" };
+        assertArrayEquals(expected, dumped(appender));
+    }
+
+    @Test
+    public void perThreadCacheSize() throws Exception {
+        RecordingAppender appender = new RecordingAppender(TAG, true);
+        LogImpl log = new LogImpl();
+        log.initLog("test", appender, Log.INFO);
+        log.setClientMaxLogLevel(Log.DEBUG);
+        log.setContextMode(Log.CONTEXT_PER_THREAD);
+        log.setContextCacheSize(100);
+        log.setThreadContextCacheSize(2);
+        log.enableContextLogging(true);
+        for (int i = 0; i < 5; i++) {
+            log.debug(TAG, "m" + i);
+        }
+        log.error(TAG, "failure");
+        log.closeLog();
+
+        String[] expected = { "m3", "m4" };
+        assertArrayEquals(expected, dumped(appender));
+    }
+}
@@ -0,0 +1,136 @@
+package com.android.common.logger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Level snapshot checked by LogImpl before doing any work for a message
+ */
+public class LevelGateTest {
+
+    private static final String TAG = "gate";
+
+    private static LogImpl createLog(RecordingAppender appender, int level) {
+        LogImpl log = new LogImpl();
+        log.initLog("test", appender, level);
+        return log;
+    }
+
+    @Test
+    public void globalLevel() {
+        RecordingAppender appender = new RecordingAppender(TAG, true);
+        LogImpl log = createLog(appender, Log.INFO);
+        assertTrue(log.isEnabled(Log.INFO));
+        assertFalse(log.isEnabled(Log.DEBUG));
+
+        log.debug(TAG, "filtered");
+        log.info(TAG, "written");
+        assertEquals(1, appender.size());
+        assertEquals("written", appender.messages.get(0));
+
+        log.setLogLevel(Log.TRACE);
+        assertTrue(log.isEnabled(Log.TRACE));
+        log.setLogLevel(Log.ERROR);
+        assertFalse(log.isEnabled(Log.WARN));
+    }
+
+    @Test
+    public void filteredSupplierNotCalled() {
+        RecordingAppender appender = new RecordingAppender(TAG, true);
+        LogImpl log = createLog(appender, Log.INFO);
+        final int[] calls = new int[1];
+        MessageSupplier supplier = new MessageSupplier() {
+            public String get() {
+                calls[0]++;
+                return "built";
+            }
+        };
+        log.log(Log.DEBUG, TAG, supplier);
+        assertEquals(0, calls[0]);
+        log.log(Log.INFO, TAG, supplier);
+        assertEquals(1, calls[0]);
+        assertEquals("built", appender.messages.get(0));
+    }
+
+    @Test
+    public void contextLoggingOpensGate() {
+        RecordingAppender appender = new RecordingAppender(TAG, true);
+        LogImpl log = createLog(appender, Log.INFO);
+        log.setClientMaxLogLevel(Log.DEBUG);
+        log.enableContextLogging(true);
+
+        // Cached for the error context, but not written
+        assertTrue(log.isEnabled(Log.DEBUG));
+        assertFalse(log.isEnabled(Log.TRACE));
+        assertFalse(log.isLoggable(Log.DEBUG));
+        log.debug(TAG, "cached");
+        assertEquals(0, appender.size());
+
+        log.enableContextLogging(false);
+        assertFalse(log.isEnabled(Log.DEBUG));
+    }
+
+    @Test
+    public void tagOverridesOpenGate() {
+        RecordingAppender appender = new RecordingAppender(TAG, true);
+        LogImpl log = createLog(appender, Log.INFO);
+        log.setTagLogLevel(TAG, Log.DEBUG);
+        assertTrue(log.isEnabled(Log.DEBUG));
+        assertTrue(log.isLoggable(Log.DEBUG, TAG));
+        assertFalse(log.isLoggable(Log.DEBUG, "other"));
+
+        log.debug(TAG, "written");
+        log.debug("other", "filtered");
+        assertEquals(1, appender.size());
+
+        log.removeTagLogLevel(TAG);
+        assertFalse(log.isEnabled(Log.DEBUG));
+        log.setTagLogLevel(TAG, Log.TRACE);
+        log.clearTagLogLevels();
+        assertFalse(log.isEnabled(Log.DEBUG));
+    }
+
+    @Test
+    public void lockedLevel() {
+        RecordingAppender appender = new RecordingAppender(TAG, true);
+        LogImpl log = createLog(appender, Log.INFO);
+        log.lockLogLevel(Log.ERROR);
+        log.setLogLevel(Log.TRACE);
+        assertFalse(log.isEnabled(Log.WARN));
+        log.unlockLogLevel();
+        log.setLogLevel(Log.TRACE);
+        assertTrue(log.isEnabled(Log.TRACE));
+    }
+
+    @Test
+    public void concurrentSetters() throws InterruptedException {
+        RecordingAppender appender = new RecordingAppender(TAG, true);
+        final LogImpl log = createLog(appender, Log.INFO);
+        Thread levels = new Thread() {
+            public void run() {
+                for (int i = 0; i < 2000; i++) {
+                    log.setTagLogLevel(TAG, (i % 2 == 0) ? Log.TRACE : Log.ERROR);
+                }
+                log.clearTagLogLevels();
+            }
+        };
+        Thread context = new Thread() {
+            public void run() {
+                for (int i = 0; i < 2000; i++) {
+                    log.setClientMaxLogLevel(Log.TRACE);
+                    log.enableContextLogging(i % 2 == 0);
+                }
+                log.enableContextLogging(false);
+            }
+        };
+        levels.start();
+        context.start();
+        levels.join();
+        context.join();
+
+        // The snapshot matches the final state, whatever the interleaving
+        assertTrue(log.isEnabled(Log.INFO));
+        assertFalse(log.isEnabled(Log.DEBUG));
+    }
+}
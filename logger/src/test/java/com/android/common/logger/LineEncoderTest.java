@@ -0,0 +1,98 @@
+package com.android.common.logger;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * UTF-8 encoding of the lines with reused buffers
+ */
+public class LineEncoderTest {
+
+    private static byte[] encode(LineEncoder encoder, String text) {
+        ByteBuffer buffer = encoder.encode(new StringBuilder(text));
+        assertTrue(buffer.hasArray());
+        return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.arrayOffset() + buffer.limit());
+    }
+
+    private static void assertEncoded(LineEncoder encoder, String text)
+            throws UnsupportedEncodingException {
+        assertArrayEquals(text, text.getBytes("UTF-8"), encode(encoder, text));
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void nonAscii() throws UnsupportedEncodingException {
+        LineEncoder encoder = new LineEncoder();
+        String[] lines = {
+            "",
+            "plain ascii\r\n",
+            "été à Zürich\r\n", // 2 bytes
+            "日本語のログ\r\n", // 3 bytes
+            "emoji 😀 and 𝄞\r\n", // 4 bytes, pairs
+            "é first char",
+            "last char €",
+            "ascii again after a non ASCII line\r\n",
+            repeat("😀", 400), // pairs only
+            repeat("€", 600), // grows the buffers
+        };
+        for (String line : lines) {
+            assertEncoded(encoder, line);
+        }
+        // In any order, the previous line leaves nothing behind
+        for (int i = lines.length - 1; i >= 0; i--) {
+            assertEncoded(encoder, lines[i]);
+        }
+    }
+
+    @Test
+    public void unpairedSurrogates() throws UnsupportedEncodingException {
+        LineEncoder encoder = new LineEncoder();
+        String[] lines = {
+            "high \ud83d alone",
+            "low \ude00 alone",
+            "swapped \ude00\ud83d pair",
+            "ends with a high surrogate \ud83d",
+            "\ude00",
+        };
+        for (String line : lines) {
+            // Replaced as String.getBytes does
+            assertEncoded(encoder, line);
+        }
+        assertEquals("high ? alone", new String(encode(encoder, lines[0]), "UTF-8"));
+        // The encoder is reset after a malformed line
+        assertEncoded(encoder, "é after");
+    }
+
+    @Test
+    public void hugeLine() throws UnsupportedEncodingException {
+        LineEncoder encoder = new LineEncoder();
+        String huge = repeat("日x", 50000);
+        assertEncoded(encoder, huge);
+        // The grown buffers are dropped by a short line, then grow again
+        assertEncoded(encoder, "short é");
+        assertEncoded(encoder, huge);
+    }
+
+    @Test
+    public void bufferReused() {
+        LineEncoder encoder = new LineEncoder();
+        ByteBuffer first = encoder.encode(new StringBuilder("first é"));
+        ByteBuffer second = encoder.encode(new StringBuilder("second"));
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(6, second.remaining());
+    }
+}
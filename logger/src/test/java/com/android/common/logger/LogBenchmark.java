@@ -0,0 +1,209 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Micro benchmarks of the hot logging paths, run on the host JVM. They print
+ * the cost per operation and only check the results are sane, timings depend
+ * too much on the machine to be asserted. They are skipped by the unit tests
+ * unless the smartlogger.benchmark system property is true:
+ * ./gradlew :logger:testDebugUnitTest -Dsmartlogger.benchmark=true --tests '*LogBenchmark'
+ */
+public class LogBenchmark {
+
+    /**
+     * System property enabling the benchmarks
+     */
+    static final String ENABLED_PROPERTY = "smartlogger.benchmark";
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 200000;
+    private static final int ROUNDS = 10;
+
+    private static volatile Object sink;
+
+    @Before
+    public void assumeEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean(ENABLED_PROPERTY));
+    }
+
+    private static void report(String name, long startNanos, int iterations) {
+        long elapsed = System.nanoTime() - startNanos;
+        System.out.println("[" + name + "] " + (elapsed / iterations) + " ns/op");
+    }
+
+    /**
+     * The approach LogImpl used to find its caller: capture the whole stack
+     * in a Throwable and read the frame from getStackTrace()
+     */
+    private static String throwableCaller() {
+        StackTraceElement[] elements = new Throwable().getStackTrace();
+        if (elements.length > 1) {
+            StackTraceElement element = elements[1];
+            return element.getClassName() + "." + element.getMethodName() + "("
+                    + element.getFileName() + ":" + element.getLineNumber() + ")";
+        }
+        return null;
+    }
+
+    @Test
+    public void callerResolution() {
+        assertTrue(CallerResolver.getCallerLocation().startsWith("LogBenchmark.callerResolution("));
+        assertEquals(LogBenchmark.class.getName(), CallerResolver.getCallerClassName());
+
+        for (int i = 0; i < WARMUP; i++) {
+            sink = throwableCaller();
+            sink = CallerResolver.getCallerLocation();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = throwableCaller();
+        }
+        report("caller: new Throwable().getStackTrace()", start, ITERATIONS);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = CallerResolver.getCallerLocation();
+        }
+        report("caller: CallerResolver (formatting cached per call site)", start, ITERATIONS);
+    }
+
+    /**
+     * Appender counting the events it receives
+     */
+    private static class CountingAppender implements EventAppender {
+        int count = 0;
+
+        public void writeLogEvent(LogEvent event) {
+            count++;
+        }
+
+        public void writeLogMessage(String paramTag, String level, String msg) {
+            count++;
+        }
+
+        public void initLogFile() {
+        }
+
+        public void openLogFile() {
+        }
+
+        public void closeLogFile() {
+        }
+
+        public void deleteLogFile() {
+        }
+
+        public void setLogLevel(int level) {
+        }
+
+        public LogContent getLogContent() {
+            return null;
+        }
+    }
+
+    /**
+     * Return the best time per call out of a few rounds of filtered calls
+     */
+    private static long filteredDebug(LogImpl log, String tag) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                log.debug(tag, "filtered message");
+                log.log(Log.DEBUG, tag, "filtered {}", i);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / (ITERATIONS * 2));
+        }
+        return best;
+    }
+
+    /**
+     * Return the time per line of a FileAppender in a durability mode, one
+     * line out of errorEvery being an ERROR
+     */
+    private static long fileLines(File dir, int durability, int errorEvery, int lines) {
+        String name = "durability" + durability;
+        FileAppender appender = new FileAppender(dir.getPath(), name, 0);
+        appender.setMaxFileSize(64 * 1024 * 1024);
+        appender.setBufferSize(8 * 1024);
+        appender.setDurability(durability);
+        appender.setSyncInterval(100);
+        appender.deleteLogFile();
+        appender.initLogFile();
+
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < lines; i++) {
+                boolean error = (i % errorEvery) == 0;
+                appender.writeLogMessage("[bench][disk]", error ? "ERROR" : "INFO",
+                        "[Pid:1][Tid:1] line " + i + " of the durability benchmark");
+            }
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+        appender.closeLogFile();
+        long elapsed = (System.nanoTime() - start) / lines;
+
+        assertTrue(new File(dir, name + ".txt").length() > lines * 40L);
+        appender.deleteLogFile();
+        return elapsed;
+    }
+
+    @Test
+    public void durabilityModes() {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "smartlogger-bench");
+        dir.mkdirs();
+        int lines = 20000;
+
+        fileLines(dir, FileAppender.DURABILITY_NONE, 100, lines);
+        System.out.println("[file, no sync] " + fileLines(dir, FileAppender.DURABILITY_NONE,
+                100, lines) + " ns/line");
+        System.out.println("[file, periodic sync 100 ms] " + fileLines(dir,
+                FileAppender.DURABILITY_PERIODIC, 100, lines) + " ns/line");
+        System.out.println("[file, sync on ERROR, 1% errors] " + fileLines(dir,
+                FileAppender.DURABILITY_ON_ERROR, 100, lines) + " ns/line");
+        System.out.println("[file, sync on ERROR, 10% errors] " + fileLines(dir,
+                FileAppender.DURABILITY_ON_ERROR, 10, lines) + " ns/line");
+    }
+
+    @Test
+    public void tagLevelLookup() {
+        CountingAppender appender = new CountingAppender();
+        LogImpl log = new LogImpl();
+        log.initLog("bench", appender, Log.INFO);
+
+        System.out.println("[filtered DEBUG, no tag override] " + filteredDebug(log, "ui.list")
+                + " ns/op");
+
+        // The override opens the gate to DEBUG, other tags now need the lookup
+        log.setTagLogLevel("net", Log.DEBUG);
+        log.setTagLogLevel("net.dns", Log.WARN);
+        System.out.println("[filtered DEBUG, cached tag lookup] " + filteredDebug(log, "ui.list")
+                + " ns/op");
+
+        int before = appender.count;
+        log.debug("ui.list", "filtered");
+        log.debug("net.dns", "filtered");
+        log.info("net.dns", "filtered");
+        assertEquals(before, appender.count);
+        log.debug("net.http", "written");
+        log.debug("net", "written");
+        log.warn("net.dns", "written");
+        assertEquals(before + 3, appender.count);
+        assertEquals(Log.DEBUG, log.getTagLogLevel("net.http.client"));
+        assertEquals(Log.INFO, log.getTagLogLevel("network"));
+
+        log.clearTagLogLevels();
+        log.debug("net.http", "filtered");
+        assertEquals(before + 3, appender.count);
+    }
+}
@@ -0,0 +1,176 @@
+package com.android.common.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streamed log content: parts of plain and compressed files read in turn
+ */
+public class LogContentTest {
+
+    private static final String FIRST = "first file, line 1\r\nfirst file, line 2\r\n";
+    private static final String SECOND = "second file, line 1\r\nsecond file, line 2\r\n";
+    private static final String THIRD = "third file, line 1\r\n";
+
+    private static String write(File dir, String name, String text) throws IOException {
+        File file = new File(dir, name);
+        OutputStream os = new FileOutputStream(file);
+        if (name.endsWith(".gz")) {
+            os = new GZIPOutputStream(os);
+        }
+        try {
+            os.write(text.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        return file.getPath();
+    }
+
+    private static String read(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[7];
+            int length;
+            while ((length = is.read(buffer)) > 0) {
+                os.write(buffer, 0, length);
+            }
+            return os.toString("UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    private static String readBytes(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            int b;
+            while ((b = is.read()) >= 0) {
+                os.write(b);
+            }
+            return os.toString("UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    private static String transfer(LogContent content) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        long count = content.transferTo(Channels.newChannel(os));
+        assertEquals(os.size(), count);
+        return os.toString("UTF-8");
+    }
+
+    /**
+     * A compressed shard, a missing one and a plain one, parts of each
+     */
+    private static LogContent createContent(File dir) throws IOException {
+        String[] files = {
+            write(dir, "c.2.txt.gz", FIRST),
+            new File(dir, "c.missing.txt").getPath(),
+            write(dir, "c.1.txt", SECOND),
+            write(dir, "c.txt", THIRD),
+        };
+        long[] offsets = { 5, 0, 7, 0 };
+        long[] lengths = { 20, -1, -1, 10 };
+        return new LogContent(files, offsets, lengths);
+    }
+
+    private static String expected() {
+        return FIRST.substring(5, 25) + SECOND.substring(7) + THIRD.substring(0, 10);
+    }
+
+    @Test
+    public void partsOfFiles() throws IOException {
+        File dir = TestFiles.createDir("content-parts");
+        LogContent content = createContent(dir);
+        assertEquals(LogContent.STREAM_CONTENT, content.getContentType());
+        assertNull(content.getContent());
+
+        // Read as many times as wanted, by blocks, bytes or transferTo
+        assertEquals(expected(), read(content.openInputStream()));
+        assertEquals(expected(), readBytes(content.openInputStream()));
+        assertEquals(expected(), transfer(content));
+        assertEquals(expected(), transfer(content));
+    }
+
+    @Test
+    public void wholeFiles() throws IOException {
+        File dir = TestFiles.createDir("content-whole");
+        String[] files = {
+            write(dir, "w.1.txt.gz", FIRST),
+            write(dir, "w.txt", SECOND),
+        };
+        LogContent content = new LogContent(files, new long[] { -1, -1 });
+        assertEquals(FIRST + SECOND, read(content.openInputStream()));
+        assertEquals(FIRST + SECOND, transfer(content));
+
+        // An offset past the end of a file reads nothing of it
+        content = new LogContent(files, new long[] { 1000, 1000 }, new long[] { -1, -1 });
+        assertEquals("", read(content.openInputStream()));
+        assertEquals("", transfer(content));
+    }
+
+    @Test
+    public void openedBeforeRename() throws IOException {
+        File dir = TestFiles.createDir("content-opened");
+        LogContent opened = createContent(dir).open();
+
+        // Moved and rewritten as by a rollover
+        File current = new File(dir, "c.txt");
+        assertTrue(current.renameTo(new File(dir, "c.0.txt")));
+        write(dir, "c.txt", "new line\r\n");
+        assertTrue(new File(dir, "c.1.txt").delete());
+
+        assertEquals(expected(), read(opened.openInputStream()));
+        // Read once
+        assertEquals("", read(opened.openInputStream()));
+    }
+
+    @Test
+    public void openedTransfer() throws IOException {
+        File dir = TestFiles.createDir("content-transfer");
+        LogContent opened = createContent(dir).open();
+        assertEquals(expected(), transfer(opened));
+        assertEquals("", transfer(opened));
+        opened.close();
+    }
+
+    @Test
+    public void failedTransfer() throws IOException {
+        File dir = TestFiles.createDir("content-failed");
+        LogContent opened = createContent(dir).open();
+        WritableByteChannel failing = new WritableByteChannel() {
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        };
+        try {
+            opened.transferTo(failing);
+            fail();
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        // The files not transferred are released, nothing is left to read
+        assertEquals("", read(opened.openInputStream()));
+        opened.close();
+    }
+}
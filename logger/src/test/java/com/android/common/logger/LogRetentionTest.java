@@ -0,0 +1,131 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Deletion of the files of a FileAppender beyond the byte budget and the max
+ * age
+ */
+public class LogRetentionTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static File createFile(File dir, String name, long size, long age) throws IOException {
+        File file = new File(dir, name);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+        } finally {
+            raf.close();
+        }
+        assertTrue(file.setLastModified(System.currentTimeMillis() - age));
+        return file;
+    }
+
+    private static String current(File dir) {
+        return new File(dir, "p.txt").getPath();
+    }
+
+    @Test
+    public void budgetDeletesOldestFirst() throws IOException {
+        File dir = TestFiles.createDir("retention-budget");
+        createFile(dir, "p.txt", 100, 0);
+        File shard1 = createFile(dir, "p.1.txt", 100, HOUR);
+        File index1 = createFile(dir, "p.1.txt.idx", 10, HOUR);
+        File shard2 = createFile(dir, "p.2.txt.gz", 100, 2 * HOUR);
+        File summary2 = createFile(dir, "p.2.txt.sum", 10, 2 * HOUR);
+
+        LogRetention retention = new LogRetention(dir.getPath(), dir.getPath(), "p", ".txt",
+                250, 0);
+        assertEquals(110, retention.apply(current(dir)));
+        assertFalse(shard2.exists());
+        assertFalse(summary2.exists());
+        assertTrue(shard1.exists());
+        assertTrue(index1.exists());
+
+        // Under the budget now
+        assertEquals(0, retention.apply(current(dir)));
+    }
+
+    @Test
+    public void maxAge() throws IOException {
+        File dir = TestFiles.createDir("retention-age");
+        createFile(dir, "p.txt", 100, 3 * HOUR);
+        File dated1 = createFile(dir, "p.2026-10-17-10.1.txt", 100, HOUR);
+        File dated2 = createFile(dir, "p.2026-10-17-09.1.txt", 100, 2 * HOUR);
+        File slot = createFile(dir, "p.slot3.txt", 100, 2 * HOUR);
+
+        LogRetention retention = new LogRetention(dir.getPath(), dir.getPath(), "p", ".txt",
+                0, 90 * 60 * 1000);
+        assertEquals(200, retention.apply(current(dir)));
+        assertTrue(dated1.exists());
+        assertFalse(dated2.exists());
+        assertFalse(slot.exists());
+        // The current file is never deleted, whatever its age
+        assertTrue(new File(current(dir)).exists());
+    }
+
+    @Test
+    public void keepsCurrentRolledAndForeignFiles() throws IOException {
+        File dir = TestFiles.createDir("retention-keep");
+        createFile(dir, "p.txt", 100, 0);
+        createFile(dir, "p.txt.idx", 10, 0);
+        File rolled = createFile(dir, "p.rolled2.txt", 100, 2 * HOUR);
+        File manifest = createFile(dir, "p.manifest", 10, 2 * HOUR);
+        File foreign = createFile(dir, "other.1.txt", 100, 2 * HOUR);
+        File shard = createFile(dir, "p.1.txt", 100, HOUR);
+
+        LogRetention retention = new LogRetention(dir.getPath(), dir.getPath(), "p", ".txt",
+                1, HOUR / 2);
+        assertEquals(100, retention.apply(current(dir)));
+        assertFalse(shard.exists());
+        assertTrue(new File(current(dir)).exists());
+        assertTrue(new File(dir, "p.txt.idx").exists());
+        assertTrue(rolled.exists());
+        assertTrue(manifest.exists());
+        assertTrue(foreign.exists());
+    }
+
+    @Test
+    public void oldMergedDeletedFirst() throws IOException {
+        File dir = TestFiles.createDir("retention-merged");
+        File contentDir = TestFiles.createDir("retention-merged-content");
+        createFile(dir, "p.txt", 100, 0);
+        File shard = createFile(dir, "p.1.txt", 100, 2 * HOUR);
+        File merged = createFile(contentDir, "p.merged.txt", 200,
+                LogRetention.MERGED_GRACE_MILLIS + HOUR);
+
+        LogRetention retention = new LogRetention(dir.getPath(), contentDir.getPath(), "p",
+                ".txt", 300, 0);
+        assertEquals(200, retention.apply(current(dir)));
+        assertFalse(merged.exists());
+        assertTrue(shard.exists());
+    }
+
+    @Test
+    public void freshMergedKept() throws IOException {
+        File dir = TestFiles.createDir("retention-fresh");
+        createFile(dir, "p.txt", 100, 0);
+        File shard1 = createFile(dir, "p.1.txt", 100, HOUR);
+        File shard2 = createFile(dir, "p.2.txt", 100, 2 * HOUR);
+        File merged = createFile(dir, "p.merged.txt", 300, 0);
+
+        // The merged file is neither counted nor deleted
+        LogRetention retention = new LogRetention(dir.getPath(), dir.getPath(), "p", ".txt",
+                250, HOUR / 2);
+        assertEquals(200, retention.apply(current(dir)));
+        assertTrue(merged.exists());
+        assertFalse(shard1.exists());
+        assertFalse(shard2.exists());
+
+        retention = new LogRetention(dir.getPath(), dir.getPath(), "p", ".txt", 150, 0);
+        assertEquals(0, retention.apply(current(dir)));
+        assertTrue(merged.exists());
+    }
+}
@@ -0,0 +1,210 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Order, limit and filters of FileAppender.search over the current file and
+ * its shards
+ */
+public class LogSearchTest {
+
+    private static final int LINES = 100;
+
+    /**
+     * Collects the matches of a search, stops after stopAfter matches
+     */
+    private static final class Collector implements LogQuery.Listener {
+        final List<Long> timeStamps = new ArrayList<Long>();
+        final List<String> lines = new ArrayList<String>();
+        private final int stopAfter;
+
+        Collector(int stopAfter) {
+            this.stopAfter = stopAfter;
+        }
+
+        public boolean onMatch(long timeStamp, String line) {
+            timeStamps.add(timeStamp);
+            lines.add(line);
+            return lines.size() < stopAfter;
+        }
+    }
+
+    /**
+     * Write LINES lines, one per second from base, over several shards. One
+     * line out of 10 is an ERROR, one out of 10 a WARN, the others INFO, and
+     * one line out of 3 has the "net" tag, the others the "disk" tag.
+     */
+    private static FileAppender createLog(String name, long base, boolean framed,
+            boolean compressed) throws IOException {
+        File dir = TestFiles.createDir("search-" + name);
+        FileAppender appender = new FileAppender(dir.getPath() + File.separator, "p", 20);
+        appender.setMaxFileSize(2048);
+        appender.setFramedRecords(framed);
+        appender.setCompressBackups(compressed);
+        appender.initLogFile();
+        for (int i = 0; i < LINES; i++) {
+            int level = (i % 10 == 0) ? Log.ERROR : ((i % 5 == 0) ? Log.WARN : Log.INFO);
+            LogEvent event = LogEvent.obtain();
+            try {
+                event.set("test", (i % 3 == 0) ? "net" : "disk", level,
+                        (level == Log.ERROR) ? "ERROR" : ((level == Log.WARN) ? "WARN" : "INFO"),
+                        base + 1000L * i, Thread.currentThread().getId(), null, null);
+                event.setMessage("line " + i, null, 0, 0, 0, null);
+                appender.writeLogEvent(event);
+            } finally {
+                event.recycle();
+            }
+        }
+        assertTrue(dir.list().length >= 3);
+        return appender;
+    }
+
+    private static Collector search(FileAppender appender, LogQuery query) throws IOException {
+        Collector collector = new Collector(Integer.MAX_VALUE);
+        assertEquals(appender.search(query, collector), collector.lines.size());
+        return collector;
+    }
+
+    private static void close(FileAppender appender) {
+        appender.closeLogFile();
+        appender.deleteLogFile();
+    }
+
+    private static void assertOrdered(Collector collector, long base, int first) {
+        for (int i = 0; i < collector.lines.size(); i++) {
+            assertEquals(base + 1000L * (first + i), collector.timeStamps.get(i).longValue());
+            String line = collector.lines.get(i);
+            assertTrue(line, line.endsWith("] line " + (first + i)));
+        }
+    }
+
+    private static void checkOrder(String name, boolean framed, boolean compressed)
+            throws IOException {
+        long base = System.currentTimeMillis() - 3600 * 1000;
+        FileAppender appender = createLog(name, base, framed, compressed);
+        try {
+            Collector collector = search(appender, new LogQuery());
+            assertEquals(LINES, collector.lines.size());
+            assertOrdered(collector, base, 0);
+        } finally {
+            close(appender);
+        }
+    }
+
+    @Test
+    public void ordered() throws IOException {
+        checkOrder("plain", false, false);
+    }
+
+    @Test
+    public void orderedFramed() throws IOException {
+        checkOrder("framed", true, false);
+    }
+
+    @Test
+    public void orderedCompressed() throws IOException {
+        checkOrder("compressed", false, true);
+    }
+
+    @Test
+    public void limits() throws IOException {
+        long base = System.currentTimeMillis() - 3600 * 1000;
+        FileAppender appender = createLog("limits", base, false, false);
+        try {
+            LogQuery query = new LogQuery();
+            query.setLimit(7);
+            Collector collector = search(appender, query);
+            assertEquals(7, collector.lines.size());
+            assertOrdered(collector, base, 0);
+
+            // The listener stops the search
+            collector = new Collector(3);
+            assertEquals(3, appender.search(new LogQuery(), collector));
+            assertEquals(3, collector.lines.size());
+
+            // No limit
+            query.setLimit(0);
+            assertEquals(LINES, search(appender, query).lines.size());
+        } finally {
+            close(appender);
+        }
+    }
+
+    @Test
+    public void filters() throws IOException {
+        long base = System.currentTimeMillis() - 3600 * 1000;
+        FileAppender appender = createLog("filters", base, false, false);
+        try {
+            LogQuery query = new LogQuery();
+            query.setLevel(Log.WARN);
+            Collector collector = search(appender, query);
+            assertEquals(20, collector.lines.size());
+            for (String line : collector.lines) {
+                assertTrue(line, line.contains("[ERROR]") || line.contains("[WARN]"));
+            }
+            query.setLevel(Log.ERROR);
+            assertEquals(10, search(appender, query).lines.size());
+
+            query = new LogQuery();
+            query.setTag("net");
+            collector = search(appender, query);
+            assertEquals(34, collector.lines.size());
+            for (String line : collector.lines) {
+                assertTrue(line, line.contains("[test][net]"));
+            }
+            query.setTag("ne");
+            assertEquals(0, search(appender, query).lines.size());
+
+            query = new LogQuery();
+            query.setText("line 4");
+            assertEquals(11, search(appender, query).lines.size());
+
+            query = new LogQuery();
+            query.setPattern("line \\d*7$");
+            assertEquals(10, search(appender, query).lines.size());
+
+            // All the filters together: the ERROR lines of "net" up to 60, 0, 30 and 60
+            query = new LogQuery();
+            query.setLevel(Log.ERROR);
+            query.setTag("net");
+            query.setPattern("line [0-6]?0$");
+            assertEquals(3, search(appender, query).lines.size());
+        } finally {
+            close(appender);
+        }
+    }
+
+    @Test
+    public void timeRange() throws IOException {
+        long base = System.currentTimeMillis() - 3600 * 1000;
+        FileAppender appender = createLog("range", base, false, false);
+        try {
+            // Bounds included
+            LogQuery query = new LogQuery();
+            query.setTimeRange(base + 10 * 1000, base + 19 * 1000);
+            Collector collector = search(appender, query);
+            assertEquals(10, collector.lines.size());
+            assertOrdered(collector, base, 10);
+
+            query.setTimeRange(base + 10 * 1000 + 1, base + 19 * 1000 - 1);
+            assertEquals(8, search(appender, query).lines.size());
+
+            query.setTimeRange(base - 10 * 1000, base - 1);
+            assertEquals(0, search(appender, query).lines.size());
+
+            query.setTimeRange(base + 95 * 1000, Long.MAX_VALUE);
+            collector = search(appender, query);
+            assertEquals(5, collector.lines.size());
+            assertOrdered(collector, base, 95);
+        } finally {
+            close(appender);
+        }
+    }
+}
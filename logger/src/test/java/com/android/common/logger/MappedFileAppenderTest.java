@@ -0,0 +1,187 @@
+package com.android.common.logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Memory mapped log file: lines across regions, the written length after a
+ * crash, and the file truncated when it is closed
+ */
+public class MappedFileAppenderTest {
+
+    private static MappedFileAppender createLog(File dir) {
+        MappedFileAppender appender = new MappedFileAppender(dir.getPath(), "m", 2);
+        appender.setRegionSize(4096);
+        appender.setMaxFileSize(1024 * 1024);
+        appender.setLogContentType(true);
+        return appender;
+    }
+
+    private static String read(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = is.read(buffer)) > 0) {
+                os.write(buffer, 0, length);
+            }
+            return os.toString("UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        return read(new FileInputStream(file));
+    }
+
+    /**
+     * Write a file as left by a crash: lines then the zeros of the unused
+     * end of the mapped region
+     */
+    private static void writeCrashedFile(File file, String lines, int zeros) throws IOException {
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(lines.getBytes("UTF-8"));
+            os.write(new byte[zeros]);
+        } finally {
+            os.close();
+        }
+    }
+
+    @Test
+    public void crashTailSkipped() throws IOException {
+        File dir = TestFiles.createDir("mapped-crash");
+        File file = new File(dir, "m.txt");
+        // The zeros span more than one read block of getWrittenLength
+        writeCrashedFile(file, "before crash\r\n", 10000);
+
+        // Read while the file is not open
+        MappedFileAppender appender = createLog(dir);
+        assertEquals("before crash\r\n", appender.getLogContent().getContent());
+
+        // Opened again, the new lines follow the old ones
+        appender.initLogFile();
+        try {
+            appender.writeLogMessage("[test]", "INFO", "after restart");
+            String content = appender.getLogContent().getContent();
+            assertTrue(content, content.startsWith("before crash\r\n"));
+            assertTrue(content, content.endsWith("[INFO] [test]after restart\r\n"));
+            assertEquals(-1, content.indexOf('\0'));
+        } finally {
+            appender.closeLogFile();
+        }
+        assertEquals(appender.getLogContent().getContent(), readFile(file));
+    }
+
+    @Test
+    public void onlyZeros() throws IOException {
+        File dir = TestFiles.createDir("mapped-zeros");
+        writeCrashedFile(new File(dir, "m.txt"), "", 4096);
+        MappedFileAppender appender = createLog(dir);
+        assertEquals("", appender.getLogContent().getContent());
+    }
+
+    @Test
+    public void linesAcrossRegions() throws IOException {
+        File dir = TestFiles.createDir("mapped-regions");
+        MappedFileAppender appender = createLog(dir);
+        appender.initLogFile();
+        StringBuilder expected = new StringBuilder();
+        try {
+            // Lines of changing lengths, some of them longer than a region
+            for (int i = 0; i < 300; i++) {
+                StringBuilder msg = new StringBuilder("line ").append(i).append(' ');
+                int length = (i % 37 == 0) ? 5000 : (i * 31) % 120;
+                for (int j = 0; j < length; j++) {
+                    msg.append((char) ('a' + (j % 26)));
+                }
+                appender.writeLogMessage("[test]", "INFO", msg.toString());
+                expected.append(msg).append("\r\n");
+            }
+            assertEquals(expected.toString(), messages(appender.getLogContent().getContent()));
+        } finally {
+            appender.closeLogFile();
+        }
+        assertEquals(expected.toString(), messages(readFile(new File(dir, "m.txt"))));
+    }
+
+    @Test
+    public void truncatedOnClose() throws IOException {
+        File dir = TestFiles.createDir("mapped-truncate");
+        File file = new File(dir, "m.txt");
+        MappedFileAppender appender = createLog(dir);
+        appender.initLogFile();
+        for (int i = 0; i < 100; i++) {
+            appender.writeLogMessage("[test]", "INFO", "line " + i);
+        }
+        String content = appender.getLogContent().getContent();
+        long written = content.getBytes("UTF-8").length;
+
+        // The mapped regions are allocated with written zeros
+        assertTrue(written > 4096);
+        assertEquals(0, file.length() % 4096);
+        assertTrue(file.length() > written);
+
+        appender.closeLogFile();
+        assertEquals(written, file.length());
+        assertEquals(content, readFile(file));
+
+        // Opened again, nothing is lost and the file is extended again
+        appender.initLogFile();
+        appender.writeLogMessage("[test]", "INFO", "line 100");
+        appender.closeLogFile();
+        String reopened = readFile(file);
+        assertTrue(reopened.startsWith(content));
+        assertTrue(reopened.endsWith("line 100\r\n"));
+        assertEquals(reopened.getBytes("UTF-8").length, file.length());
+    }
+
+    @Test
+    public void streamOpenedBeforeRollover() throws IOException {
+        File dir = TestFiles.createDir("mapped-stream");
+        MappedFileAppender appender = createLog(dir);
+        appender.setStreamContent(true);
+        appender.setMaxFileSize(2048);
+        appender.initLogFile();
+        try {
+            for (int i = 0; i < 10; i++) {
+                appender.writeLogMessage("[test]", "INFO", "line " + i);
+            }
+            LogContent content = appender.getLogContent();
+            // Rolled and rewritten before the content is read
+            for (int i = 10; i < 100; i++) {
+                appender.writeLogMessage("[test]", "INFO", "line " + i);
+            }
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                expected.append("line ").append(i).append("\r\n");
+            }
+            assertEquals(expected.toString(), messages(read(content.openInputStream())));
+        } finally {
+            appender.closeLogFile();
+        }
+    }
+
+    /**
+     * Return the messages of the lines, without the time stamp, level and tag
+     */
+    private static String messages(String content) {
+        StringBuilder sb = new StringBuilder();
+        String prefix = " [INFO] [test]";
+        for (String line : content.split("\r\n")) {
+            int index = line.indexOf(prefix);
+            assertTrue(line, index > 0);
+            sb.append(line, index + prefix.length(), line.length()).append("\r\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.android.common.logger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Expansion of the "{}" placeholders and their escapes
+ */
+public class MessageFormatterTest {
+
+    private static String format(String pattern, Object... args) {
+        StringBuilder sb = new StringBuilder();
+        MessageFormatter.appendFormatted(sb, pattern, args);
+        return sb.toString();
+    }
+
+    private static String format(String pattern, long arg) {
+        StringBuilder sb = new StringBuilder();
+        MessageFormatter.appendFormatted(sb, pattern, arg);
+        return sb.toString();
+    }
+
+    private static String format(String pattern, long arg1, long arg2) {
+        StringBuilder sb = new StringBuilder();
+        MessageFormatter.appendFormatted(sb, pattern, arg1, arg2);
+        return sb.toString();
+    }
+
+    @Test
+    public void placeholders() {
+        assertEquals("a 1 b 2 c", format("a {} b {} c", "1", "2"));
+        assertEquals("12", format("{}{}", "1", "2"));
+        assertEquals("no placeholder", format("no placeholder", "1"));
+        assertEquals("null", format("{}", (Object) null));
+    }
+
+    @Test
+    public void argumentCountMismatch() {
+        // Extra placeholders are kept, extra arguments ignored
+        assertEquals("1 {} {}", format("{} {} {}", "1"));
+        assertEquals("1 2", format("{} {}", "1", "2", "3"));
+        assertEquals("a {}", format("a {}"));
+        assertEquals("5 {}", format("{} {}", 5));
+    }
+
+    @Test
+    public void escapes() {
+        assertEquals("a {} b", format("a \\{} b", "1"));
+        assertEquals("{} 1", format("\\{} {}", "1"));
+        assertEquals("{}{}", format("\\{}\\{}", "1"));
+        assertEquals("x {} 7 {}", format("x \\{} {} \\{}", 7));
+        assertEquals("{} 1 2", format("\\{} {} {}", 1, 2));
+        // A lone brace or backslash is plain text
+        assertEquals("{ 1 } \\", format("{ {} } \\", "1"));
+    }
+
+    @Test
+    public void primitives() {
+        assertEquals("n=42", format("n={}", 42));
+        assertEquals("-1 and 9223372036854775807", format("{} and {}", -1, Long.MAX_VALUE));
+        assertEquals("1 {}", format("{} {}", 1));
+        assertEquals("1 2", format("{} {}", 1, 2));
+        assertEquals("none", format("none", 1, 2));
+    }
+
+    @Test
+    public void arrays() {
+        assertEquals("[1, 2]", format("{}", new Object[] { new int[] { 1, 2 } }));
+        assertEquals("[a, [b]]", format("{}", new Object[] { new Object[] { "a",
+                new String[] { "b" } } }));
+        assertEquals("[3] [4]", format("{} {}", new long[] { 3 }, new byte[] { 4 }));
+    }
+
+    @Test
+    public void failingToString() {
+        Object broken = new Object() {
+            public String toString() {
+                throw new IllegalStateException("broken");
+            }
+        };
+        String text = format("a {} b", broken);
+        assertTrue(text, text.startsWith("a [FAILED toString(): java.lang.IllegalStateException"));
+        assertTrue(text, text.endsWith("] b"));
+    }
+
+    @Test
+    public void supplier() {
+        StringBuilder sb = new StringBuilder();
+        MessageFormatter.appendMessage(sb, "ignored", null, 0, 0, 0, new MessageSupplier() {
+            public String get() {
+                return "supplied";
+            }
+        });
+        assertEquals("supplied", sb.toString());
+
+        sb.setLength(0);
+        MessageFormatter.appendMessage(sb, null, null, 0, 0, 0, new MessageSupplier() {
+            public String get() {
+                throw new IllegalStateException();
+            }
+        });
+        assertTrue(sb.toString().startsWith("[FAILED MessageSupplier.get()"));
+
+        sb.setLength(0);
+        MessageFormatter.appendMessage(sb, "plain {}", null, 0, 0, 0, null);
+        assertEquals("plain {}", sb.toString());
+    }
+}
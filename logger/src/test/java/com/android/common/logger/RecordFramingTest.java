@@ -0,0 +1,183 @@
+package com.android.common.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recovery of the framed log files and reading of their lines
+ */
+public class RecordFramingTest {
+
+    private static byte[] frames(String... lines) throws IOException {
+        RecordFraming framing = new RecordFraming();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (String line : lines) {
+            byte[] data = (line + "\n").getBytes("UTF-8");
+            framing.write(os, data, 0, data.length);
+        }
+        return os.toByteArray();
+    }
+
+    private static File write(String name, byte[] data) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "smartlogger-framing-" + name);
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+
+    private static String unframe(byte[] data, long expectedSkipped) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertEquals(expectedSkipped, RecordFraming.unframe(new ByteArrayInputStream(data), os));
+        return os.toString("UTF-8");
+    }
+
+    @Test
+    public void recoverKeepsValidFile() throws IOException {
+        byte[] data = frames("first", "second");
+        File file = write("valid", data);
+        try {
+            assertEquals(data.length, RecordFraming.recover(file.getPath()));
+            assertEquals(data.length, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void recoverCutsTornFrame() throws IOException {
+        byte[] valid = frames("first", "second");
+        byte[] torn = frames("third");
+        byte[] data = new byte[valid.length + torn.length - 3];
+        System.arraycopy(valid, 0, data, 0, valid.length);
+        System.arraycopy(torn, 0, data, valid.length, torn.length - 3);
+        File file = write("torn", data);
+        try {
+            assertEquals(valid.length, RecordFraming.recover(file.getPath()));
+            assertEquals(valid.length, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void recoverCutsTornFirstFrame() throws IOException {
+        byte[] torn = frames("only line");
+        byte[] data = new byte[torn.length - 5];
+        System.arraycopy(torn, 0, data, 0, data.length);
+        File file = write("first", data);
+        try {
+            assertEquals(0, RecordFraming.recover(file.getPath()));
+            assertEquals(0, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void recoverLeavesPlainTextFile() throws IOException {
+        byte[] data = "2026-10-17 10:00:00.000 [INFO] plain line\n".getBytes("UTF-8");
+        File file = write("plain", data);
+        try {
+            assertEquals(RecordFraming.NOT_FRAMED, RecordFraming.recover(file.getPath()));
+            assertEquals(data.length, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void recoverMissingOrEmptyFile() throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "smartlogger-framing-missing");
+        file.delete();
+        assertEquals(0, RecordFraming.recover(file.getPath()));
+
+        file = write("empty", new byte[0]);
+        try {
+            assertEquals(0, RecordFraming.recover(file.getPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void recoverAfterCorruptRegion() throws IOException {
+        byte[] data = frames("first", "second", "third");
+        File file = write("corrupt", data);
+        try {
+            // Garbage in the middle, the last frame is still valid
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(RecordFraming.OVERHEAD + 8);
+                raf.write(0x42);
+            } finally {
+                raf.close();
+            }
+            assertEquals(data.length, RecordFraming.recover(file.getPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void unframeLines() throws IOException {
+        assertEquals("first\nsecond\n", unframe(frames("first", "second"), 0));
+    }
+
+    @Test
+    public void unframeSkipsCorruptRegion() throws IOException {
+        byte[] first = frames("first");
+        byte[] others = frames("second", "third");
+        byte[] data = new byte[first.length + others.length];
+        System.arraycopy(first, 0, data, 0, first.length);
+        System.arraycopy(others, 0, data, first.length, others.length);
+        // Corrupt the payload of "second", its CRC no longer matches
+        data[first.length + RecordFraming.HEADER_SIZE] = 'S';
+
+        String lines = unframe(data, frames("second").length);
+        assertEquals("first\nthird\n", lines);
+    }
+
+    @Test
+    public void unframeResyncsAfterCorruptLength() throws IOException {
+        byte[] first = frames("first");
+        byte[] second = frames("second");
+        byte[] data = frames("first", "second", "third", "fourth");
+        // A length in range but past the end of the file, as for a torn frame
+        data[first.length + 4] = 0x10;
+
+        String lines = unframe(data, second.length);
+        assertEquals("first\nthird\nfourth\n", lines);
+    }
+
+    @Test
+    public void unframeDropsTornLastFrame() throws IOException {
+        byte[] valid = frames("first");
+        byte[] torn = frames("second");
+        byte[] data = new byte[valid.length + torn.length - 2];
+        System.arraycopy(valid, 0, data, 0, valid.length);
+        System.arraycopy(torn, 0, data, valid.length, torn.length - 2);
+
+        assertEquals("first\n", unframe(data, torn.length - 2));
+    }
+
+    @Test
+    public void writeTruncatesLongLines() throws IOException {
+        byte[] line = new byte[RecordFraming.MAX_RECORD_SIZE + 100];
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        int written = new RecordFraming().write(os, line, 0, line.length);
+        assertEquals(RecordFraming.MAX_RECORD_SIZE + RecordFraming.OVERHEAD, written);
+        assertEquals(written, os.size());
+    }
+}
@@ -0,0 +1,65 @@
+package com.android.common.logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Appender of the tests, records the messages logged with a tag. When it is
+ * created closed, the first message waits for the gate to be opened.
+ */
+class RecordingAppender implements EventAppender {
+    final List<String> messages = new ArrayList<String>();
+    final CountDownLatch gate;
+    final CountDownLatch entered = new CountDownLatch(1);
+    private final String tag;
+
+    RecordingAppender(String tag, boolean open) {
+        this.tag = tag;
+        this.gate = new CountDownLatch(open ? 0 : 1);
+    }
+
+    public void writeLogEvent(LogEvent event) {
+        if (!tag.equals(event.getTag())) {
+            return;
+        }
+        entered.countDown();
+        try {
+            gate.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String message = event.getMessage().toString();
+        synchronized (messages) {
+            messages.add(message);
+        }
+    }
+
+    public void writeLogMessage(String paramTag, String level, String msg) {
+    }
+
+    public void initLogFile() {
+    }
+
+    public void openLogFile() {
+    }
+
+    public void closeLogFile() {
+    }
+
+    public void deleteLogFile() {
+    }
+
+    public void setLogLevel(int level) {
+    }
+
+    public LogContent getLogContent() {
+        return null;
+    }
+
+    int size() {
+        synchronized (messages) {
+            return messages.size();
+        }
+    }
+}
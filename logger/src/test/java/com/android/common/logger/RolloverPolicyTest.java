@@ -0,0 +1,206 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Period boundaries of the rollover policies and naming of the dated files
+ */
+public class RolloverPolicyTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    /**
+     * Return a local time, the periods are in the default time zone
+     */
+    private static long time(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Return the start of the current hour, the appender names its first
+     * file after the time it is opened
+     */
+    private static long currentHour() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String periodName(long timeStamp) {
+        TimeRolloverPolicy policy = new TimeRolloverPolicy(TimeRolloverPolicy.HOURLY);
+        policy.fileOpened(timeStamp);
+        return policy.getPeriodName();
+    }
+
+    private static void write(FileAppender appender, long timeStamp, String message)
+            throws IOException {
+        LogEvent event = LogEvent.obtain();
+        try {
+            event.set("[test]", "policy", Log.INFO, "INFO", timeStamp,
+                    Thread.currentThread().getId(), null, null);
+            event.setMessage(message, null, 0, 0, 0, null);
+            appender.writeLogEvent(event);
+        } finally {
+            event.recycle();
+        }
+    }
+
+    @Test
+    public void hourlyBoundaries() {
+        TimeRolloverPolicy policy = new TimeRolloverPolicy(TimeRolloverPolicy.HOURLY);
+        long start = time(2026, 10, 17, 14, 0);
+        policy.fileOpened(start + 30 * MINUTE);
+        assertEquals("2026-10-17-14", policy.getPeriodName());
+        assertFalse(policy.isTriggered(0, start));
+        assertFalse(policy.isTriggered(Long.MAX_VALUE, start + HOUR - 1));
+        assertTrue(policy.isTriggered(0, start + HOUR));
+
+        // The last hour of the day and of the year
+        policy.fileOpened(time(2026, 12, 31, 23, 59));
+        assertEquals("2026-12-31-23", policy.getPeriodName());
+        assertTrue(policy.isTriggered(0, time(2027, 1, 1, 0, 0)));
+        policy.fileOpened(time(2027, 1, 1, 0, 0));
+        assertEquals("2027-01-01-00", policy.getPeriodName());
+    }
+
+    @Test
+    public void dailyBoundaries() {
+        TimeRolloverPolicy policy = new TimeRolloverPolicy(TimeRolloverPolicy.DAILY);
+        policy.fileOpened(time(2026, 2, 5, 23, 59));
+        assertEquals("2026-02-05", policy.getPeriodName());
+        assertFalse(policy.isTriggered(0, time(2026, 2, 5, 0, 0)));
+        assertFalse(policy.isTriggered(0, time(2026, 2, 6, 0, 0) - 1));
+        assertTrue(policy.isTriggered(0, time(2026, 2, 6, 0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPeriod() {
+        new TimeRolloverPolicy(2);
+    }
+
+    @Test
+    public void parsePeriod() {
+        assertArrayEquals(new long[] { time(2026, 10, 17, 14, 0), time(2026, 10, 17, 15, 0) },
+                TimeRolloverPolicy.parsePeriod("2026-10-17-14"));
+        assertArrayEquals(new long[] { time(2026, 10, 17, 0, 0), time(2026, 10, 18, 0, 0) },
+                TimeRolloverPolicy.parsePeriod("2026-10-17"));
+        assertArrayEquals(new long[] { time(2026, 12, 31, 23, 0), time(2027, 1, 1, 0, 0) },
+                TimeRolloverPolicy.parsePeriod("2026-12-31-23"));
+        assertNull(TimeRolloverPolicy.parsePeriod("1"));
+        assertNull(TimeRolloverPolicy.parsePeriod("slot12"));
+        assertNull(TimeRolloverPolicy.parsePeriod("2026-10-xx"));
+        assertNull(TimeRolloverPolicy.parsePeriod("2026/10/17"));
+
+        // The name of a period parses back to it
+        TimeRolloverPolicy policy = new TimeRolloverPolicy(TimeRolloverPolicy.HOURLY);
+        long timeStamp = time(2026, 3, 9, 7, 45);
+        policy.fileOpened(timeStamp);
+        long[] period = TimeRolloverPolicy.parsePeriod(policy.getPeriodName());
+        assertTrue((period[0] <= timeStamp) && (timeStamp < period[1]));
+    }
+
+    @Test
+    public void sizeAndComposite() {
+        SizeRolloverPolicy size = new SizeRolloverPolicy(1000);
+        size.fileOpened(0);
+        assertNull(size.getPeriodName());
+        assertFalse(size.isTriggered(999, Long.MAX_VALUE));
+        assertTrue(size.isTriggered(1000, 0));
+
+        CompositeRolloverPolicy composite = new CompositeRolloverPolicy(size,
+                new TimeRolloverPolicy(TimeRolloverPolicy.HOURLY));
+        long start = time(2026, 10, 17, 14, 0);
+        composite.fileOpened(start);
+        assertEquals("2026-10-17-14", composite.getPeriodName());
+        assertFalse(composite.isTriggered(999, start + HOUR - 1));
+        assertTrue(composite.isTriggered(1000, start));
+        assertTrue(composite.isTriggered(0, start + HOUR));
+    }
+
+    @Test
+    public void datedFileNames() throws IOException {
+        File dir = TestFiles.createDir("policy-dated");
+        FileAppender appender = new FileAppender(dir.getPath() + File.separator, "p", 5);
+        appender.setRolloverPolicy(new CompositeRolloverPolicy(
+                new TimeRolloverPolicy(TimeRolloverPolicy.HOURLY), new SizeRolloverPolicy(200)));
+        long start = currentHour();
+        appender.initLogFile();
+        try {
+            write(appender, start + 10 * MINUTE, "first line of the hour");
+            write(appender, start + 20 * MINUTE, "second line of the hour, it fills the file up"
+                    + " to the size of the size policy");
+            write(appender, start + 30 * MINUTE, "third line of the hour");
+            write(appender, start + 70 * MINUTE, "first line of the next hour");
+            write(appender, start + 190 * MINUTE, "line three hours later");
+
+            // Wait for the rotations
+            appender.search(new LogQuery(), new LogQuery.Listener() {
+                public boolean onMatch(long timeStamp, String line) {
+                    return true;
+                }
+            });
+            String[] names = dir.list();
+            Arrays.sort(names);
+            List<String> logs = new ArrayList<String>();
+            for (String name : names) {
+                if (name.endsWith(".txt")) {
+                    logs.add(name);
+                }
+            }
+            String hour = "p." + periodName(start);
+            String nextHour = "p." + periodName(start + HOUR);
+            assertEquals(Arrays.asList(hour + ".1.txt", hour + ".2.txt", nextHour + ".1.txt",
+                    "p.txt"), logs);
+        } finally {
+            appender.closeLogFile();
+            appender.deleteLogFile();
+        }
+    }
+
+    @Test
+    public void lateLineFoundInNextPeriod() throws IOException {
+        File dir = TestFiles.createDir("policy-late");
+        FileAppender appender = new FileAppender(dir.getPath() + File.separator, "p", 5);
+        appender.setRolloverPolicy(new TimeRolloverPolicy(TimeRolloverPolicy.HOURLY));
+        long boundary = currentHour() + HOUR;
+        appender.initLogFile();
+        try {
+            write(appender, boundary - 5 * MINUTE, "line before the boundary");
+            write(appender, boundary + 1000, "line after the boundary");
+            // Logged before the boundary but written after the roll, in the next file
+            write(appender, boundary - 10 * 1000, "late line");
+            write(appender, boundary + 2 * HOUR, "line two hours later");
+
+            final List<String> lines = new ArrayList<String>();
+            LogQuery query = new LogQuery();
+            query.setTimeRange(boundary - 20 * 1000, boundary - 5 * 1000);
+            appender.search(query, new LogQuery.Listener() {
+                public boolean onMatch(long timeStamp, String line) {
+                    lines.add(line);
+                    return true;
+                }
+            });
+            assertEquals(1, lines.size());
+            assertTrue(lines.get(0).endsWith("late line"));
+            assertTrue(new File(dir, "p." + periodName(boundary) + ".1.txt").exists());
+        } finally {
+            appender.closeLogFile();
+            appender.deleteLogFile();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Skipping of the log files by the time range, the level and the tags of
+ * their summary
+ */
+public class ShardSummaryTest {
+
+    private static ShardSummary summary() {
+        ShardSummary summary = new ShardSummary();
+        summary.add(1000, Log.INFO, "network");
+        summary.add(2000, Log.DEBUG, "network");
+        summary.add(3000, Log.INFO, "storage");
+        return summary;
+    }
+
+    private static LogQuery query(int level, String tag, long fromMillis, long toMillis) {
+        LogQuery query = new LogQuery();
+        if (level >= 0) {
+            query.setLevel(level);
+        }
+        query.setTag(tag);
+        query.setTimeRange(fromMillis, toMillis);
+        return query;
+    }
+
+    @Test
+    public void timeRange() {
+        ShardSummary summary = summary();
+        assertTrue(summary.mayOverlap(0, 1000));
+        assertTrue(summary.mayOverlap(3000, 4000));
+        assertTrue(summary.mayOverlap(1500, 2500));
+        assertFalse(summary.mayOverlap(0, 999));
+        assertFalse(summary.mayOverlap(3001, 4000));
+    }
+
+    @Test
+    public void levelSkipping() {
+        ShardSummary summary = summary();
+        assertTrue(summary.mayMatch(query(Log.INFO, null, Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertTrue(summary.mayMatch(query(Log.TRACE, null, Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertFalse(summary.mayMatch(query(Log.WARN, null, Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertFalse(summary.mayMatch(query(Log.ERROR, null, Long.MIN_VALUE, Long.MAX_VALUE)));
+
+        // The lines without level only match the queries without level
+        ShardSummary profiling = new ShardSummary();
+        profiling.add(1000, -1, null);
+        assertTrue(profiling.mayMatch(query(-1, null, Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertFalse(profiling.mayMatch(query(Log.TRACE, null, Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void tagSkipping() {
+        ShardSummary summary = summary();
+        assertTrue(summary.mayMatch(query(-1, "network", Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertTrue(summary.mayMatch(query(-1, "storage", Long.MIN_VALUE, Long.MAX_VALUE)));
+
+        // The Bloom filter has false positives, but few for a handful of tags
+        int skipped = 0;
+        for (int i = 0; i < 100; i++) {
+            if (!summary.mayMatch(query(-1, "absent" + i, Long.MIN_VALUE, Long.MAX_VALUE))) {
+                skipped++;
+            }
+        }
+        assertTrue("skipped " + skipped, skipped >= 95);
+
+        // A line without tag may hold any tag
+        summary.add(4000, Log.INFO, null);
+        assertTrue(summary.mayMatch(query(-1, "absent0", Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void allFilters() {
+        ShardSummary summary = summary();
+        assertTrue(summary.mayMatch(query(Log.INFO, "storage", 2500, 3500)));
+        assertFalse(summary.mayMatch(query(Log.INFO, "storage", 4000, 5000)));
+        assertFalse(summary.mayMatch(query(Log.WARN, "storage", 2500, 3500)));
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "smartlogger-summary.txt");
+        String fileUrl = file.getPath();
+        File summaryFile = new File(ShardSummary.toSummaryUrl(fileUrl));
+        try {
+            summary().write(fileUrl, 1234);
+            assertEquals(summaryFile.getPath(), fileUrl + ShardSummary.SUFFIX);
+            assertEquals(ShardSummary.toSummaryUrl(fileUrl),
+                    ShardSummary.toSummaryUrl(fileUrl + ".gz"));
+
+            ShardSummary summary = ShardSummary.read(fileUrl, 1234);
+            assertNotNull(summary);
+            assertNotNull(ShardSummary.read(fileUrl, -1));
+            assertTrue(summary.mayMatch(query(Log.INFO, "network", 500, 1500)));
+            assertFalse(summary.mayMatch(query(Log.WARN, null, Long.MIN_VALUE, Long.MAX_VALUE)));
+            assertFalse(summary.mayMatch(query(-1, null, 3001, 4000)));
+
+            // The file changed since the summary was written
+            assertNull(ShardSummary.read(fileUrl, 1235));
+        } finally {
+            summaryFile.delete();
+        }
+        assertNull(ShardSummary.read(fileUrl, -1));
+    }
+
+    @Test
+    public void incompleteNotWritten() throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "smartlogger-incomplete.txt");
+        String fileUrl = file.getPath();
+        new File(ShardSummary.toSummaryUrl(fileUrl)).delete();
+
+        ShardSummary summary = summary();
+        summary.setIncomplete();
+        summary.write(fileUrl, 1234);
+        assertFalse(new File(ShardSummary.toSummaryUrl(fileUrl)).exists());
+    }
+
+    @Test
+    public void parseLevelAndTag() {
+        assertEquals(Log.ERROR, ShardSummary.toLevel("ERROR"));
+        assertEquals(Log.TRACE, ShardSummary.toLevel("TRACE"));
+        assertEquals(-1, ShardSummary.toLevel("PROFILE"));
+        assertEquals("network", ShardSummary.toTag("[app][network]"));
+        assertEquals("", ShardSummary.toTag("[app][]"));
+        assertNull(ShardSummary.toTag("[app]"));
+    }
+}
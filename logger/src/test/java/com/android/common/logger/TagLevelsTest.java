@@ -0,0 +1,113 @@
+package com.android.common.logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per-tag level overrides: prefix resolution and the lookup table
+ */
+public class TagLevelsTest {
+
+    private static TagLevels create(Object... tagLevels) {
+        HashMap<String, Integer> overrides = new HashMap<String, Integer>();
+        for (int i = 0; i < tagLevels.length; i += 2) {
+            overrides.put((String) tagLevels[i], (Integer) tagLevels[i + 1]);
+        }
+        return new TagLevels(overrides);
+    }
+
+    private static int set(String tag) {
+        return tag.hashCode() & (TagLevels.SETS - 1);
+    }
+
+    /**
+     * Return count distinct tags falling in the same set
+     */
+    private static List<String> collidingTags(int count) {
+        List<String> tags = new ArrayList<String>();
+        tags.add("tag0");
+        for (int i = 1; tags.size() < count; i++) {
+            String tag = "tag" + i;
+            if (set(tag) == set(tags.get(0))) {
+                tags.add(tag);
+            }
+        }
+        return tags;
+    }
+
+    private static boolean isCached(TagLevels levels, String tag) {
+        int index = set(tag) * 2;
+        for (int way = 0; way < 2; way++) {
+            if ((levels.slots[index + way] != null) && (levels.slots[index + way].tag == tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void hierarchicalResolution() {
+        TagLevels levels = create("net", Log.DEBUG, "net.http.client", Log.TRACE,
+                "db", Log.ERROR);
+        assertEquals(Log.DEBUG, levels.getLevel("net", Log.INFO));
+        assertEquals(Log.DEBUG, levels.getLevel("net.http", Log.INFO));
+        assertEquals(Log.TRACE, levels.getLevel("net.http.client", Log.INFO));
+        assertEquals(Log.TRACE, levels.getLevel("net.http.client.pool", Log.INFO));
+        assertEquals(Log.ERROR, levels.getLevel("db.query", Log.INFO));
+
+        // A prefix only matches whole segments
+        assertEquals(Log.INFO, levels.getLevel("network", Log.INFO));
+        assertEquals(Log.INFO, levels.getLevel("netx.http", Log.INFO));
+        assertEquals(Log.INFO, levels.getLevel(".net", Log.INFO));
+        assertEquals(Log.INFO, levels.getLevel(null, Log.INFO));
+
+        assertEquals(Log.TRACE, levels.getMaxLevel());
+    }
+
+    @Test
+    public void cachedResult() {
+        TagLevels levels = create("net", Log.DEBUG);
+        // Equal tags that are not the same String go through the hash map
+        String tag = new String("net.http");
+        assertEquals(Log.DEBUG, levels.getLevel(tag, Log.INFO));
+        assertEquals(Log.DEBUG, levels.getLevel(new String("net.http"), Log.INFO));
+        assertEquals(Log.DEBUG, levels.getLevel(tag, Log.WARN));
+        assertEquals(Log.WARN, levels.getLevel("other", Log.WARN));
+        assertEquals(Log.ERROR, levels.getLevel("other", Log.ERROR));
+    }
+
+    @Test
+    public void collision() {
+        List<String> tags = collidingTags(3);
+        String first = tags.get(0);
+        String second = tags.get(1);
+        TagLevels levels = create(first, Log.DEBUG, second, Log.TRACE);
+
+        // Two hot tags of the same set stay cached together
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Log.DEBUG, levels.getLevel(first, Log.INFO));
+            assertEquals(Log.TRACE, levels.getLevel(second, Log.INFO));
+            assertTrue(isCached(levels, first));
+            assertTrue(isCached(levels, second));
+        }
+
+        // A third one replaces the least recently added
+        String third = tags.get(2);
+        assertEquals(Log.INFO, levels.getLevel(third, Log.INFO));
+        assertTrue(isCached(levels, third));
+        assertTrue(isCached(levels, second));
+        assertFalse(isCached(levels, first));
+        assertEquals(Log.DEBUG, levels.getLevel(first, Log.INFO));
+        assertEquals(Log.TRACE, levels.getLevel(second, Log.INFO));
+
+        // An equal tag built at run time does not push a cached one out
+        assertEquals(Log.DEBUG, levels.getLevel(new String(first), Log.INFO));
+        assertTrue(isCached(levels, first));
+        assertTrue(isCached(levels, second));
+    }
+}
@@ -0,0 +1,32 @@
+package com.android.common.logger;
+
+import java.io.File;
+
+/**
+ * Temporary files of the tests, all named "smartlogger-..." under
+ * java.io.tmpdir
+ */
+final class TestFiles {
+
+    /**
+     * This class is static and cannot be intantiated
+     */
+    private TestFiles() {
+    }
+
+    /**
+     * Return the empty directory "smartlogger-" + name, left over files of a
+     * previous run are deleted
+     */
+    static File createDir(String name) {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "smartlogger-" + name);
+        dir.mkdirs();
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        return dir;
+    }
+}
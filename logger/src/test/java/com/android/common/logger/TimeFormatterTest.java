@@ -0,0 +1,135 @@
+package com.android.common.logger;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cached time stamp formatting and the parser of the formatted time stamps
+ */
+public class TimeFormatterTest {
+
+    private static final long[] TIME_STAMPS = {
+        0L, 999L, 1000L, 1001L, -1L, -999L, -1000L, -1001L,
+        951782399999L,      // 2000-02-28 / 29 around midnight UTC
+        1483228799999L,     // end of 2016, after its leap second in UTC
+        1483228800000L,
+        1711846799500L,     // around the March 2024 EU DST change
+        1711846800500L,
+        1729994400123L,
+        4102444800007L,     // 2100-01-01
+    };
+
+    private static String expected(long timeStamp) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(timeStamp));
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() {
+        for (long timeStamp : TIME_STAMPS) {
+            assertEquals(expected(timeStamp), TimeFormatter.format(timeStamp));
+        }
+        // Back and forth between seconds, each change renders a new prefix
+        for (long timeStamp = 1729994399000L; timeStamp < 1729994402000L; timeStamp += 7) {
+            assertEquals(expected(timeStamp), TimeFormatter.format(timeStamp));
+            assertEquals(expected(timeStamp - 86400000L),
+                    TimeFormatter.format(timeStamp - 86400000L));
+        }
+    }
+
+    @Test
+    public void writeAtOffset() {
+        long timeStamp = 1729994400123L;
+        String text = expected(timeStamp);
+
+        StringBuilder sb = new StringBuilder("[");
+        TimeFormatter.append(sb, timeStamp);
+        assertEquals("[" + text, sb.toString());
+
+        char[] chars = new char[TimeFormatter.LENGTH + 4];
+        assertEquals(TimeFormatter.LENGTH + 3, TimeFormatter.write(timeStamp, chars, 3));
+        assertEquals(text, new String(chars, 3, TimeFormatter.LENGTH));
+        assertEquals(0, chars[2]);
+        assertEquals(0, chars[TimeFormatter.LENGTH + 3]);
+
+        byte[] bytes = new byte[TimeFormatter.LENGTH + 4];
+        assertEquals(TimeFormatter.LENGTH + 2, TimeFormatter.write(timeStamp, bytes, 2));
+        assertArrayEquals(ascii(text), Arrays.copyOfRange(bytes, 2,
+                TimeFormatter.LENGTH + 2));
+    }
+
+    @Test
+    public void concurrentSeconds() throws InterruptedException {
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            // Each thread works in its own second, so the cached one keeps
+            // changing under the others
+            final long base = 1729994400000L + t * 1000L;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        long timeStamp = base + (i % 1000);
+                        String text = TimeFormatter.format(timeStamp);
+                        if (!text.equals(expected(timeStamp))) {
+                            failure.set(text + " for " + timeStamp);
+                            return;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void parseFormatted() {
+        TimeFormatter.Parser parser = new TimeFormatter.Parser();
+        for (long timeStamp : TIME_STAMPS) {
+            byte[] line = ascii(TimeFormatter.format(timeStamp) + " [INFO] message");
+            assertEquals(timeStamp, parser.parse(line, line.length));
+        }
+        // Consecutive lines of one second reuse the parsed prefix
+        for (long timeStamp = 1729994399990L; timeStamp < 1729994400010L; timeStamp++) {
+            byte[] line = ascii(TimeFormatter.format(timeStamp));
+            assertEquals(timeStamp, parser.parse(line, line.length));
+        }
+    }
+
+    @Test
+    public void parseRejects() {
+        TimeFormatter.Parser parser = new TimeFormatter.Parser();
+        String valid = TimeFormatter.format(1729994400123L);
+        byte[] line = ascii(valid);
+        assertEquals(-1, parser.parse(line, line.length - 1));
+
+        String[] invalid = {
+            "\tat com.example.Main.main(Main.java:10)",
+            valid.replace('-', '/'),
+            valid.replace('.', ','),
+            "x" + valid.substring(1),
+            valid.substring(0, 11) + "1a" + valid.substring(13),
+        };
+        for (String text : invalid) {
+            line = ascii(text);
+            assertEquals(text, -1, parser.parse(line, line.length));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.android.common.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bounds of the parts of a log file read through its time index
+ */
+public class TimeIndexTest {
+
+    private static final int I = TimeIndex.INTERVAL;
+
+    /**
+     * Create a log file of size bytes and an index with an entry at each
+     * INTERVAL, logged at 1000, 2000 ... milliseconds
+     */
+    private static String createLog(String name, long size, int entries) throws IOException {
+        File file = new File(System.getProperty("java.io.tmpdir"), "smartlogger-index-" + name);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+        } finally {
+            raf.close();
+        }
+        String fileUrl = file.getPath();
+        TimeIndex index = TimeIndex.open(fileUrl, 0, true);
+        try {
+            for (int i = 0; i < entries; i++) {
+                index.add(1000L * (i + 1), (long) I * i);
+            }
+        } finally {
+            index.close();
+        }
+        return fileUrl;
+    }
+
+    private static void delete(String fileUrl) {
+        new File(fileUrl).delete();
+        new File(TimeIndex.toIndexUrl(fileUrl)).delete();
+    }
+
+    @Test
+    public void rangeInside() throws IOException {
+        String fileUrl = createLog("inside", 5L * I, 5);
+        try {
+            assertArrayEquals(new long[] { I, 2L * I }, TimeIndex.range(fileUrl, 2500, 3500));
+        } finally {
+            delete(fileUrl);
+        }
+    }
+
+    @Test
+    public void rangeBoundsIncluded() throws IOException {
+        String fileUrl = createLog("bounds", 5L * I, 5);
+        try {
+            // The lines at 3000 may start right after the entry at 2000
+            assertArrayEquals(new long[] { I, 2L * I }, TimeIndex.range(fileUrl, 3000, 3000));
+            assertArrayEquals(new long[] { 0, I }, TimeIndex.range(fileUrl, 1000, 1000));
+        } finally {
+            delete(fileUrl);
+        }
+    }
+
+    @Test
+    public void rangeToEndOfFile() throws IOException {
+        String fileUrl = createLog("end", 5L * I, 5);
+        try {
+            assertArrayEquals(new long[] { 3L * I, -1 },
+                    TimeIndex.range(fileUrl, 4500, Long.MAX_VALUE));
+            assertArrayEquals(new long[] { 4L * I, -1 },
+                    TimeIndex.range(fileUrl, 6000, Long.MAX_VALUE));
+            assertArrayEquals(new long[] { 0, -1 },
+                    TimeIndex.range(fileUrl, Long.MIN_VALUE, Long.MAX_VALUE));
+        } finally {
+            delete(fileUrl);
+        }
+    }
+
+    @Test
+    public void rangeBeforeFirstEntry() throws IOException {
+        String fileUrl = createLog("before", 5L * I, 5);
+        try {
+            assertNull(TimeIndex.range(fileUrl, 0, 999));
+        } finally {
+            delete(fileUrl);
+        }
+    }
+
+    @Test
+    public void rangeBeforeIndexStart() throws IOException {
+        // A log file which had lines before its index was opened
+        String fileUrl = createLog("head", 5L * I, 0);
+        long head = 2L * I + 100;
+        TimeIndex index = TimeIndex.open(fileUrl, head, false);
+        try {
+            index.add(5000, head);
+            index.add(6000, head + I);
+        } finally {
+            index.close();
+        }
+        try {
+            // The head lines are of unknown time, they are always read
+            assertArrayEquals(new long[] { 0, head }, TimeIndex.range(fileUrl, 0, 999));
+            assertArrayEquals(new long[] { 0, head + I }, TimeIndex.range(fileUrl, 0, 5000));
+            assertArrayEquals(new long[] { head, -1 },
+                    TimeIndex.range(fileUrl, 5500, Long.MAX_VALUE));
+        } finally {
+            delete(fileUrl);
+        }
+    }
+
+    @Test
+    public void rangeWithoutIndex() throws IOException {
+        String fileUrl = createLog("none", 5L * I, 5);
+        try {
+            new File(TimeIndex.toIndexUrl(fileUrl)).delete();
+            assertArrayEquals(new long[] { 0, -1 }, TimeIndex.range(fileUrl, 2500, 3500));
+        } finally {
+            delete(fileUrl);
+        }
+        assertNull(TimeIndex.range(fileUrl, 2500, 3500));
+    }
+
+    @Test
+    public void rangeIgnoresEntriesPastFile() throws IOException {
+        // The log file was truncated after the entry at 3000 was written
+        String fileUrl = createLog("past", 5L * I, 5);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(fileUrl, "rw");
+            try {
+                raf.setLength(2L * I + 10);
+            } finally {
+                raf.close();
+            }
+            assertArrayEquals(new long[] { 2L * I, -1 },
+                    TimeIndex.range(fileUrl, 4500, Long.MAX_VALUE));
+        } finally {
+            delete(fileUrl);
+        }
+    }
+
+    @Test
+    public void openDropsEntriesPastFile() throws IOException {
+        String fileUrl = createLog("reopen", 5L * I, 5);
+        try {
+            // The entries at 0, I and 2 * I are kept
+            TimeIndex index = TimeIndex.open(fileUrl, 2L * I + 10, false);
+            index.close();
+            assertEquals(3 * 16, new File(TimeIndex.toIndexUrl(fileUrl)).length());
+        } finally {
+            delete(fileUrl);
+        }
+    }
+
+    @Test
+    public void addKeepsInterval() throws IOException {
+        String fileUrl = createLog("interval", 3L * I, 0);
+        try {
+            TimeIndex index = TimeIndex.open(fileUrl, 0, true);
+            try {
+                index.add(1000, 0);
+                index.add(1100, 100);
+                index.add(1200, I - 1);
+                index.add(2000, I);
+            } finally {
+                index.close();
+            }
+            assertEquals(2 * 16, new File(TimeIndex.toIndexUrl(fileUrl)).length());
+            assertArrayEquals(new long[] { 0, I }, TimeIndex.range(fileUrl, 1100, 1200));
+        } finally {
+            delete(fileUrl);
+        }
+    }
+
+    @Test
+    public void compressedShardKeepsIndexName() throws IOException {
+        String fileUrl = createLog("shard.txt", 5L * I, 5);
+        String shardUrl = fileUrl + ".gz";
+        try {
+            assertEquals(TimeIndex.toIndexUrl(fileUrl), TimeIndex.toIndexUrl(shardUrl));
+            // The compressed file is smaller than the offsets, they are trusted
+            assertTrue(new File(fileUrl).renameTo(new File(shardUrl)));
+            RandomAccessFile raf = new RandomAccessFile(shardUrl, "rw");
+            try {
+                raf.setLength(10);
+            } finally {
+                raf.close();
+            }
+            assertArrayEquals(new long[] { 3L * I, -1 },
+                    TimeIndex.range(shardUrl, 4500, Long.MAX_VALUE));
+        } finally {
+            delete(fileUrl);
+            new File(shardUrl).delete();
+        }
+    }
+}